@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.benchmark;
+
+import java.util.Random;
+
+import org.protelis.lang.datatype.DeviceUID;
+import org.protelis.vm.NetworkManager;
+import org.protelis.vm.ProtelisProgram;
+import org.protelis.vm.ProtelisVM;
+import org.protelis.vm.impl.AbstractExecutionContext;
+import org.protelis.vm.impl.SimpleExecutionEnvironment;
+
+/**
+ * Deterministic execution context for benchmarks: the clock advances by one
+ * unit every time it is read (once per round), and random numbers are drawn
+ * from a seeded generator.
+ */
+public final class BenchmarkContext extends AbstractExecutionContext {
+
+    private static final DeviceUID LOCAL = new IntDeviceUID(0);
+    private final Random rng = new Random(0);
+    private double time;
+
+    /**
+     * @param netmgr
+     *            the network manager
+     */
+    public BenchmarkContext(final NetworkManager netmgr) {
+        super(new SimpleExecutionEnvironment(), netmgr);
+    }
+
+    /**
+     * Prepares a {@link ProtelisVM} running a program on a device with a given
+     * number of synthetic neighbors.
+     *
+     * @param program
+     *            the program
+     * @param neighbors
+     *            the number of neighbors
+     * @return a {@link ProtelisVM}
+     */
+    public static ProtelisVM createVM(final ProtelisProgram program, final int neighbors) {
+        return new ProtelisVM(program, new BenchmarkContext(new SyntheticNetworkManager(neighbors)));
+    }
+
+    @Override
+    public DeviceUID getDeviceUID() {
+        return LOCAL;
+    }
+
+    @Override
+    public Number getCurrentTime() {
+        return time++;
+    }
+
+    @Override
+    public double nextRandomDouble() {
+        return rng.nextDouble();
+    }
+
+    @Override
+    protected AbstractExecutionContext instance() {
+        return new BenchmarkContext(getNetworkManager());
+    }
+
+}
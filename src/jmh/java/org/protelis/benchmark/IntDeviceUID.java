@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.benchmark;
+
+import org.protelis.lang.datatype.DeviceUID;
+
+/**
+ * Minimal integer-based {@link DeviceUID}.
+ */
+public final class IntDeviceUID implements DeviceUID {
+
+    private static final long serialVersionUID = 6187355519574395215L;
+    private final int id;
+
+    /**
+     * @param id
+     *            the device identifier
+     */
+    public IntDeviceUID(final int id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the device identifier
+     */
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof IntDeviceUID && ((IntDeviceUID) obj).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return Integer.toString(id);
+    }
+
+}
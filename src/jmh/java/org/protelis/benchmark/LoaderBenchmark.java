@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.vm.ProtelisProgram;
+
+/**
+ * Measures the time required to load a generated module of about
+ * {@value #NODES} nodes, covering most of the node kinds of the language.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LoaderBenchmark {
+
+    /**
+     * Approximate number of nodes of the generated module.
+     */
+    public static final int NODES = 10_000;
+    /*
+     * Each statement generates about 25 nodes
+     */
+    private static final int STATEMENTS = NODES / 25;
+
+    private String module;
+
+    /**
+     * Generates the module.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        final StringBuilder sb = new StringBuilder("import java.lang.Math.abs\n"
+                + "def f(a, b) { a + b }\n"
+                + "let v0 = 1;\n");
+        for (int i = 1; i <= STATEMENTS; i++) {
+            final String prev = "v" + (i - 1);
+            sb.append("let v").append(i).append(" = ")
+                .append("if (").append(prev).append(" < ").append(i).append(") { ")
+                .append("f(abs(-").append(prev).append("), [").append(prev).append(", 2].get(0)) } else { ")
+                .append("mux (true) { rep (x <- ").append(prev).append(") { x * 2 } } else { ")
+                .append("minHood(nbr(").append(prev).append(")) + pi } };\n");
+        }
+        module = sb.append('v').append(STATEMENTS).toString();
+    }
+
+    /**
+     * @return the loaded program
+     */
+    @Benchmark
+    public ProtelisProgram load() {
+        return ProtelisLoader.parseAnonymousModule(module);
+    }
+
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.vm.ProtelisProgram;
+
+/**
+ * Soak test for {@link ProtelisLoader}: parses {@value #PARSES} distinct
+ * anonymous programs, importing a library module, in batches of
+ * {@value #BATCH}. After every batch, the heap still in use after a full
+ * collection is printed: it must stay flat, and so must the time per batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, batchSize = LoaderSoakBenchmark.BATCH)
+@Measurement(iterations = LoaderSoakBenchmark.PARSES / LoaderSoakBenchmark.BATCH,
+    batchSize = LoaderSoakBenchmark.BATCH)
+@Fork(1)
+public class LoaderSoakBenchmark {
+
+    /**
+     * Total number of parsed programs.
+     */
+    public static final int PARSES = 100_000;
+    /**
+     * Programs parsed per measured iteration.
+     */
+    public static final int BATCH = 10_000;
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+    private int counter;
+
+    /**
+     * @return a freshly parsed program
+     */
+    @Benchmark
+    public ProtelisProgram parse() {
+        return ProtelisLoader.parseAnonymousModule("import protelis:test:truefunctions\none() + " + counter++);
+    }
+
+    /**
+     * Prints the heap still in use after a full collection.
+     */
+    @TearDown(Level.Iteration)
+    public void reportLiveHeap() {
+        System.gc();
+        System.out.println("\nLive heap after " + counter + " parses: "
+                + MEMORY.getHeapMemoryUsage().getUsed() / 1024 + " KiB");
+    }
+
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.benchmark;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.vm.ProtelisVM;
+
+/**
+ * Estimates the cost of each kind of node of the interpreter. For every
+ * opcode, a program is generated by repeating {@value #REPETITIONS} times a
+ * statement dominated by that node, and a whole round is measured. The score
+ * is reported per statement: subtracting the score of the "constant" opcode
+ * (which only pays for the statement sequence) gives the approximate cost of
+ * the node under scrutiny.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class OpcodeBenchmark {
+
+    /**
+     * Number of times each statement is repeated in the generated program.
+     */
+    public static final int REPETITIONS = 100;
+    private static final String PRELUDE = "import java.lang.Math.abs\n"
+            + "def f(a) { a }\n"
+            + "let x = 1;\n"
+            + "let g = (a) -> { a };\n";
+    private static final Map<String, String> OPCODES;
+
+    static {
+        final Map<String, String> opcodes = new LinkedHashMap<>();
+        opcodes.put("constant", "1");
+        opcodes.put("variable", "x");
+        opcodes.put("createVar", "let y = x");
+        opcodes.put("binaryOp", "x + 1");
+        opcodes.put("comparison", "x < 1");
+        opcodes.put("arithmetic", "(x * 2 + 1) / (x - 3) ^ 2");
+        opcodes.put("unaryOp", "-x");
+        opcodes.put("ternaryOp", "mux(true) { x } else { 1 }");
+        opcodes.put("if", "if (true) { x } else { 1 }");
+        opcodes.put("createTuple", "[x, x]");
+        opcodes.put("rep", "rep (v <- 0) { v + 1 }");
+        opcodes.put("nbr", "nbr(x)");
+        opcodes.put("hood", "minHood(nbr(x))");
+        opcodes.put("genericHood", "hood((a, b) -> { a + b }, 0, nbr(x))");
+        opcodes.put("functionCall", "f(x)");
+        opcodes.put("lambdaApply", "g.apply(x)");
+        opcodes.put("methodCall", "abs(x)");
+        opcodes.put("dotOperator", "self.nextRandomDouble()");
+        opcodes.put("env", "env");
+        OPCODES = Collections.unmodifiableMap(opcodes);
+    }
+
+    /**
+     * The opcode to measure.
+     */
+    @Param({
+        "constant", "variable", "createVar", "binaryOp", "comparison", "arithmetic", "unaryOp", "ternaryOp",
+        "if", "createTuple", "rep", "nbr", "hood", "genericHood", "functionCall", "lambdaApply", "methodCall", "dotOperator", "env"
+    })
+    private String opcode;
+
+    /**
+     * Number of neighbors of the simulated device.
+     */
+    @Param({ "0", "10" })
+    private int neighbors;
+
+    private ProtelisVM vm;
+
+    /**
+     * Generates and loads the program for the selected opcode.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        final String statement = OPCODES.get(opcode);
+        if (statement == null) {
+            throw new IllegalArgumentException("Unknown opcode " + opcode + ", valid ones are " + OPCODES.keySet());
+        }
+        final StringBuilder program = new StringBuilder(PRELUDE);
+        for (int i = 1; i < REPETITIONS; i++) {
+            program.append(statement).append(";\n");
+        }
+        program.append(statement);
+        vm = BenchmarkContext.createVM(ProtelisLoader.parse(program.toString()), neighbors);
+        vm.runCycle();
+    }
+
+    /**
+     * @return the value computed in the round
+     */
+    @Benchmark
+    @OperationsPerInvocation(REPETITIONS)
+    public Object runCycle() {
+        vm.runCycle();
+        return vm.getCurrentValue();
+    }
+
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.protelis.lang.util.Op2;
+
+/**
+ * Compares the cost of an {@link Op2} on two numbers through
+ * {@link Op2#run(Object, Object)}, which has a fast path for doubles, and
+ * through the generic function of the operator, which rediscovers the types
+ * of the operands.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class OperatorBenchmark {
+
+    /**
+     * The operator to measure.
+     */
+    @Param({ "+", "*", "/", "<", "==" })
+    private String operator;
+
+    private Op2 op;
+    private Object a;
+    private Object b;
+
+    /**
+     * Picks the operator and the operands.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        op = Op2.getOp(operator);
+        a = 3.5;
+        b = 1.25;
+    }
+
+    /**
+     * @return the result of the fast path
+     */
+    @Benchmark
+    public Object run() {
+        return op.run(a, b);
+    }
+
+    /**
+     * @return the result of the generic function
+     */
+    @Benchmark
+    public Object generic() {
+        return op.getFunction().apply(a, b);
+    }
+
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.vm.ProtelisProgram;
+
+/**
+ * Measures {@link ProtelisLoader#parseAll(java.util.Collection, int)} on a
+ * deployment-like batch of {@value #PROGRAMS} distinct programs, all importing
+ * the same library module, as a function of the number of workers. The
+ * speed-up is the ratio between the single worker score and the others.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ParallelLoaderBenchmark {
+
+    /**
+     * Number of programs in the batch.
+     */
+    public static final int PROGRAMS = 512;
+
+    /**
+     * Number of worker threads.
+     */
+    @Param({ "1", "2", "4", "8" })
+    private int workers;
+
+    private List<String> programs;
+
+    /**
+     * Generates the programs, and makes sure that the pool can retain a
+     * resource set per worker.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        ProtelisLoader.setResourceSetPoolSize(workers);
+        programs = new ArrayList<>(PROGRAMS);
+        for (int i = 0; i < PROGRAMS; i++) {
+            programs.add("import protelis:test:truefunctions\n"
+                    + "def f" + i + "(x) { rep (v <- x) { v + " + i + " } }\n"
+                    + "let y = one() + two();\n"
+                    + "if (y > " + i + ") { f" + i + "(y) } else { minHood(nbr(three())) }");
+        }
+    }
+
+    /**
+     * @return the parsed programs
+     */
+    @Benchmark
+    public List<ProtelisProgram> parseAll() {
+        return ProtelisLoader.parseAll(programs, workers);
+    }
+
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.lang.interpreter.impl.BytecodeCompiler;
+import org.protelis.vm.ProtelisProgram;
+import org.protelis.vm.ProtelisVM;
+
+/**
+ * Measures the cost of a full {@link ProtelisVM#runCycle()} (setup, compute,
+ * commit) for the programs used by the language test suite, as a function of
+ * the neighborhood size. Run with the GC profiler (the default for the Gradle
+ * jmh task) to get the allocation rate per round as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RunCycleBenchmark {
+
+    /**
+     * Program to run, as a classpath resource name without extension.
+     */
+    @Param({
+        "hood01", "hood02", "hood03",
+        "rep01", "rep02",
+        "genericHood01", "genericHood02", "genericHood03", "genericHood04", "genericHood05", "genericHood06",
+        "TupleMap01", "TupleFilter01", "TupleReduce01",
+        "alignedMap", "cyclicTimer", "fieldMethod01", "function03", "hof01", "eval01"
+    })
+    private String program;
+
+    /**
+     * Number of neighbors of the simulated device.
+     */
+    @Param({ "0", "10", "100" })
+    private int neighbors;
+
+    /**
+     * Whether pure expressions are compiled to bytecode.
+     */
+    @Param({ "false", "true" })
+    private boolean compiled;
+
+    private ProtelisVM vm;
+
+    /**
+     * Loads the program and runs a first round, so that the simulated
+     * neighbors have some state to share.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        final ProtelisProgram parsed = ProtelisLoader.parse("/" + program + ".pt");
+        vm = BenchmarkContext.createVM(compiled ? BytecodeCompiler.compile(parsed) : parsed, neighbors);
+        vm.runCycle();
+    }
+
+    /**
+     * @return the value computed in the round
+     */
+    @Benchmark
+    public Object runCycle() {
+        vm.runCycle();
+        return vm.getCurrentValue();
+    }
+
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.benchmark;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.interpreter.impl.Constant;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.impl.AbstractExecutionContext;
+
+/**
+ * Measures the cost of starting and finishing a round (setup and commit, with
+ * a function looked up in between) as a function of the number of functions
+ * known to the device. It is expected not to depend on the library size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SetupBenchmark {
+
+    /**
+     * Number of functions in the library.
+     */
+    @Param({ "1", "100", "1000", "10000" })
+    private int functions;
+
+    private AbstractExecutionContext context;
+    private Reference first;
+
+    /**
+     * Builds the library and the context.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Map<Reference, FunctionDefinition> library = new LinkedHashMap<>(functions * 2);
+        for (int i = 0; i < functions; i++) {
+            final String name = "f" + i;
+            final FunctionDefinition f = new FunctionDefinition(name, Collections.emptyList());
+            f.setBody(new Constant<>(i));
+            final Reference ref = new Reference(name);
+            if (first == null) {
+                first = ref;
+            }
+            library.put(ref, f);
+        }
+        context = new BenchmarkContext(new SyntheticNetworkManager(0));
+        context.setAvailableFunctions(library);
+    }
+
+    /**
+     * @return the first function of the library, as seen during the round
+     */
+    @Benchmark
+    public Object setupAndCommit() {
+        context.setup();
+        final Object f = context.getVariable(first);
+        context.commit();
+        return f;
+    }
+
+}
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.benchmark;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.protelis.lang.datatype.DeviceUID;
+import org.protelis.vm.NetworkManager;
+import org.protelis.vm.util.CodePath;
+
+/**
+ * {@link NetworkManager} simulating a device surrounded by a configurable
+ * number of neighbors. Each neighbor is assumed to run the same program and to
+ * be perfectly aligned with the local device: the state exported in the
+ * previous round is handed back as the state received from every neighbor.
+ * This way, every field built by the program has exactly neighbors + 1
+ * entries, with no network simulation cost.
+ */
+public final class SyntheticNetworkManager implements NetworkManager {
+
+    private final DeviceUID[] neighbors;
+    private Map<DeviceUID, Map<CodePath, Object>> neighborState = Collections.emptyMap();
+
+    /**
+     * @param neighborCount
+     *            the number of simulated neighbors
+     */
+    public SyntheticNetworkManager(final int neighborCount) {
+        if (neighborCount < 0) {
+            throw new IllegalArgumentException("The number of neighbors can not be negative: " + neighborCount);
+        }
+        neighbors = new DeviceUID[neighborCount];
+        for (int i = 0; i < neighborCount; i++) {
+            /*
+             * Identifier 0 is reserved for the local device
+             */
+            neighbors[i] = new IntDeviceUID(i + 1);
+        }
+    }
+
+    @Override
+    public Map<DeviceUID, Map<CodePath, Object>> getNeighborState() {
+        return neighborState;
+    }
+
+    @Override
+    public void shareState(final Map<CodePath, Object> toSend) {
+        final Map<CodePath, Object> exported = Collections.unmodifiableMap(toSend);
+        final Map<DeviceUID, Map<CodePath, Object>> state = new LinkedHashMap<>(neighbors.length * 2);
+        for (final DeviceUID n : neighbors) {
+            state.put(n, exported);
+        }
+        neighborState = Collections.unmodifiableMap(state);
+    }
+
+}
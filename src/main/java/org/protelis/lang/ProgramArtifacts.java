@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.protelis.vm.ProtelisProgram;
+
+/**
+ * Reads and writes precompiled program artifacts: binary files containing an
+ * already translated {@link ProtelisProgram}, namely its evaluation tree,
+ * along with all the functions and references it uses, imported modules
+ * included.
+ *
+ * Artifacts are produced ahead of time by {@link #main(String...)}, which is
+ * the only entry point of this class relying on {@link ProtelisLoader}.
+ * Reading them requires neither parsing nor any initialization of Xtext, EMF
+ * or Guice.
+ */
+public final class ProgramArtifacts {
+
+    /**
+     * Extension of artifact files.
+     */
+    public static final String EXTENSION = "ptc";
+    private static final int MAGIC = 0x50544c43; // PTLC
+    private static final byte FORMAT_VERSION = 1;
+
+    private ProgramArtifacts() {
+    }
+
+    /**
+     * @param program
+     *            the program, which should have never been executed
+     * @param out
+     *            the stream where to write the artifact. It is not closed
+     * @throws IOException
+     *             if the stream can not be written
+     */
+    public static void write(final ProtelisProgram program, final OutputStream out) throws IOException {
+        final DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeByte(FORMAT_VERSION);
+        header.flush();
+        final GZIPOutputStream zip = new GZIPOutputStream(out);
+        final ObjectOutputStream oos = new ObjectOutputStream(zip);
+        oos.writeObject(program);
+        oos.flush();
+        zip.finish();
+    }
+
+    /**
+     * @param program
+     *            the program, which should have never been executed
+     * @return the artifact
+     */
+    public static byte[] toBytes(final ProtelisProgram program) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            write(program, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param in
+     *            the stream containing the artifact. It is not closed
+     * @return the program
+     * @throws IOException
+     *             if the stream can not be read
+     * @throws IllegalArgumentException
+     *             if the stream does not contain an artifact, or it was
+     *             written with an unsupported format
+     */
+    public static ProtelisProgram read(final InputStream in) throws IOException {
+        final DataInputStream header = new DataInputStream(in);
+        if (header.readInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a Protelis program artifact");
+        }
+        final byte version = header.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported artifact format " + version
+                    + ", expected " + FORMAT_VERSION);
+        }
+        final ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(in));
+        try {
+            return (ProtelisProgram) ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("The artifact refers to classes missing from the classpath", e);
+        }
+    }
+
+    /**
+     * @param artifact
+     *            the artifact
+     * @return the program
+     */
+    public static ProtelisProgram fromBytes(final byte[] artifact) {
+        try {
+            return read(new ByteArrayInputStream(artifact));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Corrupted artifact", e);
+        }
+    }
+
+    /**
+     * @param resource
+     *            the artifact location in the classpath, for instance
+     *            "/my/package/myProgram.ptc"
+     * @return the program
+     * @throws IOException
+     *             if the resource does not exist or can not be read
+     */
+    public static ProtelisProgram fromClasspath(final String resource) throws IOException {
+        try (InputStream in = ProgramArtifacts.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException(resource + " not found in the classpath");
+            }
+            return read(in);
+        }
+    }
+
+    /**
+     * Ahead-of-time compilation step: parses a program with
+     * {@link ProtelisLoader#parse(String)} and writes its artifact.
+     *
+     * @param args
+     *            the program, in any of the formats accepted by
+     *            {@link ProtelisLoader#parse(String)}, and the path of the
+     *            artifact file to write
+     * @throws IOException
+     *             if the artifact can not be written
+     */
+    public static void main(final String... args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: ProgramArtifacts <program> <artifact file>");
+        }
+        try (OutputStream out = Files.newOutputStream(Paths.get(args[1]))) {
+            write(ProtelisLoader.parse(args[0]), out);
+        }
+    }
+
+}
@@ -10,9 +10,12 @@ package org.protelis.lang;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -21,6 +24,13 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import java.util.function.Function;
@@ -35,9 +45,11 @@ import org.apache.commons.math3.util.Pair;
 import org.danilopianini.lang.util.FasterString;
 import org.eclipse.emf.common.util.EList;
 import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.Resource.Diagnostic;
+import org.eclipse.emf.ecore.resource.ResourceSet;
 import org.eclipse.xtext.common.types.JvmOperation;
 import org.eclipse.xtext.diagnostics.AbstractDiagnostic;
 import org.eclipse.xtext.resource.XtextResource;
@@ -50,6 +62,7 @@ import org.protelis.lang.interpreter.impl.AlignedMap;
 import org.protelis.lang.interpreter.impl.All;
 import org.protelis.lang.interpreter.impl.BinaryOp;
 import org.protelis.lang.interpreter.impl.Constant;
+import org.protelis.lang.interpreter.impl.ConstantFolding;
 import org.protelis.lang.interpreter.impl.CreateTuple;
 import org.protelis.lang.interpreter.impl.CreateVar;
 import org.protelis.lang.interpreter.impl.DotOperator;
@@ -63,7 +76,9 @@ import org.protelis.lang.interpreter.impl.MethodCall;
 import org.protelis.lang.interpreter.impl.NBRCall;
 import org.protelis.lang.interpreter.impl.RepCall;
 import org.protelis.lang.interpreter.impl.Self;
+import org.protelis.lang.interpreter.impl.SlotAssignment;
 import org.protelis.lang.interpreter.impl.TernaryOp;
+import org.protelis.lang.interpreter.impl.TypeInference;
 import org.protelis.lang.interpreter.impl.UnaryOp;
 import org.protelis.lang.interpreter.impl.Variable;
 import org.protelis.lang.util.HoodOp;
@@ -106,15 +121,26 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 /**
  * Main entry-point class for loading/parsing Protelis programs.
+ * 
+ * Parsing happens in {@link XtextResourceSet}s taken from a pool, which can be
+ * sized with {@link #setResourceSetPoolSize(int)}: every parse operation gets
+ * exclusive use of one of them. Library modules loaded from the classpath are
+ * kept in their resource set, and are reused by the subsequent operations
+ * using the same set. Anonymous programs are instead unloaded as soon as
+ * they have been translated.
  */
 public final class ProtelisLoader {
 
     private static final Logger L = LoggerFactory.getLogger("Protelis Loader");
     private static final AtomicInteger IDGEN = new AtomicInteger();
-    private static final XtextResourceSet XTEXT = createResourceSet();
+    private static final Injector INJECTOR = createInjector();
+    private static final Deque<XtextResourceSet> RESOURCE_SETS = new ArrayDeque<>();
+    private static int poolSize = Runtime.getRuntime().availableProcessors();
     private static final Pattern REGEX_PROTELIS_MODULE = Pattern.compile("(?:\\w+:)*\\w+");
     private static final Pattern REGEX_PROTELIS_IMPORT = Pattern.compile("import\\s+((?:\\w+:)*\\w+)\\s+",
             Pattern.DOTALL);
+    private static final String CLASSPATH_SCHEME = "classpath:";
+    private static final ConcurrentMap<String, String> LIBRARY_SOURCES = new ConcurrentHashMap<>();
     private static final PathMatchingResourcePatternResolver RESOLVER = new PathMatchingResourcePatternResolver();
     private static final String PROTELIS_FILE_EXTENSION = "pt";
     private static final String HOOD_END = "Hood";
@@ -151,13 +177,105 @@ public final class ProtelisLoader {
      *             when the program has errors
      */
     public static ProtelisProgram parse(final String program) throws IllegalArgumentException {
+        final XtextResourceSet xrs = acquireResourceSet();
+        try {
+            return parse(xrs, program);
+        } finally {
+            releaseResourceSet(xrs);
+        }
+    }
+
+    /**
+     * Parses many programs concurrently, using one worker per available
+     * processor. See {@link #parseAll(Collection, int)}.
+     * 
+     * @param programs
+     *            Protelis modules, program files or programs, in any of the
+     *            formats accepted by {@link #parse(String)}
+     * @return the parsed programs, in the same order
+     * @throws IllegalArgumentException
+     *             when any of the programs has errors
+     */
+    public static List<ProtelisProgram> parseAll(final Collection<String> programs) throws IllegalArgumentException {
+        return parseAll(programs, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Parses many programs concurrently. Each worker thread takes a resource
+     * set from the pool and uses it for all the programs it parses, so that
+     * every library module is loaded at most once per worker. The sources of
+     * classpath modules are read only once, and shared among all workers.
+     * 
+     * @param programs
+     *            Protelis modules, program files or programs, in any of the
+     *            formats accepted by {@link #parse(String)}
+     * @param parallelism
+     *            the maximum number of worker threads
+     * @return the parsed programs, in the same order
+     * @throws IllegalArgumentException
+     *             when any of the programs has errors
+     */
+    public static List<ProtelisProgram> parseAll(final Collection<String> programs, final int parallelism)
+            throws IllegalArgumentException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("At least one worker is required, got " + parallelism);
+        }
+        final String[] sources = programs.toArray(new String[programs.size()]);
+        final ProtelisProgram[] results = new ProtelisProgram[sources.length];
+        final AtomicInteger next = new AtomicInteger();
+        final Callable<Void> worker = () -> {
+            final XtextResourceSet xrs = acquireResourceSet();
+            try {
+                for (int i = next.getAndIncrement(); i < sources.length; i = next.getAndIncrement()) {
+                    try {
+                        results[i] = parse(xrs, sources[i]);
+                    } catch (RuntimeException e) {
+                        /*
+                         * Stop the other workers as well
+                         */
+                        next.set(sources.length);
+                        throw e;
+                    }
+                }
+            } finally {
+                releaseResourceSet(xrs);
+            }
+            return null;
+        };
+        final int workers = Math.min(parallelism, sources.length);
+        if (workers <= 1) {
+            for (int i = 0; i < sources.length; i++) {
+                results[i] = parse(sources[i]);
+            }
+            return Arrays.asList(results);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            for (final Future<Void> result : executor.invokeAll(Collections.nCopies(workers, worker))) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return Arrays.asList(results);
+    }
+
+    private static ProtelisProgram parse(final XtextResourceSet xrs, final String program) {
         try {
             if (REGEX_PROTELIS_MODULE.matcher(program).matches()) {
-                return parseURI("classpath:/" + program.replace(':', '/') + "." + PROTELIS_FILE_EXTENSION);
+                return parseURI(xrs, "classpath:/" + program.replace(':', '/') + "." + PROTELIS_FILE_EXTENSION);
             }
-            return parseURI(program);
+            return parseURI(xrs, program);
         } catch (IOException e) {
-            return parseAnonymousModule(program);
+            return parseAnonymousModule(xrs, program);
         }
     }
 
@@ -177,7 +295,21 @@ public final class ProtelisLoader {
      *             when the program has errors
      */
     public static ProtelisProgram parseAnonymousModule(final String program) throws IllegalArgumentException {
-        return parse(resourceFromString(program));
+        final XtextResourceSet xrs = acquireResourceSet();
+        try {
+            return parseAnonymousModule(xrs, program);
+        } finally {
+            releaseResourceSet(xrs);
+        }
+    }
+
+    private static ProtelisProgram parseAnonymousModule(final XtextResourceSet xrs, final String program) {
+        final Resource resource = resourceFromString(xrs, program);
+        try {
+            return parse(resource);
+        } finally {
+            unload(resource);
+        }
     }
 
     /**
@@ -200,14 +332,24 @@ public final class ProtelisLoader {
      *             when the program has errors
      */
     public static ProtelisProgram parseURI(final String programURI) throws IOException, IllegalArgumentException {
-        return parse(resourceFromURIString(programURI));
+        final XtextResourceSet xrs = acquireResourceSet();
+        try {
+            return parseURI(xrs, programURI);
+        } finally {
+            releaseResourceSet(xrs);
+        }
     }
 
-    private static Resource resourceFromURIString(final String programURI) throws IOException {
-        loadResourcesRecursively(XTEXT, programURI);
+    private static ProtelisProgram parseURI(final XtextResourceSet xrs, final String programURI) throws IOException {
+        return parse(resourceFromURIString(xrs, programURI));
+    }
+
+    private static Resource resourceFromURIString(final XtextResourceSet target, final String programURI)
+            throws IOException {
+        loadResourcesRecursively(target, programURI);
         final String realURI = (programURI.startsWith("/") ? "classpath:" : "") + programURI;
         final URI uri = URI.createURI(realURI);
-        return XTEXT.getResource(uri, true);
+        return target.getResource(uri, true);
     }
 
     private static void loadResourcesRecursively(final XtextResourceSet target, final String programURI)
@@ -221,9 +363,23 @@ public final class ProtelisLoader {
         if (!alreadyInQueue.contains(realURI)) {
             alreadyInQueue.add(realURI);
             final URI uri = URI.createURI(realURI);
-            final org.springframework.core.io.Resource protelisFile = RESOLVER.getResource(realURI);
-            final InputStream is = protelisFile.getInputStream();
-            final String ss = IOUtils.toString(is, "UTF-8");
+            if (target.getResource(uri, false) != null) {
+                /*
+                 * Already loaded, along with all its imports
+                 */
+                return;
+            }
+            final boolean isLibrary = realURI.startsWith(CLASSPATH_SCHEME);
+            String ss = isLibrary ? LIBRARY_SOURCES.get(realURI) : null;
+            if (ss == null) {
+                final org.springframework.core.io.Resource protelisFile = RESOLVER.getResource(realURI);
+                try (InputStream is = protelisFile.getInputStream()) {
+                    ss = IOUtils.toString(is, "UTF-8");
+                }
+                if (isLibrary) {
+                    LIBRARY_SOURCES.putIfAbsent(realURI, ss);
+                }
+            }
             final Matcher matcher = REGEX_PROTELIS_IMPORT.matcher(ss);
             while (matcher.find()) {
                 final int start = matcher.start(1);
@@ -232,17 +388,27 @@ public final class ProtelisLoader {
                 final String classpathResource = "classpath:/" + imp.replace(":", "/") + "." + PROTELIS_FILE_EXTENSION;
                 loadResourcesRecursively(target, classpathResource, alreadyInQueue);
             }
-            target.getResource(uri, true);
+            if (isLibrary) {
+                final Resource r = target.createResource(uri);
+                r.load(new StringInputStream(ss), target.getLoadOptions());
+            } else {
+                target.getResource(uri, true);
+            }
         }
     }
 
     /**
      * @param program
      *            the program in String format
-     * @return a dummy:/ resource that can be used to interpret the program
+     * @return a dummy:/ resource that can be used to interpret the program.
+     *         It lives in a resource set of its own, which is not pooled:
+     *         both are collected once the resource is no longer referenced
      */
     public static Resource resourceFromString(final String program) {
-        final XtextResourceSet xrs = XTEXT;
+        return resourceFromString(createResourceSet(), program);
+    }
+
+    private static Resource resourceFromString(final XtextResourceSet xrs, final String program) {
         InputStream in = new StringInputStream(program);
         try {
             loadStringResources(xrs, in);
@@ -273,10 +439,74 @@ public final class ProtelisLoader {
         }
     }
 
-    private static XtextResourceSet createResourceSet() {
+    /**
+     * Unloads a resource and removes it from its resource set. Programs
+     * already translated from the resource are not affected.
+     * 
+     * @param resource
+     *            the {@link Resource} to unload
+     */
+    public static void unload(final Resource resource) {
+        final ResourceSet set = resource.getResourceSet();
+        resource.unload();
+        if (set != null) {
+            set.getResources().remove(resource);
+        }
+    }
+
+    /**
+     * Sets the maximum number of resource sets kept for reuse. Each of them
+     * retains the library modules it loaded, so larger pools trade memory for
+     * less contention between concurrent parse operations. Sets exceeding the
+     * limit are unloaded when they are released.
+     * 
+     * @param size
+     *            the maximum number of pooled resource sets, at least one
+     */
+    public static void setResourceSetPoolSize(final int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("The pool must contain at least one resource set, got " + size);
+        }
+        synchronized (RESOURCE_SETS) {
+            poolSize = size;
+            while (RESOURCE_SETS.size() > poolSize) {
+                discard(RESOURCE_SETS.pollLast());
+            }
+        }
+    }
+
+    private static XtextResourceSet acquireResourceSet() {
+        final XtextResourceSet pooled;
+        synchronized (RESOURCE_SETS) {
+            pooled = RESOURCE_SETS.pollFirst();
+        }
+        return pooled == null ? createResourceSet() : pooled;
+    }
+
+    private static void releaseResourceSet(final XtextResourceSet xrs) {
+        synchronized (RESOURCE_SETS) {
+            if (RESOURCE_SETS.size() < poolSize) {
+                RESOURCE_SETS.addFirst(xrs);
+                return;
+            }
+        }
+        discard(xrs);
+    }
+
+    private static void discard(final XtextResourceSet xrs) {
+        for (final Resource r : xrs.getResources()) {
+            r.unload();
+        }
+        xrs.getResources().clear();
+    }
+
+    private static Injector createInjector() {
         new org.eclipse.emf.mwe.utils.StandaloneSetup().setPlatformUri(".");
-        final Injector guiceInjector = new ProtelisStandaloneSetup().createInjectorAndDoEMFRegistration();
-        final XtextResourceSet xtext = guiceInjector.getInstance(XtextResourceSet.class);
+        return new ProtelisStandaloneSetup().createInjectorAndDoEMFRegistration();
+    }
+
+    private static XtextResourceSet createResourceSet() {
+        final XtextResourceSet xtext = INJECTOR.getInstance(XtextResourceSet.class);
         xtext.addLoadOption(XtextResource.OPTION_RESOLVE_ALL, Boolean.TRUE);
         return xtext;
     }
@@ -321,9 +551,11 @@ public final class ProtelisLoader {
                 .collect(Collectors.toMap(ProtelisLoader::toR, nameToFun::get));
         nameToFun.forEach((fd, fun) -> fun.setBody(Dispatch.translate(fd.getBody(), refToFun)));
         /*
-         * Create the main program
+         * Create the main program, simplify it, specialize it once types are
+         * known, and resolve its variables to slots
          */
-        return new SimpleProgramImpl(root, Dispatch.translate(root.getProgram(), refToFun), refToFun);
+        return SlotAssignment.assign(TypeInference.infer(ConstantFolding.fold(
+                new SimpleProgramImpl(root, Dispatch.translate(root.getProgram(), refToFun), refToFun))));
     }
 
     private static <E> Stream<E> flatten(
@@ -347,7 +579,7 @@ public final class ProtelisLoader {
 
     @SuppressFBWarnings(value = "SE_BAD_FIELD", justification = "This enum is not meant to get Serialized")
     private enum Dispatch {
-        ALIGNED_MAP((e, m) -> {
+        ALIGNED_MAP(org.protelis.parser.protelis.AlignedMap.class, (e, m) -> {
             final org.protelis.parser.protelis.AlignedMap alMap = (org.protelis.parser.protelis.AlignedMap) e;
             return new AlignedMap(
                 translate(alMap.getArg(), m),
@@ -355,28 +587,34 @@ public final class ProtelisLoader {
                 translate(alMap.getOp(), m),
                 translate(alMap.getDefault(), m));
         }),
-        ASSIGNMENT((e, m) -> new CreateVar(toR(((Assignment) e).getRefVar()), translate(((Assignment) e).getRight(), m), false)),
-        BLOCK((e, m) -> new All(
+        ASSIGNMENT(Assignment.class, (e, m) -> new CreateVar(toR(((Assignment) e).getRefVar()), translate(((Assignment) e).getRight(), m), false)),
+        BLOCK(Block.class, (e, m) -> new All(
                 flatten((Block) e, b -> b.getOthers() == null ? Stream.empty() : Stream.<Block>of(b.getOthers()))
                 .map(b -> b.getFirst())
                 .map(s -> translate(s, m))
                 .collect(Collectors.toList()))),
-        BOOLEAN((e, m) -> new Constant<>(((BooleanVal) e).isVal())),
-        BUILTIN_HOOD((e, m) -> {
+        BOOLEAN(BooleanVal.class, (e, m) -> new Constant<>(((BooleanVal) e).isVal())),
+        BUILTIN_HOOD(BuiltinHoodOp.class, (e, m) -> {
             final BuiltinHoodOp hood = (BuiltinHoodOp) e;
             return new HoodCall(
                     translate(hood.getArg(), m),
                     HoodOp.get(hood.getName().replace(HOOD_END, "")),
                     hood.isInclusive());
         }),
-        CALL_METHOD((e, m) -> new MethodCall((JvmOperation) ((Call) e).getReference(), callArgs((Call) e, m))),
-        CALL_FUNCTION((e, m) -> new FunctionCall(m.get(toR(((Call) e).getReference())), callArgs((Call) e, m))),
-        DECLARATION((e, m) -> new CreateVar(toR(e), translate(((VarDef) e).getRight(), m), true)),
-        DOUBLE((e, m) -> new Constant<>(((DoubleVal) e).getVal())),
-        E((e, m) -> e instanceof org.protelis.parser.protelis.E ? new Constant<>(Math.E) : null),
-        ENV((e, m) -> e instanceof org.protelis.parser.protelis.Env ? new Env() : null),
-        EVAL((e, m) -> new Eval(translate(((org.protelis.parser.protelis.Eval) e).getArg(), m))),
-        EXPRESSION((e, m) -> {
+        CALL(Call.class, (e, m) -> {
+            final Call call = (Call) e;
+            final EObject ref = call.getReference();
+            if (ref instanceof JvmOperation) {
+                return new MethodCall((JvmOperation) ref, callArgs(call, m));
+            }
+            return new FunctionCall(m.get(toR(ref)), callArgs(call, m));
+        }),
+        DECLARATION(VarDef.class, (e, m) -> new CreateVar(toR(e), translate(((VarDef) e).getRight(), m), true)),
+        DOUBLE(DoubleVal.class, (e, m) -> new Constant<>(((DoubleVal) e).getVal())),
+        E(org.protelis.parser.protelis.E.class, (e, m) -> new Constant<>(Math.E)),
+        ENV(org.protelis.parser.protelis.Env.class, (e, m) -> new Env()),
+        EVAL(org.protelis.parser.protelis.Eval.class, (e, m) -> new Eval(translate(((org.protelis.parser.protelis.Eval) e).getArg(), m))),
+        EXPRESSION(Expression.class, (e, m) -> {
             final Expression exp = (Expression) e;
             if (exp.getMethodName() != null) {
                 return new DotOperator(exp.getMethodName(), translate(exp.getLeft(), m), exprListArgs(exp.getArgs(), m));
@@ -392,7 +630,7 @@ public final class ProtelisLoader {
             }
             return new BinaryOp(exp.getName(), translate(exp.getLeft(), m), translate(exp.getRight(), m));
         }),
-        GENERIC_HOOD((e, m) -> {
+        GENERIC_HOOD(GenericHood.class, (e, m) -> {
             final GenericHood hood = (GenericHood) e;
             final boolean inclusive = hood.getName().length() > 4;
             final AnnotatedTree<?> nullResult = translate(hood.getDefault(), m);
@@ -406,13 +644,13 @@ public final class ProtelisLoader {
             }
             return new GenericHoodCall(inclusive, new Constant<>(m.get(toR(hood.getReference()))), nullResult, field);
         }),
-        IF((e, m) -> {
+        IF(org.protelis.parser.protelis.If.class, (e, m) -> {
             final org.protelis.parser.protelis.If ifop = (org.protelis.parser.protelis.If) e;
             return new If<>(translate(ifop.getCond(), m),
                     translate(ifop.getThen(), m),
                     translate(ifop.getElse(), m));
         }),
-        LAMBDA((e, m) -> {
+        LAMBDA(Lambda.class, (e, m) -> {
             final Lambda l = (Lambda) e;
             final EObject argobj = l.getArgs();
             final List<VarDef> args = argobj == null ? Collections.emptyList()
@@ -425,43 +663,58 @@ public final class ProtelisLoader {
             lambda.setBody(body);
             return new Constant<>(lambda);
         }),
-        MUX((e, m) -> {
+        MUX(Mux.class, (e, m) -> {
             final Mux mux = (Mux) e;
             return new TernaryOp(mux.getName(),
                     translate(mux.getCond(), m),
                     translate(mux.getThen(), m),
                     translate(mux.getElse(), m));
         }),
-        NBR((e, m) -> new NBRCall(translate(((NBR) e).getArg(), m))),
-        PI((e, m) -> e instanceof Pi ? new Constant<>(Math.PI) : null),
-        REP((e, m) -> new RepCall<>(toR(((Rep) e).getInit().getX()),
+        NBR(NBR.class, (e, m) -> new NBRCall(translate(((NBR) e).getArg(), m))),
+        PI(Pi.class, (e, m) -> new Constant<>(Math.PI)),
+        REP(Rep.class, (e, m) -> new RepCall<>(toR(((Rep) e).getInit().getX()),
                     translate(((Rep) e).getInit().getW(), m),
                     translate(((Rep) e).getBody(), m))),
-        SELF((e, m) -> e instanceof org.protelis.parser.protelis.Self ? new Self() : null),
-        STRING((e, m) -> new Constant<>(((StringVal) e).getVal())),
-        TUPLE((e, m) -> new CreateTuple(exprListArgs(((TupleVal) e).getArgs(), m))),
-        VARIABLE((e, m) -> new Variable(toR(((VarUse) e).getReference())));
-
-        private BiFunction<EObject, Map<Reference, FunctionDefinition>, AnnotatedTree<?>> translator;
-
-        Dispatch(final BiFunction<EObject, Map<Reference, FunctionDefinition>, AnnotatedTree<?>> translator) {
+        SELF(org.protelis.parser.protelis.Self.class, (e, m) -> new Self()),
+        STRING(StringVal.class, (e, m) -> new Constant<>(((StringVal) e).getVal())),
+        TUPLE(TupleVal.class, (e, m) -> new CreateTuple(exprListArgs(((TupleVal) e).getArgs(), m))),
+        VARIABLE(VarUse.class, (e, m) -> new Variable(toR(((VarUse) e).getReference())));
+
+        private static final Map<EClass, Dispatch> BY_ECLASS = new ConcurrentHashMap<>();
+        private final Class<? extends EObject> type;
+        private final BiFunction<EObject, Map<Reference, FunctionDefinition>, AnnotatedTree<?>> translator;
+
+        Dispatch(
+                final Class<? extends EObject> type,
+                final BiFunction<EObject, Map<Reference, FunctionDefinition>, AnnotatedTree<?>> translator) {
+            this.type = type;
             this.translator = translator;
         }
 
+        /*
+         * The first translator, in declaration order, whose type is
+         * compatible with the given EClass
+         */
+        private static Dispatch forEClass(final EClass eClass) {
+            final Class<?> instanceClass = eClass.getInstanceClass();
+            for (final Dispatch dispatch : values()) {
+                if (instanceClass != null && dispatch.type.isAssignableFrom(instanceClass)) {
+                    return dispatch;
+                }
+            }
+            throw new IllegalArgumentException("No translation is available for " + eClass.getName());
+        }
+
         @SuppressWarnings("unchecked")
         public static <T> AnnotatedTree<T> translate(final EObject o, final Map<Reference, FunctionDefinition> functions) {
-            return Arrays.stream(values())
-                .map(dispatch -> {
-                    try {
-                        return Optional.of((AnnotatedTree<T>) dispatch.translator.apply(o, functions));
-                    } catch (RuntimeException e) {
-                        return Optional.<AnnotatedTree<T>>empty();
-                    }
-                })
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .findAny()
-                .get();
+            Objects.requireNonNull(o);
+            final EClass eClass = o.eClass();
+            Dispatch dispatch = BY_ECLASS.get(eClass);
+            if (dispatch == null) {
+                dispatch = forEClass(eClass);
+                BY_ECLASS.put(eClass, dispatch);
+            }
+            return (AnnotatedTree<T>) dispatch.translator.apply(o, functions);
         }
 
     }
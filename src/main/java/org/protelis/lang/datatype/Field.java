@@ -17,7 +17,7 @@ import java.util.function.UnaryOperator;
 
 import org.apache.commons.math3.util.Pair;
 import org.danilopianini.lang.TriFunction;
-import org.protelis.lang.datatype.impl.FieldMapImpl;
+import org.protelis.lang.datatype.impl.DoubleFieldImpl;
 
 /**
  * A field is a function associating a collection of devices to values.
@@ -28,10 +28,11 @@ public interface Field extends Serializable {
      * @param defaultSize
      *            creates a new and empty {@link Field}, defaulting on the
      *            specified size
-     * @return an empty {@link Field}
+     * @return an empty {@link Field}, which stores {@link Double} values
+     *         unboxed
      */
     static Field create(int defaultSize) {
-        return new FieldMapImpl(defaultSize + 1, 1f);
+        return new DoubleFieldImpl(defaultSize + 1);
     }
 
     /**
@@ -139,6 +140,13 @@ public interface Field extends Serializable {
             throw new IllegalArgumentException(
                     "To use this field application at least one of the parameters must be a field.");
         }
+        /*
+         * Fields built on the same neighborhood are combined slot by slot.
+         */
+        final Field aligned = DoubleFieldImpl.apply(fun, fieldTarget, fieldIndexes, target, args);
+        if (aligned != null) {
+            return aligned;
+        }
         /*
          * A consistency check may make sense here.
          */
@@ -31,6 +31,8 @@ public class FunctionDefinition implements Serializable {
     private final List<Reference> args;
     private final TByteList stackCode;
     private AnnotatedTree<?> functionBody;
+    private transient volatile Boolean statelessBody;
+    private transient volatile ThreadLocal<AnnotatedTree<?>> sharedBody;
 
     /**
      * @param name
@@ -75,12 +77,50 @@ public class FunctionDefinition implements Serializable {
         return functionBody.copy();
     }
 
+    /**
+     * @return true if the body of this function is stateless (see
+     *         {@link AnnotatedTree#isStateless()}), and can be obtained via
+     *         {@link #getSharedBody()} instead of being copied at every call
+     *         site
+     */
+    public boolean hasStatelessBody() {
+        Boolean result = statelessBody;
+        if (result == null) {
+            result = functionBody.isStateless();
+            statelessBody = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return a copy of the body which is shared by all the callers running on
+     *         the current thread. It must be evaluated right away, and its
+     *         annotations must be read before any other evaluation of this
+     *         function on the same thread
+     * @throws IllegalStateException
+     *             if the body is not stateless
+     */
+    public AnnotatedTree<?> getSharedBody() {
+        if (!hasStatelessBody()) {
+            throw new IllegalStateException(this + " keeps state, and its body can not be shared.");
+        }
+        ThreadLocal<AnnotatedTree<?>> shared = sharedBody;
+        if (shared == null) {
+            final AnnotatedTree<?> template = functionBody;
+            shared = ThreadLocal.withInitial(template::copy);
+            sharedBody = shared;
+        }
+        return shared.get();
+    }
+
     /**
      * @param body
      *            the body of this function
      */
     public void setBody(final AnnotatedTree<?> body) {
         functionBody = body;
+        statelessBody = null;
+        sharedBody = null;
     }
 
     /**
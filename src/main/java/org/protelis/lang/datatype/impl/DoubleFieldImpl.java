@@ -0,0 +1,628 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.datatype.impl;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import org.apache.commons.math3.util.Pair;
+import org.protelis.lang.datatype.DeviceUID;
+import org.protelis.lang.datatype.Field;
+import org.protelis.vm.util.NeighborIndex;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Field implementation based on parallel arrays of devices and values. As
+ * long as all the values are {@link Double}s, they are stored unboxed in a
+ * double[], and operators and reductions can work on them with no
+ * allocation (see {@link #apply(DoubleBinaryOperator, Object, Object)} and
+ * {@link #reduceDoubles(DoubleBinaryOperator, DeviceUID, double)}). As soon as
+ * a value of a different type is added, the field switches to an Object[].
+ *
+ * Fields can be built on a {@link NeighborIndex}: in this case, every device
+ * is identified by its slot, and fields sharing the same index are combined
+ * slot by slot, with no hashing. In the common case of a field covering all
+ * the slots in order, positions and slots coincide and no mapping is stored
+ * at all. Adding a device which is not in the index drops it.
+ *
+ * Devices are kept in insertion order. Lookups of fields with no index are
+ * fastest when devices are requested in the same order they were inserted,
+ * which is the case when combining aligned fields.
+ */
+public final class DoubleFieldImpl extends AbstractField {
+
+    private static final long serialVersionUID = 3127834562938476503L;
+    private static final int MIN_CAPACITY = 4;
+    /**
+     * Below this size, a linear scan is cheaper than an index.
+     */
+    private static final int LINEAR_LIMIT = 8;
+    private static final int NO_ENTRY = -1;
+    private DeviceUID[] nodes;
+    private double[] doubles;
+    private Object[] values;
+    private int size;
+    private NeighborIndex domain;
+    /**
+     * Slot of the device in each position, null if they coincide.
+     */
+    private int[] slots;
+    private transient int hint;
+    private transient volatile TObjectIntMap<DeviceUID> index;
+    private transient volatile int[] positions;
+
+    /**
+     * @param capacity
+     *            expected number of devices
+     */
+    public DoubleFieldImpl(final int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * @param domain
+     *            the neighborhood this field is built on
+     */
+    public DoubleFieldImpl(final NeighborIndex domain) {
+        this(domain.size(), domain);
+    }
+
+    private DoubleFieldImpl(final int capacity, final NeighborIndex domain) {
+        super();
+        final int actual = Math.max(capacity, MIN_CAPACITY);
+        nodes = new DeviceUID[actual];
+        doubles = new double[actual];
+        this.domain = domain;
+    }
+
+    /*
+     * Same devices of shape, with the given values.
+     */
+    private DoubleFieldImpl(final DoubleFieldImpl shape, final double[] doubles) {
+        super();
+        nodes = Arrays.copyOf(shape.nodes, shape.size);
+        this.doubles = doubles;
+        size = shape.size;
+        domain = shape.domain;
+        slots = shape.slots == null ? null : Arrays.copyOf(shape.slots, shape.size);
+    }
+
+    /**
+     * @return true if all the values are stored as primitive doubles
+     */
+    public boolean isPrimitive() {
+        return doubles != null;
+    }
+
+    /**
+     * @return the {@link NeighborIndex} this field is built on, or null
+     */
+    public NeighborIndex getDomain() {
+        return domain;
+    }
+
+    /**
+     * @param i
+     *            position, in insertion order
+     * @return the device in the position
+     */
+    public DeviceUID getNode(final int i) {
+        checkIndex(i);
+        return nodes[i];
+    }
+
+    /**
+     * @param i
+     *            position, in insertion order
+     * @return the value in the position
+     */
+    public Object getValue(final int i) {
+        checkIndex(i);
+        return doubles == null ? values[i] : (Object) doubles[i];
+    }
+
+    /**
+     * @param i
+     *            position, in insertion order
+     * @return the value in the position, as a double
+     * @throws IllegalStateException
+     *             if the field is not primitive
+     */
+    public double getDouble(final int i) {
+        checkIndex(i);
+        if (doubles == null) {
+            throw new IllegalStateException("This field does not contain only doubles: " + this);
+        }
+        return doubles[i];
+    }
+
+    /**
+     * @param i
+     *            position, in insertion order
+     * @return the slot of the device in the position
+     * @throws IllegalStateException
+     *             if this field is not built on a {@link NeighborIndex}
+     */
+    public int getSlot(final int i) {
+        checkIndex(i);
+        checkDomain();
+        return slots == null ? i : slots[i];
+    }
+
+    /**
+     * @param slot
+     *            the slot
+     * @return the position of the device in the slot, or -1 if it is not in
+     *         this field
+     * @throws IllegalStateException
+     *             if this field is not built on a {@link NeighborIndex}
+     */
+    public int positionOf(final int slot) {
+        checkDomain();
+        if (slots == null) {
+            return slot >= 0 && slot < size ? slot : NO_ENTRY;
+        }
+        int[] pos = positions;
+        if (pos == null) {
+            pos = new int[domain.size()];
+            Arrays.fill(pos, NO_ENTRY);
+            for (int i = 0; i < size; i++) {
+                pos[slots[i]] = i;
+            }
+            positions = pos;
+        }
+        return slot >= 0 && slot < pos.length ? pos[slot] : NO_ENTRY;
+    }
+
+    /**
+     * @param n
+     *            the device
+     * @return the position of the device, or -1 if it is not in this field
+     */
+    public int indexOf(final DeviceUID n) {
+        final int h = hint;
+        if (h < size && (nodes[h] == n || nodes[h].equals(n))) {
+            hint = h + 1;
+            return h;
+        }
+        final int res;
+        if (domain != null) {
+            final int slot = domain.slotOf(n);
+            res = slot < 0 ? NO_ENTRY : positionOf(slot);
+        } else if (size <= LINEAR_LIMIT) {
+            res = linearSearch(n);
+        } else {
+            TObjectIntMap<DeviceUID> idx = index;
+            if (idx == null) {
+                idx = new TObjectIntHashMap<>(size * 2, 0.5f, NO_ENTRY);
+                for (int i = 0; i < size; i++) {
+                    idx.put(nodes[i], i);
+                }
+                index = idx;
+            }
+            res = idx.get(n);
+        }
+        if (res >= 0) {
+            hint = res + 1;
+        }
+        return res;
+    }
+
+    private int linearSearch(final DeviceUID n) {
+        for (int i = 0; i < size; i++) {
+            if (nodes[i] == n || nodes[i].equals(n)) {
+                return i;
+            }
+        }
+        return NO_ENTRY;
+    }
+
+    private void checkIndex(final int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+        }
+    }
+
+    private void checkDomain() {
+        if (domain == null) {
+            throw new IllegalStateException("This field is not built on a neighbor index");
+        }
+    }
+
+    @Override
+    public void addSample(final DeviceUID n, final Object v) {
+        store(prepare(n), v);
+    }
+
+    /**
+     * Adds a sample, keeping it unboxed if possible.
+     *
+     * @param n
+     *            Neighbor to add
+     * @param v
+     *            Value associated with the neighbor
+     */
+    public void addSample(final DeviceUID n, final double v) {
+        final int i = prepare(n);
+        if (doubles == null) {
+            values[i] = v;
+        } else {
+            doubles[i] = v;
+        }
+    }
+
+    /**
+     * Adds a sample for the device in a slot.
+     *
+     * @param slot
+     *            the slot of the device
+     * @param v
+     *            Value associated with the device
+     * @throws IllegalStateException
+     *             if this field is not built on a {@link NeighborIndex}
+     */
+    public void addSampleToSlot(final int slot, final Object v) {
+        final int i = positionOf(slot);
+        store(i >= 0 ? i : append(domain.getDevice(slot), slot), v);
+    }
+
+    /*
+     * Returns the position of n, appending it if needed.
+     */
+    private int prepare(final DeviceUID n) {
+        if (domain != null) {
+            final int slot = domain.slotOf(n);
+            if (slot >= 0) {
+                final int i = positionOf(slot);
+                return i >= 0 ? i : append(n, slot);
+            }
+            /*
+             * Not in the neighborhood: the index is no longer useful.
+             */
+            domain = null;
+            slots = null;
+            positions = null;
+            hint = 0;
+        }
+        final int i = indexOf(n);
+        return i >= 0 ? i : append(n, NO_ENTRY);
+    }
+
+    private void store(final int i, final Object v) {
+        if (doubles != null) {
+            if (v instanceof Double) {
+                doubles[i] = (Double) v;
+                return;
+            }
+            values = new Object[nodes.length];
+            for (int j = 0; j < size; j++) {
+                values[j] = doubles[j];
+            }
+            doubles = null;
+        }
+        values[i] = v;
+    }
+
+    private int append(final DeviceUID n, final int slot) {
+        if (size == nodes.length) {
+            final int capacity = Math.max(MIN_CAPACITY, nodes.length * 2);
+            nodes = Arrays.copyOf(nodes, capacity);
+            if (doubles == null) {
+                values = Arrays.copyOf(values, capacity);
+            } else {
+                doubles = Arrays.copyOf(doubles, capacity);
+            }
+            if (slots != null) {
+                slots = Arrays.copyOf(slots, capacity);
+            }
+        }
+        nodes[size] = n;
+        if (domain == null) {
+            final TObjectIntMap<DeviceUID> idx = index;
+            if (idx != null) {
+                idx.put(n, size);
+            }
+        } else {
+            if (slots == null && slot != size) {
+                slots = identitySlots();
+            }
+            if (slots != null) {
+                slots[size] = slot;
+                final int[] pos = positions;
+                if (pos != null) {
+                    pos[slot] = size;
+                }
+            }
+        }
+        return size++;
+    }
+
+    private int[] identitySlots() {
+        final int[] res = new int[nodes.length];
+        for (int i = 0; i < size; i++) {
+            res[i] = i;
+        }
+        return res;
+    }
+
+    @Override
+    public Object removeSample(final DeviceUID n) {
+        final int i = indexOf(n);
+        if (i < 0) {
+            return null;
+        }
+        final Object res = getValue(i);
+        final int moved = size - i - 1;
+        System.arraycopy(nodes, i + 1, nodes, i, moved);
+        if (doubles == null) {
+            System.arraycopy(values, i + 1, values, i, moved);
+            values[size - 1] = null;
+        } else {
+            System.arraycopy(doubles, i + 1, doubles, i, moved);
+        }
+        if (domain != null) {
+            if (slots == null) {
+                slots = identitySlots();
+            }
+            System.arraycopy(slots, i + 1, slots, i, moved);
+            positions = null;
+        }
+        nodes[size - 1] = null;
+        size--;
+        hint = 0;
+        index = null;
+        return res;
+    }
+
+    @Override
+    public Object getSample(final DeviceUID n) {
+        final int i = indexOf(n);
+        return i < 0 ? null : getValue(i);
+    }
+
+    @Override
+    public boolean containsNode(final DeviceUID n) {
+        return indexOf(n) >= 0;
+    }
+
+    @Override
+    public Class<?> getExpectedType() {
+        if (size == 0) {
+            return null;
+        }
+        return doubles == null ? values[0].getClass() : Double.class;
+    }
+
+    @Override
+    public Iterable<DeviceUID> nodeIterator() {
+        return new AbstractList<DeviceUID>() {
+            @Override
+            public DeviceUID get(final int i) {
+                return getNode(i);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Iterable<Object> valIterator() {
+        return new AbstractList<Object>() {
+            @Override
+            public Object get(final int i) {
+                return getValue(i);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Iterable<Pair<DeviceUID, Object>> coupleIterator() {
+        final List<Pair<DeviceUID, Object>> res = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            res.add(new Pair<>(nodes[i], getValue(i)));
+        }
+        return res;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Unboxed counterpart of
+     * {@link #reduceVals(java.util.function.BinaryOperator, DeviceUID, Object)}
+     * . As in the boxed version, the first value equal to the one of the
+     * excluded device is skipped.
+     *
+     * @param op
+     *            Order-insensitive operator to reduce values, two at a time
+     * @param exclude
+     *            Device to be excluded (typically self), or null if all devices
+     *            are to be considered
+     * @param defaultVal
+     *            The value to return if the field contains no devices or only
+     *            the excluded device
+     * @return The single value created by reduction over the set of all values
+     * @throws IllegalStateException
+     *             if the field is not primitive
+     */
+    public double reduceDoubles(final DoubleBinaryOperator op, final DeviceUID exclude, final double defaultVal) {
+        if (doubles == null) {
+            throw new IllegalStateException("This field does not contain only doubles: " + this);
+        }
+        final int excluded = exclude == null ? NO_ENTRY : indexOf(exclude);
+        boolean filter = excluded >= 0;
+        final long excludedBits = filter ? Double.doubleToLongBits(doubles[excluded]) : 0;
+        boolean empty = true;
+        double result = defaultVal;
+        for (int i = 0; i < size; i++) {
+            final double el = doubles[i];
+            if (filter && Double.doubleToLongBits(el) == excludedBits) {
+                filter = false;
+            } else if (empty) {
+                result = el;
+                empty = false;
+            } else {
+                result = op.applyAsDouble(result, el);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isPrimitiveField(final Object o) {
+        return o instanceof DoubleFieldImpl && ((DoubleFieldImpl) o).doubles != null;
+    }
+
+    /**
+     * @param fun
+     *            the operator
+     * @param a
+     *            the argument
+     * @return a new field containing the result of fun applied to every value
+     *         of a, or null if a is not a field of doubles
+     */
+    public static Field apply(final DoubleUnaryOperator fun, final Object a) {
+        if (!isPrimitiveField(a)) {
+            return null;
+        }
+        final DoubleFieldImpl f = (DoubleFieldImpl) a;
+        final double[] res = new double[f.size];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = fun.applyAsDouble(f.doubles[i]);
+        }
+        return new DoubleFieldImpl(f, res);
+    }
+
+    /**
+     * @param fun
+     *            the operator
+     * @param a
+     *            the first argument
+     * @param b
+     *            the second argument
+     * @return a new field containing the result of fun applied to the values
+     *         of a and b, device by device, or null if the arguments are not
+     *         {@link Double}s or fields of doubles, or neither is a field
+     */
+    public static Field apply(final DoubleBinaryOperator fun, final Object a, final Object b) {
+        final boolean afield = isPrimitiveField(a);
+        final boolean bfield = isPrimitiveField(b);
+        if (!(afield || bfield)
+                || !(afield || a instanceof Double)
+                || !(bfield || b instanceof Double)) {
+            return null;
+        }
+        final DoubleFieldImpl ref = (DoubleFieldImpl) (afield ? a : b);
+        final double[] res = new double[ref.size];
+        if (afield && bfield) {
+            final DoubleFieldImpl other = (DoubleFieldImpl) b;
+            final boolean shared = ref.domain != null && ref.domain == other.domain;
+            if (shared && ref.slots == null && other.slots == null && ref.size == other.size) {
+                /*
+                 * Same devices in the same slots
+                 */
+                for (int i = 0; i < res.length; i++) {
+                    res[i] = fun.applyAsDouble(ref.doubles[i], other.doubles[i]);
+                }
+                return new DoubleFieldImpl(ref, res);
+            }
+            for (int i = 0; i < res.length; i++) {
+                final int j = shared ? other.positionOf(ref.getSlot(i)) : other.indexOf(ref.nodes[i]);
+                if (j < 0) {
+                    throw new IllegalStateException("Field " + other + " is not aligned with "
+                            + ref + " (missing " + ref.nodes[i] + ")");
+                }
+                res[i] = fun.applyAsDouble(ref.doubles[i], other.doubles[j]);
+            }
+        } else if (afield) {
+            final double bv = (Double) b;
+            for (int i = 0; i < res.length; i++) {
+                res[i] = fun.applyAsDouble(ref.doubles[i], bv);
+            }
+        } else {
+            final double av = (Double) a;
+            for (int i = 0; i < res.length; i++) {
+                res[i] = fun.applyAsDouble(av, ref.doubles[i]);
+            }
+        }
+        return new DoubleFieldImpl(ref, res);
+    }
+
+    /**
+     * Slot-based implementation of
+     * {@link Field#apply(BiFunction, boolean, int[], Object, Object...)}, for
+     * the case in which all the fields are built on the same
+     * {@link NeighborIndex}.
+     *
+     * @param fun
+     *            the function to apply
+     * @param fieldTarget
+     *            true if the target is a field
+     * @param fieldIndexes
+     *            the indexes of which among the arguments are fields
+     * @param target
+     *            the object this method will be invoked on
+     * @param args
+     *            the arguments
+     * @return a new field, or null if the fields are not built on the same
+     *         index
+     */
+    public static Field apply(final BiFunction<Object, Object[], Object> fun, final boolean fieldTarget,
+            final int[] fieldIndexes, final Object target, final Object... args) {
+        final Object first = fieldTarget ? target : args[fieldIndexes[0]];
+        if (!(first instanceof DoubleFieldImpl) || ((DoubleFieldImpl) first).domain == null) {
+            return null;
+        }
+        final DoubleFieldImpl ref = (DoubleFieldImpl) first;
+        for (final int i : fieldIndexes) {
+            if (!(args[i] instanceof DoubleFieldImpl) || ((DoubleFieldImpl) args[i]).domain != ref.domain) {
+                return null;
+            }
+        }
+        final DoubleFieldImpl result = new DoubleFieldImpl(ref.size, ref.domain);
+        for (int p = 0; p < ref.size; p++) {
+            final int slot = ref.getSlot(p);
+            final Object[] actualArgs = Arrays.copyOf(args, args.length);
+            for (final int i : fieldIndexes) {
+                final DoubleFieldImpl field = (DoubleFieldImpl) args[i];
+                final int j = field.positionOf(slot);
+                if (j < 0) {
+                    throw new IllegalStateException("Field " + field + " is not aligned with "
+                            + ref + " (missing " + ref.nodes[p] + ")");
+                }
+                actualArgs[i] = field.getValue(j);
+            }
+            final Object actualTarget = fieldTarget ? ref.getValue(p) : target;
+            result.addSampleToSlot(slot, fun.apply(actualTarget, actualArgs));
+        }
+        return result;
+    }
+
+}
@@ -45,6 +45,17 @@ public interface AnnotatedTree<T> extends Serializable {
      */
     AnnotatedTree<T> copy();
 
+    /**
+     * @return true if evaluating this program only affects its annotations:
+     *         it keeps no state across rounds, and it can not call any
+     *         Protelis function, so it is never re-entered while being
+     *         evaluated. The same instance of such a program can be evaluated
+     *         by many call sites, one at a time, instead of a copy per site.
+     */
+    default boolean isStateless() {
+        return false;
+    }
+
     /**
      * Evaluates the program using the passed {@link ExecutionContext}.
      * 
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.interpreter;
+
+/**
+ * Type of the values an {@link AnnotatedTree} can be annotated with, as far
+ * as it can be proven before running the program. A program annotated with a
+ * type may still fail at runtime, but never with a value of another type.
+ */
+public enum StaticType {
+
+    /** {@link Double}s. */
+    NUMBER,
+    /** {@link Boolean}s. */
+    BOOLEAN,
+    /** {@link String}s. */
+    STRING,
+    /** {@link org.protelis.lang.datatype.Tuple}s. */
+    TUPLE,
+    /** {@link org.protelis.lang.datatype.FunctionDefinition}s. */
+    FUNCTION,
+    /** {@link org.protelis.lang.datatype.Field}s of {@link Double}s. */
+    NUMBER_FIELD,
+    /** {@link org.protelis.lang.datatype.Field}s of any type. */
+    FIELD,
+    /** Anything. */
+    ANY;
+
+    /**
+     * @return true if values of this type are fields
+     */
+    public boolean isField() {
+        return this == NUMBER_FIELD || this == FIELD;
+    }
+
+    /**
+     * @return the type of the values of the fields of this type, or this
+     *         type if it is not a field type
+     */
+    public StaticType getElementType() {
+        switch (this) {
+        case NUMBER_FIELD:
+            return NUMBER;
+        case FIELD:
+            return ANY;
+        default:
+            return this;
+        }
+    }
+
+    /**
+     * @return the type of the fields whose values are of this type
+     */
+    public StaticType getFieldType() {
+        return this == NUMBER ? NUMBER_FIELD : FIELD;
+    }
+
+    /**
+     * @param other
+     *            another type
+     * @return the most specific type including both types
+     */
+    public StaticType join(final StaticType other) {
+        if (this == other) {
+            return this;
+        }
+        if (isField() && other.isField()) {
+            return FIELD;
+        }
+        return ANY;
+    }
+
+}
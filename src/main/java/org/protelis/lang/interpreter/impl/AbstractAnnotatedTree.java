@@ -47,11 +47,13 @@ public abstract class AbstractAnnotatedTree<T> implements AnnotatedTree<T> {
 
     /**
      * @param branch
-     *            the branches for this tree
+     *            the branches for this tree. The list is copied, so that
+     *            changes to the branches of this tree never reach the
+     *            caller's list, which may be shared or immutable
      */
     protected AbstractAnnotatedTree(final List<AnnotatedTree<?>> branch) {
         Objects.requireNonNull(branch);
-        branches = branch;
+        branches = new ArrayList<>(branch);
     }
 
     @Override
@@ -103,16 +105,16 @@ public abstract class AbstractAnnotatedTree<T> implements AnnotatedTree<T> {
 
     @Override
     public void reset() {
-        for (final AnnotatedTree<?> b : branches) {
-            b.reset();
+        for (int i = 0; i < branches.size(); i++) {
+            branches.get(i).reset();
         }
         annotation = null;
     }
 
     @Override
     public void erase() {
-        for (final AnnotatedTree<?> b : branches) {
-            b.erase();
+        for (int i = 0; i < branches.size(); i++) {
+            branches.get(i).erase();
         }
         annotation = null;
         erased = true;
@@ -141,6 +143,19 @@ public abstract class AbstractAnnotatedTree<T> implements AnnotatedTree<T> {
         return branches;
     }
 
+    /**
+     * @return true if all the branches are stateless, see
+     *         {@link AnnotatedTree#isStateless()}
+     */
+    protected final boolean areBranchesStateless() {
+        for (int i = 0; i < branches.size(); i++) {
+            if (!branches.get(i).isStateless()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * @return returns a stream containing the branches' annotations
      */
@@ -158,6 +173,27 @@ public abstract class AbstractAnnotatedTree<T> implements AnnotatedTree<T> {
         // return branches.stream().map(AnnotatedTree::getAnnotation);
     }
 
+    /**
+     * @return an array containing the branches' annotations
+     */
+    protected final Object[] getBranchesAnnotations() {
+        return getBranchesAnnotations(0);
+    }
+
+    /**
+     * @param from
+     *            the index of the first branch to consider
+     * @return an array containing the annotations of the branches, starting
+     *         from the passed index
+     */
+    protected final Object[] getBranchesAnnotations(final int from) {
+        final Object[] res = new Object[branches.size() - from];
+        for (int i = from; i < branches.size(); i++) {
+            res[i - from] = branches.get(i).getAnnotation();
+        }
+        return res;
+    }
+
     /**
      * @return the number of branches
      */
@@ -172,7 +208,9 @@ public abstract class AbstractAnnotatedTree<T> implements AnnotatedTree<T> {
      *            the Consumer to execute
      */
     protected final void forEach(final Consumer<? super AnnotatedTree<?>> action) {
-        branches.stream().forEach(action);
+        for (int i = 0; i < branches.size(); i++) {
+            action.accept(branches.get(i));
+        }
     }
 
     /**
@@ -182,7 +220,9 @@ public abstract class AbstractAnnotatedTree<T> implements AnnotatedTree<T> {
      *            the Consumer to execute
      */
     protected final void forEachWithIndex(final BiConsumer<Integer, ? super AnnotatedTree<?>> action) {
-        indexStream().forEachOrdered(i -> action.accept(i, getBranch(i)));
+        for (int i = 0; i < branches.size(); i++) {
+            action.accept(i, branches.get(i));
+        }
     }
 
     /**
@@ -206,30 +246,22 @@ public abstract class AbstractAnnotatedTree<T> implements AnnotatedTree<T> {
      *            the Consumer to execute
      */
     protected final void parallelForEachWithIndex(final BiConsumer<Integer, ? super AnnotatedTree<?>> action) {
-        indexStream().parallel().forEach(i -> action.accept(i, getBranch(i)));
-    }
-
-    private IntStream indexStream() {
-        return IntStream.range(0, getBranchesNumber());
+        IntStream.range(0, getBranchesNumber()).parallel().forEach(i -> action.accept(i, getBranch(i)));
     }
 
     /**
      * Runs eval() sequentially on every branch, creating a new stack frame for
-     * each one.
+     * each one. No memory is allocated by this method.
      * 
      * @param context
      *            the execution context
      */
     protected final void projectAndEval(final ExecutionContext context) {
-        forEachWithIndex(evalOp(context));
-    }
-
-    private static BiConsumer<Integer, ? super AnnotatedTree<?>> evalOp(final ExecutionContext context) {
-        return (i, branch) -> {
-            context.newCallStackFrame(i.byteValue());
-            branch.eval(context);
+        for (int i = 0; i < branches.size(); i++) {
+            context.newCallStackFrame((byte) i);
+            branches.get(i).eval(context);
             context.returnFromCallFrame();
-        };
+        }
     }
 
     /**
@@ -37,24 +37,31 @@ public class All extends AbstractAnnotatedTree<Object> {
         return new All(deepCopyBranches());
     }
 
+    @Override
+    public boolean isStateless() {
+        return areBranchesStateless();
+    }
+
     @Override
     public void eval(final ExecutionContext context) {
         if (getBranchesNumber() > 1) {
             /*
              * Prevents the same nbr operation on multiple lines to conflict
              */
-            forEachWithIndex((i, b) -> {
-                context.newCallStackFrame(i.byteValue());
-                b.eval(context);
+            for (int i = 0; i <= last; i++) {
+                context.newCallStackFrame((byte) i);
+                getBranch(i).eval(context);
                 /*
                  * Do not return immediately, or the lets won't be available to
                  * further branches.
                  */
-            });
+            }
             /*
              * Once finished, cleanup the stack
              */
-            forEach(b -> context.returnFromCallFrame());
+            for (int i = 0; i <= last; i++) {
+                context.returnFromCallFrame();
+            }
         } else {
             getBranch(last).eval(context);
         }
@@ -11,7 +11,9 @@ package org.protelis.lang.interpreter.impl;
 import java.util.List;
 import java.util.Objects;
 
+import org.protelis.lang.datatype.Field;
 import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.lang.interpreter.StaticType;
 import org.protelis.lang.util.Op2;
 import org.protelis.vm.ExecutionContext;
 
@@ -22,6 +24,9 @@ public class BinaryOp extends AbstractAnnotatedTree<Object> {
 
     private static final long serialVersionUID = 2803028109250981637L;
     private final Op2 op;
+    private CompiledExpression compiled;
+    private boolean numeric;
+    private boolean concatenation;
 
     /**
      * @param name
@@ -45,13 +50,92 @@ public class BinaryOp extends AbstractAnnotatedTree<Object> {
     @Override
     public AnnotatedTree<Object> copy() {
         final List<AnnotatedTree<?>> branches = deepCopyBranches();
-        return new BinaryOp(op, branches.get(0), branches.get(1));
+        final BinaryOp res = new BinaryOp(op, branches.get(0), branches.get(1));
+        res.compiled = compiled;
+        res.numeric = numeric;
+        res.concatenation = concatenation;
+        return res;
+    }
+
+    @Override
+    public boolean isStateless() {
+        return areBranchesStateless();
     }
 
     @Override
     public void eval(final ExecutionContext context) {
+        if (compiled != null) {
+            try {
+                setAnnotation(compiled.evaluate(context));
+                return;
+            } catch (final ClassCastException e) {
+                /*
+                 * An operand is not of the inferred type: the expression
+                 * is pure, so it can be safely interpreted instead
+                 */
+            }
+        }
         projectAndEval(context);
-        setAnnotation(op.run(getBranch(0).getAnnotation(), getBranch(1).getAnnotation()));
+        setAnnotation(apply(getBranch(0).getAnnotation(), getBranch(1).getAnnotation()));
+    }
+
+    private Object apply(final Object a, final Object b) {
+        /*
+         * The fast paths check the operands anyway: should the inference be
+         * wrong, the generic implementation is used rather than failing.
+         */
+        if (numeric && a instanceof Double && b instanceof Double) {
+            final double x = (Double) a;
+            final double y = (Double) b;
+            if (op.getDoubleFunction() == null) {
+                return op.getDoublePredicate().test(x, y);
+            }
+            return op.getDoubleFunction().applyAsDouble(x, y);
+        }
+        if (concatenation && (a instanceof String || b instanceof String)
+                && !(a instanceof Field) && !(b instanceof Field)) {
+            return a.toString() + b.toString();
+        }
+        return op.run(a, b);
+    }
+
+    /**
+     * @return the operator
+     */
+    Op2 getOperator() {
+        return op;
+    }
+
+    /**
+     * @return true if both operands are known to be {@link Double}s, and the
+     *         primitive implementation of the operator is used
+     */
+    boolean isNumeric() {
+        return numeric;
+    }
+
+    /**
+     * Selects the implementation of the operator, see {@link TypeInference}.
+     *
+     * @param left
+     *            type of the left operand
+     * @param right
+     *            type of the right operand
+     */
+    void specialize(final StaticType left, final StaticType right) {
+        numeric = left == StaticType.NUMBER && right == StaticType.NUMBER
+                && (op.getDoubleFunction() != null || op.getDoublePredicate() != null);
+        concatenation = op == Op2.PLUS && !numeric
+                && left != StaticType.ANY && !left.isField()
+                && right != StaticType.ANY && !right.isField();
+    }
+
+    /**
+     * @param code
+     *            compiled form of this expression, see {@link BytecodeCompiler}
+     */
+    void setCompiled(final CompiledExpression code) {
+        compiled = code;
     }
 
     @Override
@@ -0,0 +1,509 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.interpreter.impl;
+
+import static org.objectweb.asm.Opcodes.AALOAD;
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.BIPUSH;
+import static org.objectweb.asm.Opcodes.CHECKCAST;
+import static org.objectweb.asm.Opcodes.DADD;
+import static org.objectweb.asm.Opcodes.DCMPG;
+import static org.objectweb.asm.Opcodes.DCMPL;
+import static org.objectweb.asm.Opcodes.DDIV;
+import static org.objectweb.asm.Opcodes.DMUL;
+import static org.objectweb.asm.Opcodes.DNEG;
+import static org.objectweb.asm.Opcodes.DREM;
+import static org.objectweb.asm.Opcodes.DSUB;
+import static org.objectweb.asm.Opcodes.DUP;
+import static org.objectweb.asm.Opcodes.GETSTATIC;
+import static org.objectweb.asm.Opcodes.GOTO;
+import static org.objectweb.asm.Opcodes.ICONST_0;
+import static org.objectweb.asm.Opcodes.IFEQ;
+import static org.objectweb.asm.Opcodes.IFGE;
+import static org.objectweb.asm.Opcodes.IFGT;
+import static org.objectweb.asm.Opcodes.IFLE;
+import static org.objectweb.asm.Opcodes.IFLT;
+import static org.objectweb.asm.Opcodes.IFNE;
+import static org.objectweb.asm.Opcodes.IFNONNULL;
+import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+import static org.objectweb.asm.Opcodes.POP;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.SIPUSH;
+import static org.objectweb.asm.Opcodes.V1_8;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.lang.util.Op1;
+import org.protelis.lang.util.Op2;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.ExecutionContext;
+import org.protelis.vm.ProtelisProgram;
+import org.protelis.vm.impl.SimpleProgramImpl;
+
+/**
+ * Optional compiler turning the pure expressions of a program into JVM
+ * bytecode.
+ *
+ * A pure expression is a subtree made only of {@link BinaryOp},
+ * {@link UnaryOp} and {@link TernaryOp} nodes over {@link Constant}s and
+ * {@link Variable}s. Such subtrees never build fields, hold state or define
+ * variables, so the stack frames the interpreter pushes while evaluating them
+ * do not contribute to any {@link org.protelis.vm.util.CodePath}: evaluating
+ * them as straight-line code skips the virtual calls, frame management and
+ * annotation updates of every inner node while leaving alignment untouched.
+ * All the other nodes keep being interpreted, so compiled and interpreted
+ * devices export exactly the same state and remain interoperable.
+ *
+ * One class is generated per expression shape (operators and leaf kinds),
+ * with constants and variables passed as arguments, so structurally equal
+ * expressions (e.g. the copies of a function body) share the generated code.
+ * Operators specialized by {@link TypeInference} on numbers are translated
+ * into primitive arithmetic and comparisons, and intermediate results are
+ * not boxed.
+ */
+public final class BytecodeCompiler {
+
+    private static final int MAX_NODES = 512;
+    private static final String OBJECT = Type.getInternalName(Object.class);
+    private static final String OBJECT_DESC = Type.getDescriptor(Object.class);
+    private static final String CONTEXT = Type.getInternalName(ExecutionContext.class);
+    private static final String EVALUATE_DESC = Type.getMethodDescriptor(Type.getType(Object.class),
+            Type.getType(ExecutionContext.class), Type.getType(Object[].class), Type.getType(Reference[].class));
+    private static final String GET_VARIABLE_DESC = Type.getMethodDescriptor(Type.getType(Object.class),
+            Type.getType(Reference.class));
+    private static final String DOUBLE = Type.getInternalName(Double.class);
+    private static final String BOOLEAN = Type.getInternalName(Boolean.class);
+    private static final String BOOLEAN_DESC = Type.getDescriptor(Boolean.class);
+    private static final String CLASS_PREFIX = Type.getInternalName(GeneratedExpression.class) + '$';
+    private static final int CONTEXT_SLOT = 1, CONSTANTS_SLOT = 2, VARIABLES_SLOT = 3;
+    private static final AtomicInteger IDGEN = new AtomicInteger();
+    private static final GeneratedClassLoader LOADER = new GeneratedClassLoader();
+    private static final ConcurrentMap<String, GeneratedExpression> CACHE = new ConcurrentHashMap<>();
+
+    private BytecodeCompiler() {
+    }
+
+    /**
+     * Compiles, in place, the pure expressions of a program and of all the
+     * functions it can reach.
+     *
+     * @param program
+     *            the program to compile. Currently, only
+     *            {@link SimpleProgramImpl}s are supported
+     * @return the same program
+     * @throws IllegalArgumentException
+     *             if the program implementation is not supported
+     */
+    public static ProtelisProgram compile(final ProtelisProgram program) {
+        if (!(program instanceof SimpleProgramImpl)) {
+            throw new IllegalArgumentException("Unsupported program implementation: " + program.getClass());
+        }
+        final Set<FunctionDefinition> visited = newVisitedSet();
+        for (final FunctionDefinition fd : program.getNamedFunctions().values()) {
+            compile(fd, visited);
+        }
+        compile(((SimpleProgramImpl) program).getEvaluationTree(), visited);
+        return program;
+    }
+
+    /**
+     * Compiles, in place, the pure expressions of a tree and of all the
+     * functions it can reach.
+     *
+     * @param tree
+     *            the tree to compile
+     * @param <T>
+     *            annotation type
+     * @return the same tree
+     */
+    public static <T> AnnotatedTree<T> compile(final AnnotatedTree<T> tree) {
+        compile(tree, newVisitedSet());
+        return tree;
+    }
+
+    /**
+     * Compiles, in place, the pure expressions in the body of a function and of
+     * all the functions it can reach.
+     *
+     * @param fd
+     *            the function to compile
+     */
+    public static void compile(final FunctionDefinition fd) {
+        compile(fd, newVisitedSet());
+    }
+
+    private static Set<FunctionDefinition> newVisitedSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    private static void compile(final FunctionDefinition fd, final Set<FunctionDefinition> visited) {
+        if (visited.add(fd)) {
+            /*
+             * The stored body is a template which is copied at each call site:
+             * compile a copy and install it as the new template.
+             */
+            final AnnotatedTree<?> body = fd.getBody();
+            compile(body, visited);
+            fd.setBody(body);
+        }
+    }
+
+    private static void compile(final AnnotatedTree<?> tree, final Set<FunctionDefinition> visited) {
+        if (tree instanceof AbstractAnnotatedTree) {
+            final AbstractAnnotatedTree<?> node = (AbstractAnnotatedTree<?>) tree;
+            if (isOperation(node) && isPure(node) && size(node) <= MAX_NODES) {
+                final CompiledExpression compiled = new CompiledExpression(node);
+                if (node instanceof BinaryOp) {
+                    ((BinaryOp) node).setCompiled(compiled);
+                } else if (node instanceof UnaryOp) {
+                    ((UnaryOp) node).setCompiled(compiled);
+                } else {
+                    ((TernaryOp) node).setCompiled(compiled);
+                }
+                return;
+            }
+            for (final AnnotatedTree<?> branch : node.getBranches()) {
+                compile(branch, visited);
+            }
+            if (node instanceof DotOperator) {
+                compile(((DotOperator) node).getTarget(), visited);
+            } else if (node instanceof FunctionCall) {
+                compile(((FunctionCall) node).getFunctionDefinition(), visited);
+            } else if (node instanceof Constant && ((Constant<?>) node).getInternalObject() instanceof FunctionDefinition) {
+                compile((FunctionDefinition) ((Constant<?>) node).getInternalObject(), visited);
+            }
+        }
+    }
+
+    private static boolean isOperation(final AnnotatedTree<?> node) {
+        final Class<?> type = node.getClass();
+        return type.equals(BinaryOp.class) || type.equals(UnaryOp.class) || type.equals(TernaryOp.class);
+    }
+
+    private static boolean isLeaf(final AnnotatedTree<?> node) {
+        final Class<?> type = node.getClass();
+        return type.equals(Constant.class) || type.equals(NumericConstant.class) || type.equals(Variable.class);
+    }
+
+    private static boolean isPure(final AbstractAnnotatedTree<?> node) {
+        if (isLeaf(node)) {
+            return true;
+        }
+        if (isOperation(node)) {
+            for (final AnnotatedTree<?> branch : node.getBranches()) {
+                if (!(branch instanceof AbstractAnnotatedTree) || !isPure((AbstractAnnotatedTree<?>) branch)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static int size(final AbstractAnnotatedTree<?> node) {
+        int size = 1;
+        for (final AnnotatedTree<?> branch : node.getBranches()) {
+            size += size((AbstractAnnotatedTree<?>) branch);
+        }
+        return size;
+    }
+
+    /**
+     * Finds or generates the code for a pure expression, and collects the
+     * constants and variables to feed it with.
+     *
+     * @param expression
+     *            the root of a pure expression
+     * @return the linked code
+     */
+    static CompiledExpression.Linked link(final AnnotatedTree<?> expression) {
+        final StringBuilder shape = new StringBuilder();
+        final List<Object> constants = new ArrayList<>();
+        final List<Reference> variables = new ArrayList<>();
+        collect(expression, shape, constants, variables);
+        final GeneratedExpression code = CACHE.computeIfAbsent(shape.toString(), k -> generate(expression));
+        return new CompiledExpression.Linked(code, constants.toArray(), variables.toArray(new Reference[variables.size()]));
+    }
+
+    private static void collect(
+            final AnnotatedTree<?> node,
+            final StringBuilder shape,
+            final List<Object> constants,
+            final List<Reference> variables) {
+        if (node instanceof Constant) {
+            shape.append('k');
+            constants.add(((Constant<?>) node).getInternalObject());
+        } else if (node instanceof Variable) {
+            shape.append('v');
+            variables.add(((Variable) node).getReference());
+        } else {
+            shape.append('(').append(operator(node).name());
+            if (isNumeric(node)) {
+                shape.append('#');
+            }
+            for (final AnnotatedTree<?> branch : ((AbstractAnnotatedTree<?>) node).getBranches()) {
+                shape.append(' ');
+                collect(branch, shape, constants, variables);
+            }
+            shape.append(')');
+        }
+    }
+
+    private static Enum<?> operator(final AnnotatedTree<?> node) {
+        if (node instanceof BinaryOp) {
+            return ((BinaryOp) node).getOperator();
+        }
+        if (node instanceof UnaryOp) {
+            return ((UnaryOp) node).getOperator();
+        }
+        return ((TernaryOp) node).getOperator();
+    }
+
+    private static boolean isNumeric(final AnnotatedTree<?> node) {
+        return node instanceof BinaryOp && ((BinaryOp) node).isNumeric()
+                || node instanceof UnaryOp && ((UnaryOp) node).isNumeric();
+    }
+
+    /*
+     * The primitive instruction for a numeric operator, or -1 if it has none
+     */
+    private static int arithmeticOpcode(final AnnotatedTree<?> node) {
+        if (isNumeric(node)) {
+            if (node instanceof UnaryOp) {
+                return ((UnaryOp) node).getOperator() == Op1.MINUS ? DNEG : -1;
+            }
+            switch (((BinaryOp) node).getOperator()) {
+            case PLUS:
+                return DADD;
+            case MINUS:
+                return DSUB;
+            case TIMES:
+                return DMUL;
+            case DIVIDE:
+                return DDIV;
+            case MODULUS:
+                return DREM;
+            default:
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static GeneratedExpression generate(final AnnotatedTree<?> expression) {
+        final String name = CLASS_PREFIX + IDGEN.getAndIncrement();
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+            @Override
+            protected String getCommonSuperClass(final String type1, final String type2) {
+                /*
+                 * Only references to Object are ever merged by the generated
+                 * code. Returning Object also avoids loading classes from the
+                 * wrong class loader.
+                 */
+                return OBJECT;
+            }
+        };
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, name, null, OBJECT,
+                new String[] { Type.getInternalName(GeneratedExpression.class) });
+        final MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+        final MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "evaluate", EVALUATE_DESC, null, null);
+        mv.visitCode();
+        emit(mv, expression, new int[2]);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        try {
+            return (GeneratedExpression) LOADER.define(name.replace('/', '.'), cw.toByteArray())
+                    .getConstructor().newInstance();
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException
+                | NoSuchMethodException e) {
+            throw new IllegalStateException("Unable to instance the code generated for " + expression, e);
+        }
+    }
+
+    /**
+     * Emits code leaving the value of node on the operand stack.
+     *
+     * @param mv
+     *            the method being generated
+     * @param node
+     *            the node to translate
+     * @param counters
+     *            indexes of the next constant and of the next variable
+     */
+    private static void emit(final MethodVisitor mv, final AnnotatedTree<?> node, final int[] counters) {
+        if (node instanceof Constant) {
+            mv.visitVarInsn(ALOAD, CONSTANTS_SLOT);
+            pushInt(mv, counters[0]++);
+            mv.visitInsn(AALOAD);
+        } else if (node instanceof Variable) {
+            /*
+             * Same as Variable: a variable which can not be read is false.
+             */
+            mv.visitVarInsn(ALOAD, CONTEXT_SLOT);
+            mv.visitVarInsn(ALOAD, VARIABLES_SLOT);
+            pushInt(mv, counters[1]++);
+            mv.visitInsn(AALOAD);
+            mv.visitMethodInsn(INVOKEINTERFACE, CONTEXT, "getVariable", GET_VARIABLE_DESC, true);
+            mv.visitInsn(DUP);
+            final Label found = new Label();
+            mv.visitJumpInsn(IFNONNULL, found);
+            mv.visitInsn(POP);
+            mv.visitFieldInsn(GETSTATIC, BOOLEAN, "FALSE", BOOLEAN_DESC);
+            mv.visitLabel(found);
+        } else if (arithmeticOpcode(node) >= 0) {
+            emitDouble(mv, node, counters);
+            mv.visitMethodInsn(INVOKESTATIC, DOUBLE, "valueOf",
+                    Type.getMethodDescriptor(Type.getType(Double.class), Type.DOUBLE_TYPE), false);
+        } else if (isNumeric(node) && ((BinaryOp) node).getOperator().getDoublePredicate() != null) {
+            emitComparison(mv, (BinaryOp) node, counters);
+        } else {
+            /*
+             * Operands are evaluated left to right, as projectAndEval does.
+             */
+            final Enum<?> op = operator(node);
+            final String owner = Type.getInternalName(op.getDeclaringClass());
+            mv.visitFieldInsn(GETSTATIC, owner, op.name(), Type.getDescriptor(op.getDeclaringClass()));
+            final List<AnnotatedTree<?>> branches = ((AbstractAnnotatedTree<?>) node).getBranches();
+            final StringBuilder desc = new StringBuilder("(");
+            for (final AnnotatedTree<?> branch : branches) {
+                emit(mv, branch, counters);
+                desc.append(OBJECT_DESC);
+            }
+            desc.append(')').append(OBJECT_DESC);
+            mv.visitMethodInsn(INVOKEVIRTUAL, owner, "run", desc.toString(), false);
+        }
+    }
+
+    /**
+     * Emits code leaving the value of node on the operand stack as a double.
+     * Nested numeric operators are evaluated without boxing.
+     *
+     * @param mv
+     *            the method being generated
+     * @param node
+     *            the node to translate, whose value is known to be a
+     *            {@link Double}
+     * @param counters
+     *            indexes of the next constant and of the next variable
+     */
+    private static void emitDouble(final MethodVisitor mv, final AnnotatedTree<?> node, final int[] counters) {
+        final int opcode = arithmeticOpcode(node);
+        if (opcode >= 0) {
+            for (final AnnotatedTree<?> branch : ((AbstractAnnotatedTree<?>) node).getBranches()) {
+                emitDouble(mv, branch, counters);
+            }
+            mv.visitInsn(opcode);
+        } else {
+            emit(mv, node, counters);
+            mv.visitTypeInsn(CHECKCAST, DOUBLE);
+            mv.visitMethodInsn(INVOKEVIRTUAL, DOUBLE, "doubleValue",
+                    Type.getMethodDescriptor(Type.DOUBLE_TYPE), false);
+        }
+    }
+
+    /*
+     * NaN makes every comparison false, but !=: the comparison instruction
+     * is picked so that NaN always takes the path to the false branch.
+     */
+    private static void emitComparison(final MethodVisitor mv, final BinaryOp node, final int[] counters) {
+        emitDouble(mv, node.getBranch(0), counters);
+        emitDouble(mv, node.getBranch(1), counters);
+        final Op2 op = node.getOperator();
+        final int jumpToFalse;
+        switch (op) {
+        case GREATER:
+            mv.visitInsn(DCMPL);
+            jumpToFalse = IFLE;
+            break;
+        case GREATER_EQUALS:
+            mv.visitInsn(DCMPL);
+            jumpToFalse = IFLT;
+            break;
+        case SMALLER:
+            mv.visitInsn(DCMPG);
+            jumpToFalse = IFGE;
+            break;
+        case SMALLER_EQUALS:
+            mv.visitInsn(DCMPG);
+            jumpToFalse = IFGT;
+            break;
+        case EQUALS:
+            mv.visitInsn(DCMPL);
+            jumpToFalse = IFNE;
+            break;
+        case NOT_EQUALS:
+            mv.visitInsn(DCMPL);
+            jumpToFalse = IFEQ;
+            break;
+        default:
+            throw new IllegalStateException("Unsupported comparison: " + op);
+        }
+        final Label isFalse = new Label();
+        final Label end = new Label();
+        mv.visitJumpInsn(jumpToFalse, isFalse);
+        mv.visitFieldInsn(GETSTATIC, BOOLEAN, "TRUE", BOOLEAN_DESC);
+        mv.visitJumpInsn(GOTO, end);
+        mv.visitLabel(isFalse);
+        mv.visitFieldInsn(GETSTATIC, BOOLEAN, "FALSE", BOOLEAN_DESC);
+        mv.visitLabel(end);
+    }
+
+    private static void pushInt(final MethodVisitor mv, final int value) {
+        if (value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else {
+            mv.visitIntInsn(SIPUSH, value);
+        }
+    }
+
+    /**
+     * Class loader hosting the generated classes.
+     */
+    private static final class GeneratedClassLoader extends ClassLoader {
+        GeneratedClassLoader() {
+            super(BytecodeCompiler.class.getClassLoader());
+        }
+
+        Class<?> define(final String name, final byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+
+}
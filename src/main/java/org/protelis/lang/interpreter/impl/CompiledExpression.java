@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.interpreter.impl;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.ExecutionContext;
+
+/**
+ * Compiled form of a pure expression subtree. The generated code is not
+ * serializable, so only the source subtree is stored: the code is looked up
+ * (or generated) upon the first evaluation, and again after deserialization.
+ * Copies of a compiled node share the same instance.
+ */
+final class CompiledExpression implements Serializable {
+
+    private static final long serialVersionUID = 4542138468301930627L;
+    private final AnnotatedTree<?> source;
+    private transient volatile Linked linked;
+
+    /**
+     * @param expression
+     *            the root of the pure expression subtree
+     */
+    CompiledExpression(final AnnotatedTree<?> expression) {
+        source = Objects.requireNonNull(expression);
+    }
+
+    /**
+     * @param context
+     *            the execution context
+     * @return the value of the expression
+     */
+    Object evaluate(final ExecutionContext context) {
+        Linked current = linked;
+        if (current == null) {
+            current = BytecodeCompiler.link(source);
+            linked = current;
+        }
+        return current.code.evaluate(context, current.constants, current.variables);
+    }
+
+    /**
+     * Generated code, along with the constants and variables it operates on.
+     */
+    static final class Linked {
+        private final GeneratedExpression code;
+        private final Object[] constants;
+        private final Reference[] variables;
+
+        Linked(final GeneratedExpression code, final Object[] constants, final Reference[] variables) {
+            this.code = code;
+            this.constants = constants;
+            this.variables = variables;
+        }
+    }
+
+}
@@ -37,6 +37,11 @@ public class Constant<T> extends AbstractAnnotatedTree<T> {
         return new Constant<>(constantValue);
     }
 
+    @Override
+    public boolean isStateless() {
+        return true;
+    }
+
     @Override
     public void eval(final ExecutionContext context) {
         if (isErased()) {
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.interpreter.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.protelis.lang.datatype.Field;
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.datatype.Tuple;
+import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.vm.ProtelisProgram;
+import org.protelis.vm.impl.SimpleProgramImpl;
+
+/**
+ * Load-time simplification of translated programs.
+ *
+ * Operators whose operands are all {@link Constant}s are computed once, and
+ * so are tuples of constants. An {@link If} with a constant condition drops
+ * the branch which can never be selected, and it is replaced altogether by
+ * the selected branch when this is a constant as well.
+ *
+ * Only subtrees that can not export any state are replaced: frames pushed
+ * while evaluating them are popped before anything else is evaluated, so the
+ * {@link org.protelis.vm.util.CodePath}s of the surviving nbr and rep sites
+ * are unchanged, and optimized devices stay aligned with unoptimized ones.
+ * For the same reason, a mux with a constant condition is not simplified:
+ * all its branches are evaluated.
+ */
+public final class ConstantFolding {
+
+    /*
+     * Nodes reading their children from their branches, which can hence be
+     * replaced. The others keep references to their children.
+     */
+    private static final Set<Class<?>> REPLACEABLE_CHILDREN = new HashSet<>(Arrays.asList(
+            All.class, BinaryOp.class, CreateTuple.class, CreateVar.class, Eval.class, FunctionCall.class,
+            HoodCall.class, If.class, MethodCall.class, NBRCall.class, RepCall.class, TernaryOp.class,
+            UnaryOp.class));
+    private static final byte COND = 0, THEN = 1, ELSE = 2;
+    private final Set<FunctionDefinition> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private ConstantFolding() {
+    }
+
+    /**
+     * Simplifies a program and all the functions it can reach.
+     *
+     * @param program
+     *            the program. Currently, only {@link SimpleProgramImpl}s are
+     *            supported
+     * @return the simplified program, which is the same program unless the
+     *         whole program folds into a constant
+     * @throws IllegalArgumentException
+     *             if the program implementation is not supported
+     */
+    public static ProtelisProgram fold(final ProtelisProgram program) {
+        if (!(program instanceof SimpleProgramImpl)) {
+            throw new IllegalArgumentException("Unsupported program implementation: " + program.getClass());
+        }
+        final ConstantFolding folding = new ConstantFolding();
+        for (final FunctionDefinition fd : program.getNamedFunctions().values()) {
+            folding.fold(fd);
+        }
+        final AnnotatedTree<?> tree = ((SimpleProgramImpl) program).getEvaluationTree();
+        final AnnotatedTree<?> folded = folding.simplify(tree);
+        return folded == tree
+                ? program
+                : new SimpleProgramImpl(program.getName().toString(), folded, program.getNamedFunctions());
+    }
+
+    /**
+     * Simplifies a tree and all the functions it can reach. The tree is
+     * modified in place.
+     *
+     * @param tree
+     *            the tree
+     * @param <T>
+     *            annotation type
+     * @return the simplified tree, which is the same tree unless it folds
+     *         into a constant
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> AnnotatedTree<T> fold(final AnnotatedTree<T> tree) {
+        return (AnnotatedTree<T>) new ConstantFolding().simplify(tree);
+    }
+
+    private void fold(final FunctionDefinition fd) {
+        if (visited.add(fd)) {
+            /*
+             * The stored body is a template which is copied at each call
+             * site, and getBody() returns a fresh copy of it: the copy is
+             * simplified and installed as the new template, so call sites
+             * created earlier keep their own trees. The folded template
+             * computes the same values and exports the same state.
+             */
+            fd.setBody(simplify(fd.getBody()));
+        }
+    }
+
+    private AnnotatedTree<?> simplify(final AnnotatedTree<?> tree) {
+        if (!(tree instanceof AbstractAnnotatedTree)) {
+            return tree;
+        }
+        final AbstractAnnotatedTree<?> node = (AbstractAnnotatedTree<?>) tree;
+        final List<AnnotatedTree<?>> branches = node.getBranches();
+        final boolean replaceable = REPLACEABLE_CHILDREN.contains(node.getClass());
+        for (int i = 0; i < branches.size(); i++) {
+            final AnnotatedTree<?> branch = branches.get(i);
+            final AnnotatedTree<?> simplified = simplify(branch);
+            if (replaceable && simplified != branch) {
+                branches.set(i, simplified);
+            }
+        }
+        if (node instanceof DotOperator) {
+            simplify(((DotOperator) node).getTarget());
+        } else if (node instanceof FunctionCall) {
+            fold(((FunctionCall) node).getFunctionDefinition());
+        } else if (node instanceof Constant && ((Constant<?>) node).getInternalObject() instanceof FunctionDefinition) {
+            fold((FunctionDefinition) ((Constant<?>) node).getInternalObject());
+        }
+        if (!replaceable) {
+            return node;
+        }
+        if (node instanceof If) {
+            return simplifyIf((If<?>) node);
+        }
+        if (!areConstants(branches)) {
+            return node;
+        }
+        final Object[] values = new Object[branches.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ((Constant<?>) branches.get(i)).getInternalObject();
+        }
+        if (node instanceof BinaryOp) {
+            return constant(node, () -> ((BinaryOp) node).getOperator().run(values[0], values[1]));
+        }
+        if (node instanceof UnaryOp) {
+            return constant(node, () -> ((UnaryOp) node).getOperator().run(values[0]));
+        }
+        if (node instanceof TernaryOp) {
+            return constant(node, () -> ((TernaryOp) node).getOperator().run(values[0], values[1], values[2]));
+        }
+        if (node instanceof CreateTuple) {
+            return new Constant<>(Tuple.create(values));
+        }
+        return node;
+    }
+
+    private static boolean areConstants(final List<AnnotatedTree<?>> branches) {
+        for (final AnnotatedTree<?> branch : branches) {
+            if (!(branch instanceof Constant)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Operations failing at load time are left in place, to fail at runtime
+     * as they would without optimization.
+     */
+    private static AnnotatedTree<?> constant(final AnnotatedTree<?> node, final Supplier<Object> computation) {
+        final Object value;
+        try {
+            value = computation.get();
+        } catch (RuntimeException e) { // NOPMD: the error is raised at runtime
+            return node;
+        }
+        return value == null || value instanceof Field ? node : new Constant<>(value);
+    }
+
+    private static AnnotatedTree<?> simplifyIf(final If<?> node) {
+        final List<AnnotatedTree<?>> branches = node.getBranches();
+        final AnnotatedTree<?> condition = branches.get(COND);
+        if (!(condition instanceof Constant)) {
+            return node;
+        }
+        final boolean selectThen = If.isTrue(((Constant<?>) condition).getInternalObject());
+        final AnnotatedTree<?> selected = branches.get(selectThen ? THEN : ELSE);
+        if (selected instanceof Constant) {
+            return selected;
+        }
+        /*
+         * The branch which is never selected is never evaluated either, and
+         * it exports no state: a placeholder is enough.
+         */
+        branches.set(selectThen ? ELSE : THEN, condition.copy());
+        return node;
+    }
+
+}
@@ -46,19 +46,28 @@ public class CreateTuple extends AbstractAnnotatedTree<Object> {
         return new CreateTuple(deepCopyBranches());
     }
 
+    @Override
+    public boolean isStateless() {
+        return areBranchesStateless();
+    }
+
     @Override
     public void eval(final ExecutionContext context) {
         final Object[] a = new Object[getBranchesNumber()];
-        final TIntList fieldIndexes = new TIntArrayList();
-        forEachWithIndex((i, branch) -> {
-            branch.evalInNewStackFrame(context, i.byteValue());
+        TIntList fieldIndexes = null;
+        for (int i = 0; i < a.length; i++) {
+            final AnnotatedTree<?> branch = getBranch(i);
+            branch.evalInNewStackFrame(context, (byte) i);
             final Object elem = branch.getAnnotation();
             a[i] = elem;
             if (elem instanceof Field) {
+                if (fieldIndexes == null) {
+                    fieldIndexes = new TIntArrayList();
+                }
                 fieldIndexes.add(i);
             }
-        });
-        if (fieldIndexes.isEmpty()) {
+        }
+        if (fieldIndexes == null) {
             setAnnotation(Tuple.create(a));
         } else {
             final Field res = Field.apply(Tuple::create, fieldIndexes.toArray(), a);
@@ -40,6 +40,11 @@ public class CreateVar extends AbstractAnnotatedTree<Object> {
         return new CreateVar(var, deepCopyBranches().get(0), definition);
     }
 
+    @Override
+    public boolean isStateless() {
+        return areBranchesStateless();
+    }
+
     @Override
     public void eval(final ExecutionContext context) {
         projectAndEval(context);
@@ -62,6 +67,13 @@ public class CreateVar extends AbstractAnnotatedTree<Object> {
         return definition;
     }
 
+    /**
+     * @return the variable name
+     */
+    Reference getReference() {
+        return var;
+    }
+
 //    /**
 //     * @return the variable name
 //     */
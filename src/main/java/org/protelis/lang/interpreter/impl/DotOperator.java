@@ -10,7 +10,6 @@ package org.protelis.lang.interpreter.impl;
 
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Stream;
 
 import org.protelis.lang.datatype.FunctionDefinition;
 import org.protelis.lang.interpreter.AnnotatedTree;
@@ -95,7 +94,12 @@ public class DotOperator extends AbstractSATree<FunctionCall, Object> {
             if (hasCall && fd.equals(prevFC.getFunctionDefinition())) {
                 fc = prevFC;
             } else {
-                fc = new FunctionCall(fd, deepCopyBranches());
+                /*
+                 * The branches of this node are only evaluated by the
+                 * function calls it creates: copy them only if they keep
+                 * state, so that each function starts from scratch.
+                 */
+                fc = new FunctionCall(fd, areBranchesStateless() ? getBranches() : deepCopyBranches());
             }
             setSuperscript(fc);
             fc.eval(context);
@@ -108,12 +112,19 @@ public class DotOperator extends AbstractSATree<FunctionCall, Object> {
             /*
              * Check everything for fields
              */
-            final Stream<?> argsstr = getBranchesAnnotationStream();
-            final Object[] args = argsstr.toArray();
+            final Object[] args = getBranchesAnnotations();
             setAnnotation(ReflectionUtils.invokeFieldable(target.getClass(), methodName, target, args));
         }
     }
 
+    /**
+     * @return the Protelis sub-program that annotates itself with the target
+     *         of this call
+     */
+    AnnotatedTree<?> getTarget() {
+        return left;
+    }
+
     @Override
     protected void innerAsString(final StringBuilder sb, final int indent) {
         sb.append('\n');
@@ -19,6 +19,11 @@ public class Env extends AbstractAnnotatedTree<ExecutionEnvironment> {
         return new Env();
     }
 
+    @Override
+    public boolean isStateless() {
+        return true;
+    }
+
     @Override
     public void eval(final ExecutionContext context) {
         assert context != null;
@@ -8,21 +8,47 @@
  *******************************************************************************/
 package org.protelis.lang.interpreter.impl;
 
+import java.nio.charset.StandardCharsets;
+
 import org.protelis.lang.ProtelisLoader;
 import org.protelis.lang.interpreter.AnnotatedTree;
 import org.protelis.vm.ExecutionContext;
 import org.protelis.vm.ProtelisProgram;
+import org.protelis.vm.impl.SimpleProgramImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 /**
- * Evaluate a Protelis sub-program.
+ * Evaluate a Protelis sub-program. Parsed programs are kept in a bounded,
+ * least recently used cache indexed by their source: every evaluation runs a
+ * fresh copy of the cached evaluation tree, so programs evaluated more than
+ * once are parsed only the first time.
+ *
+ * The evaluated program is aligned on its source: its state (e.g. rep) is
+ * kept across rounds as long as the same program is evaluated, and it is
+ * shared with the neighbors evaluating the same program. Evaluating a
+ * different program starts from scratch.
  */
 public class Eval extends AbstractAnnotatedTree<Object> {
 
     private static final long serialVersionUID = 8811510896686579514L;
     private static final Logger L = LoggerFactory.getLogger(Eval.class);
     private static final byte DYN_CODE_INDEX = -1;
+    private static final int CACHE_SIZE = 128;
+    private static final LoadingCache<String, SimpleProgramImpl> CACHE = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_SIZE)
+            .build(new CacheLoader<String, SimpleProgramImpl>() {
+                @Override
+                public SimpleProgramImpl load(final String program) {
+                    return (SimpleProgramImpl) ProtelisLoader.parseAnonymousModule(program);
+                }
+            });
 
     /**
      * @param arg
@@ -43,18 +69,30 @@ public class Eval extends AbstractAnnotatedTree<Object> {
         projectAndEval(context);
         final String program = getBranch(0).getAnnotation().toString();
         try {
-            final ProtelisProgram result = ProtelisLoader.parseAnonymousModule(program);
+            final ProtelisProgram result = instance(program);
             context.newCallStackFrame(DYN_CODE_INDEX);
+            context.newCallStackFrame(sourceFrame(program));
             context.putMultipleVariables(result.getNamedFunctions());
             result.compute(context);
             setAnnotation(result.getCurrentValue());
             context.returnFromCallFrame();
-        } catch (IllegalArgumentException e) {
-            L.error("Non parse-able program", e);
-            throw new IllegalStateException("The following program can't be parsed:\n" + program, e);
+            context.returnFromCallFrame();
+        } catch (UncheckedExecutionException e) {
+            L.error("Non parse-able program", e.getCause());
+            throw new IllegalStateException("The following program can't be parsed:\n" + program, e.getCause());
         }
     }
 
+    private static ProtelisProgram instance(final String program) {
+        final SimpleProgramImpl cached = CACHE.getUnchecked(program);
+        return new SimpleProgramImpl(cached.getName().toString(), cached.getEvaluationTree().copy(),
+                cached.getNamedFunctions());
+    }
+
+    private static byte[] sourceFrame(final String program) {
+        return Hashing.murmur3_128().hashBytes(program.getBytes(StandardCharsets.UTF_8)).asBytes();
+    }
+
     @Override
     protected void asString(final StringBuilder sb, final int i) {
         sb.append("eval(\n");
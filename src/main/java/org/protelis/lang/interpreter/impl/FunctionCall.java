@@ -49,7 +49,7 @@ public class FunctionCall extends AbstractSATree<AnnotatedTree<?>, Object> {
          * Deep copy the arguments
          */
         final FunctionCall res = new FunctionCall(fd, deepCopyBranches());
-        if (!isErased()) {
+        if (!isErased() && getSuperscript() != null) {
             res.setAnnotation(null);
             res.setSuperscript(getSuperscript().copy());
         }
@@ -73,21 +73,29 @@ public class FunctionCall extends AbstractSATree<AnnotatedTree<?>, Object> {
          * Inner gamma must hold param values
          */
         context.newCallStackFrame(stackCode);
-        forEachWithIndex((i, b) -> {
-            context.putVariable(fd.getArgumentByPosition(i), b.getAnnotation(), true);
-        });
+        for (int i = 0; i < getBranchesNumber(); i++) {
+            context.putVariable(fd.getArgumentByPosition(i), getBranch(i).getAnnotation(), true);
+        }
         /*
-         * 2. Load a fresh body as superscript
+         * 2. Stateless bodies are shared, the others need a fresh copy as
+         * superscript. Shared bodies are not stored, as this call may get
+         * evaluated later on a different thread.
          */
-        if (isErased()) {
-            setSuperscript(getBody());
+        final AnnotatedTree<?> body;
+        if (fd.hasStatelessBody()) {
+            body = fd.getSharedBody();
+        } else {
+            if (isErased()) {
+                setSuperscript(getBody());
+            }
+            body = getSuperscript();
         }
         /*
          * Evaluate the body and copy its result in the annotation
          */
-        getSuperscript().eval(context);
+        body.eval(context);
         context.returnFromCallFrame();
-        setAnnotation(getSuperscript().getAnnotation());
+        setAnnotation(body.getAnnotation());
     }
 
     @Override
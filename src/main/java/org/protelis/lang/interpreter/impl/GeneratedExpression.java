@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.interpreter.impl;
+
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.ExecutionContext;
+
+/**
+ * Contract of the classes generated at runtime by {@link BytecodeCompiler}.
+ * Every implementation evaluates the shape of a pure expression (operators
+ * applied to constants and variables) as straight-line JVM code. This
+ * interface is public only because generated classes live in their own class
+ * loader: it is not meant to be implemented by hand.
+ */
+public interface GeneratedExpression {
+
+    /**
+     * @param context
+     *            the execution context, used to read variables
+     * @param constants
+     *            the constants of the expression, in depth-first order
+     * @param variables
+     *            the variables read by the expression, in depth-first order
+     * @return the value of the expression
+     */
+    Object evaluate(ExecutionContext context, Object[] constants, Reference[] variables);
+
+}
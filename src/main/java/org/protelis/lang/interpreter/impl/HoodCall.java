@@ -23,7 +23,6 @@ public class HoodCall extends AbstractAnnotatedTree<Object> {
 
     private static final long serialVersionUID = -4925767634715581329L;
     private final HoodOp function;
-    private final AnnotatedTree<Field> body;
     private final boolean inclusive;
 
     /**
@@ -37,20 +36,36 @@ public class HoodCall extends AbstractAnnotatedTree<Object> {
     public HoodCall(final AnnotatedTree<Field> arg, final HoodOp func, final boolean includeSelf) {
         super(arg);
         LangUtils.requireNonNull(func);
-        body = arg;
         function = func;
         inclusive = includeSelf;
     }
 
     @Override
     public AnnotatedTree<Object> copy() {
-        return new HoodCall(body.copy(), function, inclusive);
+        return new HoodCall(getBody().copy(), function, inclusive);
+    }
+
+    @Override
+    public boolean isStateless() {
+        return areBranchesStateless();
     }
 
     @Override
     public void eval(final ExecutionContext context) {
         projectAndEval(context);
-        setAnnotation(function.run(body.getAnnotation(), inclusive ? null : context.getDeviceUID()));
+        setAnnotation(function.run(getBody().getAnnotation(), inclusive ? null : context.getDeviceUID()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private AnnotatedTree<Field> getBody() {
+        return (AnnotatedTree<Field>) getBranch(0);
+    }
+
+    /**
+     * @return the reduction
+     */
+    HoodOp getFunction() {
+        return function;
     }
 
     @Override
@@ -22,8 +22,6 @@ public class If<T> extends AbstractAnnotatedTree<T> {
 
     private static final long serialVersionUID = -4830593657731078743L;
     private static final byte COND = 0, THEN = 1, ELSE = 2;
-    private final AnnotatedTree<Boolean> conditionExpression;
-    private final AnnotatedTree<T> thenExpression, elseExpression;
 
     /**
      * @param cond
@@ -35,26 +33,53 @@ public class If<T> extends AbstractAnnotatedTree<T> {
      */
     public If(final AnnotatedTree<Boolean> cond, final AnnotatedTree<T> then, final AnnotatedTree<T> otherwise) {
         super(cond, then, otherwise);
-        conditionExpression = cond;
-        thenExpression = then;
-        elseExpression = otherwise;
     }
 
     @Override
     public AnnotatedTree<T> copy() {
-        return new If<>(conditionExpression.copy(), thenExpression.copy(), elseExpression.copy());
+        return new If<>(getCondition().copy(), getThen().copy(), getElse().copy());
+    }
+
+    @Override
+    public boolean isStateless() {
+        return areBranchesStateless();
     }
 
     @Override
     public void eval(final ExecutionContext context) {
-        conditionExpression.evalInNewStackFrame(context, COND);
-        final Object actualResult = conditionExpression.getAnnotation();
-        final boolean bool = actualResult instanceof Boolean
-                ? conditionExpression.getAnnotation()
-                : actualResult != null;
-        setAnnotation(bool
-                ? choice(THEN, thenExpression, elseExpression, context)
-                : choice(ELSE, elseExpression, thenExpression, context));
+        final AnnotatedTree<Boolean> condition = getCondition();
+        condition.evalInNewStackFrame(context, COND);
+        setAnnotation(isTrue(condition.getAnnotation())
+                ? choice(THEN, getThen(), getElse(), context)
+                : choice(ELSE, getElse(), getThen(), context));
+    }
+
+    /**
+     * @param condition
+     *            the value of a condition
+     * @return true if the then branch gets selected
+     */
+    static boolean isTrue(final Object condition) {
+        return condition instanceof Boolean ? (Boolean) condition : condition != null;
+    }
+
+    /*
+     * Children are always read from the branches, which load-time passes may
+     * replace
+     */
+    @SuppressWarnings("unchecked")
+    private AnnotatedTree<Boolean> getCondition() {
+        return (AnnotatedTree<Boolean>) getBranch(COND);
+    }
+
+    @SuppressWarnings("unchecked")
+    private AnnotatedTree<T> getThen() {
+        return (AnnotatedTree<T>) getBranch(THEN);
+    }
+
+    @SuppressWarnings("unchecked")
+    private AnnotatedTree<T> getElse() {
+        return (AnnotatedTree<T>) getBranch(ELSE);
     }
 
     private static <T> T choice(
@@ -75,13 +100,13 @@ public class If<T> extends AbstractAnnotatedTree<T> {
     @Override
     protected void asString(final StringBuilder sb, final int i) {
         sb.append("if (\n");
-        conditionExpression.toString(sb, i + 1);
+        getCondition().toString(sb, i + 1);
         sb.append(") {\n");
-        thenExpression.toString(sb, i + 1);
+        getThen().toString(sb, i + 1);
         sb.append('\n');
         indent(sb, i);
         sb.append("} else {\n");
-        elseExpression.toString(sb, i + 1);
+        getElse().toString(sb, i + 1);
         sb.append('\n');
         indent(sb, i);
         sb.append('}');
@@ -112,8 +112,7 @@ public class MethodCall extends AbstractAnnotatedTree<Object> {
         projectAndEval(context);
         // Obtain target and arguments
         final Object target = ztatic ? null : getBranch(0).getAnnotation();
-        final Stream<?> s = getBranchesAnnotationStream();
-        final Object[] args = ztatic ? s.toArray() : s.skip(1).toArray();
+        final Object[] args = getBranchesAnnotations(ztatic ? 0 : 1);
         setAnnotation(method == null
                 ? ReflectionUtils.invokeFieldable(clazz, methodName, target, args)
                 : ReflectionUtils.invokeFieldable(method, target, args));
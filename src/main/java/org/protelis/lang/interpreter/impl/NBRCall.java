@@ -35,6 +35,11 @@ public class NBRCall extends AbstractAnnotatedTree<Field> {
         return new NBRCall(deepCopyBranches().get(0));
     }
 
+    @Override
+    public boolean isStateless() {
+        return areBranchesStateless();
+    }
+
     @Override
     public void eval(final ExecutionContext context) {
         final AnnotatedTree<?> branch = getBranch(0);
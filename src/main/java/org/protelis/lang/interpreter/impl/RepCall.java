@@ -16,11 +16,13 @@ import org.protelis.lang.util.Reference;
 import org.protelis.vm.ExecutionContext;
 
 /**
- * "Repeat" state variable.
+ * "Repeat" state variable. The value computed in the previous round is kept
+ * by the {@link ExecutionContext}, at the {@link org.protelis.vm.util.CodePath}
+ * of this node: the node itself holds no state across rounds.
  * 
  * @param <T>
  */
-public class RepCall<T> extends AbstractSATree<T, T> {
+public class RepCall<T> extends AbstractAnnotatedTree<T> {
 
     private static final long serialVersionUID = 8643287734245198408L;
     private static final byte W_BRANCH = 0;
@@ -43,17 +45,18 @@ public class RepCall<T> extends AbstractSATree<T, T> {
     @Override
     public RepCall<T> copy() {
         final List<AnnotatedTree<?>> branches = deepCopyBranches();
-        final RepCall<T> res = new RepCall<>(xName, branches.get(W_BRANCH), branches.get(A_BRANCH));
-        if (!isErased()) {
-            res.setSuperscript(getSuperscript());
-            res.setAnnotation(null);
-        }
-        return res;
+        return new RepCall<>(xName, branches.get(W_BRANCH), branches.get(A_BRANCH));
+    }
+
+    @Override
+    public boolean isStateless() {
+        return areBranchesStateless();
     }
 
     @Override
     public void eval(final ExecutionContext context) {
-        if (isErased()) {
+        final Object previous = context.getPreviousState();
+        if (previous == null) {
             /*
              * Evaluate the initial value for the field. This is either a
              * variable or a constant, so no projection is required.
@@ -65,7 +68,7 @@ public class RepCall<T> extends AbstractSATree<T, T> {
             checkForFields(init);
             context.putVariable(xName, w.getAnnotation(), true);
         } else {
-            context.putVariable(xName, getSuperscript(), true);
+            context.putVariable(xName, previous, true);
         }
         final AnnotatedTree<?> body = getBranch(A_BRANCH);
         body.evalInNewStackFrame(context, A_BRANCH);
@@ -73,7 +76,14 @@ public class RepCall<T> extends AbstractSATree<T, T> {
         final T result = (T) body.getAnnotation();
         checkForFields(result);
         setAnnotation(result);
-        setSuperscript(result);
+        context.putState(result);
+    }
+
+    /**
+     * @return the variable name
+     */
+    Reference getReference() {
+        return xName;
     }
 
     private static void checkForFields(final Object o) {
@@ -84,7 +94,7 @@ public class RepCall<T> extends AbstractSATree<T, T> {
     }
 
     @Override
-    protected void innerAsString(final StringBuilder sb, final int indent) {
+    protected void asString(final StringBuilder sb, final int indent) {
         sb.append("rep (");
         sb.append(xName);
         sb.append(" <- \n");
@@ -24,11 +24,18 @@ public class Self extends AbstractAnnotatedTree<ExecutionContext> {
         return new Self();
     }
 
+    @Override
+    public boolean isStateless() {
+        return true;
+    }
+
     @Override
     public void eval(final ExecutionContext context) {
-        if (isErased()) {
-            setAnnotation(context);
-        }
+        /*
+         * Never cache: the same tree may get evaluated by different devices,
+         * or by restricted contexts
+         */
+        setAnnotation(context);
     }
 
     @Override
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.interpreter.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.lang.util.Reference;
+import org.protelis.lang.util.SlotTable;
+import org.protelis.vm.ProtelisProgram;
+import org.protelis.vm.impl.SimpleProgramImpl;
+
+/**
+ * Load-time resolution of the variables of a program to the slots of a
+ * {@link SlotTable} of its own, collecting the references of a tree and of
+ * all the functions it can reach. References which are not found are still
+ * correctly handled by the stacks, through a slower lookup.
+ */
+public final class SlotAssignment {
+
+    private final Set<FunctionDefinition> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<Reference> references = new ArrayList<>();
+
+    private SlotAssignment() {
+    }
+
+    /**
+     * Assigns slots to the variables of a program and of all the functions it
+     * can reach.
+     *
+     * @param program
+     *            the program. Currently, only {@link SimpleProgramImpl}s are
+     *            supported
+     * @return the same program
+     * @throws IllegalArgumentException
+     *             if the program implementation is not supported
+     */
+    public static ProtelisProgram assign(final ProtelisProgram program) {
+        if (!(program instanceof SimpleProgramImpl)) {
+            throw new IllegalArgumentException("Unsupported program implementation: " + program.getClass());
+        }
+        final SlotAssignment assignment = new SlotAssignment();
+        assignment.references.addAll(program.getNamedFunctions().keySet());
+        for (final FunctionDefinition fd : program.getNamedFunctions().values()) {
+            assignment.collect(fd);
+        }
+        assignment.collect(((SimpleProgramImpl) program).getEvaluationTree());
+        SlotTable.assign(assignment.references);
+        return program;
+    }
+
+    /**
+     * Assigns slots to the variables of a tree and of all the functions it
+     * can reach.
+     *
+     * @param tree
+     *            the tree
+     * @return the slot table
+     */
+    public static SlotTable assign(final AnnotatedTree<?> tree) {
+        final SlotAssignment assignment = new SlotAssignment();
+        assignment.collect(tree);
+        return SlotTable.assign(assignment.references);
+    }
+
+    private void collect(final FunctionDefinition fd) {
+        if (visited.add(fd)) {
+            for (int i = 0; i < fd.getArgNumber(); i++) {
+                references.add(fd.getArgumentByPosition(i));
+            }
+            /*
+             * The body is a copy of the template, but it shares its references
+             */
+            collect(fd.getBody());
+        }
+    }
+
+    private void collect(final AnnotatedTree<?> tree) {
+        if (tree instanceof AbstractAnnotatedTree) {
+            for (final AnnotatedTree<?> branch : ((AbstractAnnotatedTree<?>) tree).getBranches()) {
+                collect(branch);
+            }
+            if (tree instanceof Variable) {
+                references.add(((Variable) tree).getReference());
+            } else if (tree instanceof CreateVar) {
+                references.add(((CreateVar) tree).getReference());
+            } else if (tree instanceof RepCall) {
+                references.add(((RepCall<?>) tree).getReference());
+            } else if (tree instanceof DotOperator) {
+                collect(((DotOperator) tree).getTarget());
+            } else if (tree instanceof FunctionCall) {
+                collect(((FunctionCall) tree).getFunctionDefinition());
+            } else if (tree instanceof Constant && ((Constant<?>) tree).getInternalObject() instanceof FunctionDefinition) {
+                collect((FunctionDefinition) ((Constant<?>) tree).getInternalObject());
+            }
+        }
+    }
+
+}
@@ -22,6 +22,7 @@ public class TernaryOp extends AbstractAnnotatedTree<Object> {
 
     private static final long serialVersionUID = 2803028109250981637L;
     private final Op3 op;
+    private CompiledExpression compiled;
 
     /**
      * @param name
@@ -56,15 +57,48 @@ public class TernaryOp extends AbstractAnnotatedTree<Object> {
     @Override
     public AnnotatedTree<Object> copy() {
         final List<AnnotatedTree<?>> branches = deepCopyBranches();
-        return new TernaryOp(op, branches.get(0), branches.get(1), branches.get(2));
+        final TernaryOp res = new TernaryOp(op, branches.get(0), branches.get(1), branches.get(2));
+        res.compiled = compiled;
+        return res;
+    }
+
+    @Override
+    public boolean isStateless() {
+        return areBranchesStateless();
     }
 
     @Override
     public void eval(final ExecutionContext context) {
+        if (compiled != null) {
+            try {
+                setAnnotation(compiled.evaluate(context));
+                return;
+            } catch (final ClassCastException e) {
+                /*
+                 * An operand is not of the inferred type: the expression
+                 * is pure, so it can be safely interpreted instead
+                 */
+            }
+        }
         projectAndEval(context);
         setAnnotation(op.run(getBranch(0).getAnnotation(), getBranch(1).getAnnotation(), getBranch(2).getAnnotation()));
     }
 
+    /**
+     * @return the operator
+     */
+    Op3 getOperator() {
+        return op;
+    }
+
+    /**
+     * @param code
+     *            compiled form of this expression, see {@link BytecodeCompiler}
+     */
+    void setCompiled(final CompiledExpression code) {
+        compiled = code;
+    }
+
     @Override
     protected void asString(final StringBuilder sb, final int i) {
         sb.append(op.toString());
@@ -0,0 +1,380 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.interpreter.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.datatype.Tuple;
+import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.lang.interpreter.StaticType;
+import org.protelis.lang.util.Op1;
+import org.protelis.lang.util.Op2;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.ProtelisProgram;
+import org.protelis.vm.impl.SimpleProgramImpl;
+
+/**
+ * Static type inference over translated programs.
+ *
+ * Every node is annotated with a {@link StaticType}. Variables are typed with
+ * all the values they can be assigned within the program (references are
+ * lexical, so the assignments of a variable are all visible), function
+ * arguments are unknown, and calls are typed with the body of the function.
+ * Types are refined until they are stable, which takes a handful of passes
+ * even for recursive functions.
+ *
+ * Once types are known, the operators whose operands are proven
+ * {@link StaticType#NUMBER}s switch to their primitive implementation, and
+ * sums of non numeric values skip straight to string concatenation, so that
+ * no type is rediscovered at runtime. The {@link BytecodeCompiler} turns
+ * specialized operators into primitive arithmetic.
+ */
+public final class TypeInference {
+
+    private final Map<AnnotatedTree<?>, StaticType> types = new IdentityHashMap<>();
+    private final Map<Reference, StaticType> variables = new HashMap<>();
+    private final Set<Reference> assigned = new HashSet<>();
+    private final Map<FunctionDefinition, AnnotatedTree<?>> bodies = new IdentityHashMap<>();
+    private final Map<FunctionDefinition, StaticType> results = new IdentityHashMap<>();
+    private final List<AnnotatedTree<?>> roots = new ArrayList<>();
+    private boolean changed;
+
+    private TypeInference() {
+    }
+
+    /**
+     * Infers the types of a program and of all the functions it can reach,
+     * and specializes them in place.
+     *
+     * @param program
+     *            the program. Currently, only {@link SimpleProgramImpl}s are
+     *            supported
+     * @return the same program
+     * @throws IllegalArgumentException
+     *             if the program implementation is not supported
+     */
+    public static ProtelisProgram infer(final ProtelisProgram program) {
+        if (!(program instanceof SimpleProgramImpl)) {
+            throw new IllegalArgumentException("Unsupported program implementation: " + program.getClass());
+        }
+        final TypeInference inference = new TypeInference();
+        for (final FunctionDefinition fd : program.getNamedFunctions().values()) {
+            inference.addFunction(fd);
+        }
+        inference.run(((SimpleProgramImpl) program).getEvaluationTree());
+        return program;
+    }
+
+    /**
+     * Infers the types of a tree and of all the functions it can reach, and
+     * specializes them in place.
+     *
+     * @param tree
+     *            the tree
+     * @return the type of the tree
+     */
+    public static StaticType infer(final AnnotatedTree<?> tree) {
+        return new TypeInference().run(tree);
+    }
+
+    private StaticType run(final AnnotatedTree<?> tree) {
+        addRoot(tree);
+        do {
+            changed = false;
+            for (final AnnotatedTree<?> root : roots) {
+                type(root);
+            }
+            for (final Map.Entry<FunctionDefinition, AnnotatedTree<?>> body : bodies.entrySet()) {
+                final StaticType old = results.get(body.getKey());
+                final StaticType updated = join(old, types.get(body.getValue()));
+                if (updated != old) {
+                    results.put(body.getKey(), updated);
+                    changed = true;
+                }
+            }
+        } while (changed);
+        for (final AnnotatedTree<?> root : roots) {
+            specialize(root);
+        }
+        /*
+         * Function bodies are templates, copied at each call site: install
+         * the specialized copies as the new templates.
+         */
+        bodies.forEach(FunctionDefinition::setBody);
+        return known(types.get(tree));
+    }
+
+    private void addFunction(final FunctionDefinition fd) {
+        if (!bodies.containsKey(fd)) {
+            final AnnotatedTree<?> body = fd.getBody();
+            bodies.put(fd, body);
+            /*
+             * Arguments are bound at the call sites, whose values are not
+             * tracked: a parameter may hold anything, even if the body
+             * reassigns it.
+             */
+            for (int i = 0; i < fd.getArgNumber(); i++) {
+                final Reference arg = fd.getArgumentByPosition(i);
+                assigned.add(arg);
+                variables.put(arg, StaticType.ANY);
+            }
+            addRoot(body);
+        }
+    }
+
+    /*
+     * Collects roots, functions and assigned variables
+     */
+    private void addRoot(final AnnotatedTree<?> root) {
+        roots.add(root);
+        collect(root);
+    }
+
+    private void collect(final AnnotatedTree<?> tree) {
+        if (tree instanceof AbstractAnnotatedTree) {
+            for (final AnnotatedTree<?> branch : ((AbstractAnnotatedTree<?>) tree).getBranches()) {
+                collect(branch);
+            }
+            if (tree instanceof CreateVar) {
+                assigned.add(((CreateVar) tree).getReference());
+            } else if (tree instanceof RepCall) {
+                assigned.add(((RepCall<?>) tree).getReference());
+            } else if (tree instanceof DotOperator) {
+                collect(((DotOperator) tree).getTarget());
+            } else if (tree instanceof FunctionCall) {
+                addFunction(((FunctionCall) tree).getFunctionDefinition());
+            } else if (tree instanceof Constant && ((Constant<?>) tree).getInternalObject() instanceof FunctionDefinition) {
+                addFunction((FunctionDefinition) ((Constant<?>) tree).getInternalObject());
+            }
+        }
+    }
+
+    /*
+     * Null stands for a type which is not known yet: it is either refined in
+     * a later pass, or the node is never evaluated (e.g. endless recursion).
+     */
+    private StaticType type(final AnnotatedTree<?> tree) {
+        final StaticType type = compute(tree);
+        types.put(tree, type);
+        return type;
+    }
+
+    private StaticType compute(final AnnotatedTree<?> tree) {
+        if (!(tree instanceof AbstractAnnotatedTree)) {
+            return StaticType.ANY;
+        }
+        if (tree instanceof Constant) {
+            return ofValue(((Constant<?>) tree).getInternalObject());
+        }
+        if (tree instanceof Variable) {
+            final Reference ref = ((Variable) tree).getReference();
+            return assigned.contains(ref) ? variables.get(ref) : StaticType.ANY;
+        }
+        final List<AnnotatedTree<?>> branches = ((AbstractAnnotatedTree<?>) tree).getBranches();
+        final StaticType[] args = new StaticType[branches.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = type(branches.get(i));
+        }
+        if (tree instanceof CreateVar) {
+            return assign(((CreateVar) tree).getReference(), args[0]);
+        }
+        if (tree instanceof RepCall) {
+            /*
+             * The body has been typed before the initial value got assigned:
+             * it gets refined in the next pass, if needed.
+             */
+            final Reference ref = ((RepCall<?>) tree).getReference();
+            assign(ref, args[0]);
+            return assign(ref, args[1]);
+        }
+        if (tree instanceof All) {
+            return args.length == 0 ? StaticType.ANY : args[args.length - 1];
+        }
+        if (tree instanceof If) {
+            return join(args[1], args[2]);
+        }
+        if (tree instanceof BinaryOp) {
+            return binary(((BinaryOp) tree).getOperator(), args[0], args[1]);
+        }
+        if (tree instanceof UnaryOp) {
+            return unary(((UnaryOp) tree).getOperator(), args[0]);
+        }
+        if (tree instanceof TernaryOp) {
+            return mux(args[0], args[1], args[2]);
+        }
+        if (tree instanceof NBRCall) {
+            return args[0] == null ? null : args[0].getFieldType();
+        }
+        if (tree instanceof HoodCall) {
+            return hood((HoodCall) tree, args[0]);
+        }
+        if (tree instanceof CreateTuple) {
+            return tuple(args);
+        }
+        if (tree instanceof FunctionCall) {
+            return results.get(((FunctionCall) tree).getFunctionDefinition());
+        }
+        if (tree instanceof DotOperator) {
+            type(((DotOperator) tree).getTarget());
+        }
+        return StaticType.ANY;
+    }
+
+    private StaticType assign(final Reference ref, final StaticType type) {
+        final StaticType old = variables.get(ref);
+        final StaticType updated = join(old, type);
+        if (updated != old) {
+            variables.put(ref, updated);
+            changed = true;
+        }
+        return type;
+    }
+
+    private static StaticType ofValue(final Object value) {
+        if (value instanceof Double) {
+            return StaticType.NUMBER;
+        }
+        if (value instanceof Boolean) {
+            return StaticType.BOOLEAN;
+        }
+        if (value instanceof String) {
+            return StaticType.STRING;
+        }
+        if (value instanceof Tuple) {
+            return StaticType.TUPLE;
+        }
+        if (value instanceof FunctionDefinition) {
+            return StaticType.FUNCTION;
+        }
+        return StaticType.ANY;
+    }
+
+    private static StaticType binary(final Op2 op, final StaticType a, final StaticType b) {
+        if (a == null || b == null) {
+            return null;
+        }
+        if (a == StaticType.ANY || b == StaticType.ANY) {
+            return StaticType.ANY;
+        }
+        final boolean arithmetic = op.getDoubleFunction() != null;
+        if (a.isField() || b.isField()) {
+            return arithmetic && a.getElementType() == StaticType.NUMBER && b.getElementType() == StaticType.NUMBER
+                    ? StaticType.NUMBER_FIELD
+                    : StaticType.FIELD;
+        }
+        if (arithmetic) {
+            if (a == StaticType.NUMBER && b == StaticType.NUMBER) {
+                return StaticType.NUMBER;
+            }
+            /*
+             * Sums of anything else are string concatenations, the other
+             * operations fail.
+             */
+            return op == Op2.PLUS ? StaticType.STRING : StaticType.ANY;
+        }
+        /*
+         * Comparisons and logical operations
+         */
+        return StaticType.BOOLEAN;
+    }
+
+    private static StaticType unary(final Op1 op, final StaticType a) {
+        if (a == null || a == StaticType.ANY) {
+            return a;
+        }
+        if (op.getDoubleFunction() == null) {
+            return a.isField() ? StaticType.FIELD : StaticType.BOOLEAN;
+        }
+        if (a.getElementType() == StaticType.NUMBER) {
+            return a;
+        }
+        return a.isField() ? StaticType.FIELD : StaticType.ANY;
+    }
+
+    private static StaticType mux(final StaticType cond, final StaticType then, final StaticType otherwise) {
+        if (cond == null || then == null || otherwise == null) {
+            return null;
+        }
+        if (cond == StaticType.ANY || then == StaticType.ANY || otherwise == StaticType.ANY) {
+            return StaticType.ANY;
+        }
+        if (cond.isField() || then.isField() || otherwise.isField()) {
+            return then.getElementType().join(otherwise.getElementType()).getFieldType();
+        }
+        return then.join(otherwise);
+    }
+
+    private static StaticType hood(final HoodCall hood, final StaticType field) {
+        if (field == null) {
+            return null;
+        }
+        switch (hood.getFunction()) {
+        case ANY:
+        case ALL:
+            return StaticType.BOOLEAN;
+        case UNION:
+            return StaticType.TUPLE;
+        default:
+            return field == StaticType.NUMBER_FIELD ? StaticType.NUMBER : StaticType.ANY;
+        }
+    }
+
+    private static StaticType tuple(final StaticType... elements) {
+        StaticType result = StaticType.TUPLE;
+        for (final StaticType element : elements) {
+            if (element == null) {
+                return null;
+            }
+            if (element == StaticType.ANY) {
+                result = StaticType.ANY;
+            } else if (element.isField() && result != StaticType.ANY) {
+                result = StaticType.FIELD;
+            }
+        }
+        return result;
+    }
+
+    private static StaticType join(final StaticType a, final StaticType b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return a.join(b);
+    }
+
+    private static StaticType known(final StaticType type) {
+        return type == null ? StaticType.ANY : type;
+    }
+
+    private void specialize(final AnnotatedTree<?> tree) {
+        if (tree instanceof AbstractAnnotatedTree) {
+            final List<AnnotatedTree<?>> branches = ((AbstractAnnotatedTree<?>) tree).getBranches();
+            for (final AnnotatedTree<?> branch : branches) {
+                specialize(branch);
+            }
+            if (tree instanceof BinaryOp) {
+                ((BinaryOp) tree).specialize(known(types.get(branches.get(0))), known(types.get(branches.get(1))));
+            } else if (tree instanceof UnaryOp) {
+                ((UnaryOp) tree).specialize(known(types.get(branches.get(0))));
+            } else if (tree instanceof DotOperator) {
+                specialize(((DotOperator) tree).getTarget());
+            }
+        }
+    }
+
+}
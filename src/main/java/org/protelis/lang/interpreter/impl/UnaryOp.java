@@ -11,6 +11,7 @@ package org.protelis.lang.interpreter.impl;
 import java.util.Objects;
 
 import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.lang.interpreter.StaticType;
 import org.protelis.lang.util.Op1;
 import org.protelis.vm.ExecutionContext;
 
@@ -22,6 +23,8 @@ public class UnaryOp extends AbstractAnnotatedTree<Object> {
 
     private static final long serialVersionUID = 2803028109250981637L;
     private final Op1 op;
+    private CompiledExpression compiled;
+    private boolean numeric;
 
     /**
      * @param name
@@ -41,13 +44,66 @@ public class UnaryOp extends AbstractAnnotatedTree<Object> {
 
     @Override
     public UnaryOp copy() {
-        return new UnaryOp(op, getBranch(0).copy());
+        final UnaryOp res = new UnaryOp(op, getBranch(0).copy());
+        res.compiled = compiled;
+        res.numeric = numeric;
+        return res;
+    }
+
+    @Override
+    public boolean isStateless() {
+        return areBranchesStateless();
     }
 
     @Override
     public void eval(final ExecutionContext context) {
+        if (compiled != null) {
+            try {
+                setAnnotation(compiled.evaluate(context));
+                return;
+            } catch (final ClassCastException e) {
+                /*
+                 * An operand is not of the inferred type: the expression
+                 * is pure, so it can be safely interpreted instead
+                 */
+            }
+        }
         projectAndEval(context);
-        setAnnotation(op.run(getBranch(0).getAnnotation()));
+        final Object a = getBranch(0).getAnnotation();
+        setAnnotation(numeric && a instanceof Double ? op.getDoubleFunction().applyAsDouble((Double) a) : op.run(a));
+    }
+
+    /**
+     * @return the operator
+     */
+    Op1 getOperator() {
+        return op;
+    }
+
+    /**
+     * @return true if the operand is known to be a {@link Double}, and the
+     *         primitive implementation of the operator is used
+     */
+    boolean isNumeric() {
+        return numeric;
+    }
+
+    /**
+     * Selects the implementation of the operator, see {@link TypeInference}.
+     *
+     * @param operand
+     *            type of the operand
+     */
+    void specialize(final StaticType operand) {
+        numeric = operand == StaticType.NUMBER && op.getDoubleFunction() != null;
+    }
+
+    /**
+     * @param code
+     *            compiled form of this expression, see {@link BytecodeCompiler}
+     */
+    void setCompiled(final CompiledExpression code) {
+        compiled = code;
     }
 
     @Override
@@ -33,6 +33,11 @@ public class Variable extends AbstractAnnotatedTree<Object> {
         return new Variable(name);
     }
 
+    @Override
+    public boolean isStateless() {
+        return true;
+    }
+
     @Override
     public void eval(final ExecutionContext context) {
         Object val = context.getVariable(name);
@@ -49,6 +54,13 @@ public class Variable extends AbstractAnnotatedTree<Object> {
         setAnnotation(val);
     }
 
+    /**
+     * @return the variable name
+     */
+    Reference getReference() {
+        return name;
+    }
+
     @Override
     protected void asString(final StringBuilder sb, final int i) {
         sb.append(name);
@@ -0,0 +1,27 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.util;
+
+/**
+ * A predicate on two doubles, the primitive specialization of a
+ * {@link java.util.function.BiPredicate}.
+ */
+@FunctionalInterface
+public interface DoubleBinaryPredicate {
+
+    /**
+     * @param a
+     *            first operand
+     * @param b
+     *            second operand
+     * @return the result of the test
+     */
+    boolean test(double a, double b);
+
+}
@@ -24,6 +24,7 @@ import org.apache.commons.math3.util.Pair;
 import org.protelis.lang.datatype.DeviceUID;
 import org.protelis.lang.datatype.Field;
 import org.protelis.lang.datatype.Tuple;
+import org.protelis.lang.datatype.impl.DoubleFieldImpl;
 
 /**
  * Collection of functions and helper methods for reducing fields into local
@@ -165,11 +166,25 @@ public enum HoodOp {
         return function.apply(o, n);
     }
 
+    /*
+     * Fields of doubles are reduced without boxing. Empty fields go through
+     * the generic path, for the sake of default selection.
+     */
+    private static boolean isPrimitive(final Field f) {
+        return f instanceof DoubleFieldImpl && ((DoubleFieldImpl) f).isPrimitive() && !f.isEmpty();
+    }
+
     private static Object min(final Field f, final DeviceUID n) {
+        if (isPrimitive(f)) {
+            return ((DoubleFieldImpl) f).reduceDoubles(Op2.MIN.getDoubleFunction(), n, POSITIVE_INFINITY);
+        }
         return f.reduceVals(Op2.MIN.getFunction(), n, MIN.defs.apply(f));
     }
 
     private static Object max(final Field f, final DeviceUID n) {
+        if (isPrimitive(f)) {
+            return ((DoubleFieldImpl) f).reduceDoubles(Op2.MAX.getDoubleFunction(), n, NEGATIVE_INFINITY);
+        }
         return f.reduceVals(Op2.MAX.getFunction(), n, MAX.defs.apply(f));
     }
 
@@ -182,6 +197,9 @@ public enum HoodOp {
     }
 
     private static Object sum(final Field f, final DeviceUID n) {
+        if (isPrimitive(f)) {
+            return ((DoubleFieldImpl) f).reduceDoubles(Op2.PLUS.getDoubleFunction(), n, 0d);
+        }
         return f.reduceVals(Op2.PLUS.getFunction(), n, SUM.defs.apply(f));
     }
 
@@ -189,6 +207,9 @@ public enum HoodOp {
         if (f.isEmpty()) {
             return NaN;
         }
+        if (isPrimitive(f)) {
+            return ((DoubleFieldImpl) f).reduceDoubles(Op2.PLUS.getDoubleFunction(), n, 0d) / f.size();
+        }
         return Op2.DIVIDE.getFunction().apply(sum(f, n), f.size());
     }
 
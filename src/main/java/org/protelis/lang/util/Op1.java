@@ -13,9 +13,11 @@ import static org.protelis.lang.util.OpUtils.unsupported;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.UnaryOperator;
 
 import org.protelis.lang.datatype.Field;
+import org.protelis.lang.datatype.impl.DoubleFieldImpl;
 
 /**
  * Collection of functions and helper methods for unary operators.
@@ -25,29 +27,51 @@ public enum Op1 {
     /**
      * Not.
      */
-    NOT("!", Op1::not),
+    NOT("!", Op1::not, null),
     /**
      * Sign inversion.
      */
-    MINUS("-", Op1::minus);
+    MINUS("-", Op1::minus, a -> -a);
 
     private static final int[] FIELDS = new int[] { 0 };
     private static final Map<String, Op1> MAP = new ConcurrentHashMap<>();
     private final UnaryOperator<Object> fun;
+    private final DoubleUnaryOperator doubleFun;
     private final String opName;
 
-    Op1(final String name, final UnaryOperator<Object> function) {
+    Op1(final String name, final UnaryOperator<Object> function, final DoubleUnaryOperator doubleFunction) {
         fun = function;
+        doubleFun = doubleFunction;
         opName = name;
     }
 
+    /**
+     * @return The function implementing this operator on {@link Double}s,
+     *         or null if this operator does not map doubles to doubles
+     */
+    public DoubleUnaryOperator getDoubleFunction() {
+        return doubleFun;
+    }
+
     /**
      * @param a
      *            the object on which the {@link Op1} should be run
      * @return the result of the evaluation
      */
     public Object run(final Object a) {
+        if (doubleFun != null && a instanceof Double) {
+            /*
+             * Fast path for plain numbers, the operand is not boxed again
+             */
+            return doubleFun.applyAsDouble((Double) a);
+        }
         if (a instanceof Field) {
+            if (doubleFun != null) {
+                final Field res = DoubleFieldImpl.apply(doubleFun, a);
+                if (res != null) {
+                    return res;
+                }
+            }
             return Field.applyWithSingleParam(fun, FIELDS, a);
         }
         return fun.apply(a);
@@ -15,9 +15,11 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 import java.util.function.BinaryOperator;
+import java.util.function.DoubleBinaryOperator;
 
 import org.apache.commons.math3.util.FastMath;
 import org.protelis.lang.datatype.Field;
+import org.protelis.lang.datatype.impl.DoubleFieldImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,35 +34,35 @@ public enum Op2 {
     /** Logical AND operation. */
     AND("&&", Op2::and),
     /** Arithmetic division operation. */
-    DIVIDE("/", Op2::divide),
+    DIVIDE("/", Op2::divide, (a, b) -> a / b),
     /** Equality comparison operation. */
-    EQUALS("==", Op2::equals),
+    EQUALS("==", Op2::equals, null, Op2::doubleEquals),
     /** Inequality comparison operation. */
-    NOT_EQUALS("!=", (a, b) -> !Op2.equals(a, b)),
+    NOT_EQUALS("!=", (a, b) -> !Op2.equals(a, b), null, (a, b) -> !doubleEquals(a, b)),
     /** Greater-than comparison operation. */
-    GREATER(">", Op2::greater),
+    GREATER(">", Op2::greater, null, (a, b) -> a > b),
     /** Greater-than-or-equal comparison operation. */
-    GREATER_EQUALS(">=", Op2::greaterEquals),
+    GREATER_EQUALS(">=", Op2::greaterEquals, null, (a, b) -> a >= b),
     /** Maximum of two numbers or other Comparable objects. */
-    MAX("min", Op2::max),
+    MAX("min", Op2::max, (a, b) -> a > b ? a : b),
     /** Minimum of two numbers or other Comparable objects. */
-    MIN("min", Op2::min),
+    MIN("min", Op2::min, (a, b) -> a > b ? b : a),
     /** Arithmetic subtraction operation. */
-    MINUS("-", Op2::minus),
+    MINUS("-", Op2::minus, (a, b) -> a - b),
     /** Modulus operation. */
-    MODULUS("%", Op2::modulus),
+    MODULUS("%", Op2::modulus, (a, b) -> a % b),
     /** Logical OR operation. */
     OR("||", Op2::or),
     /** Arithmetic addition operation. */
-    PLUS("+", Op2::plus),
+    PLUS("+", Op2::plus, (a, b) -> a + b),
     /** Exponent operation. */
-    POWER("^", Op2::pow),
+    POWER("^", Op2::pow, FastMath::pow),
     /** Less-than comparison operation. */
-    SMALLER("<", Op2::smaller),
+    SMALLER("<", Op2::smaller, null, (a, b) -> a < b),
     /** Less-than-or-equal comparison operation. */
-    SMALLER_EQUALS("<=", Op2::smallerEquals),
+    SMALLER_EQUALS("<=", Op2::smallerEquals, null, (a, b) -> a <= b),
     /** Arithmetic multiplication operation. */
-    TIMES("*", Op2::times);
+    TIMES("*", Op2::times, (a, b) -> a * b);
 
     private static final Logger L = LoggerFactory.getLogger(Op2.class);
     private static final int[] BOTH = new int[] { 0, 1 };
@@ -69,10 +71,25 @@ public enum Op2 {
     private static final int[] NONE = new int[] {};
     private static final Map<String, Op2> MAP = new ConcurrentHashMap<>();
     private final BinaryOperator<Object> fun;
+    private final DoubleBinaryOperator doubleFun;
+    private final DoubleBinaryPredicate doubleTest;
     private final String opName;
 
     Op2(final String name, final BinaryOperator<Object> function) {
+        this(name, function, null, null);
+    }
+
+    Op2(final String name, final BinaryOperator<Object> function, final DoubleBinaryOperator doubleFunction) {
+        this(name, function, doubleFunction, null);
+    }
+
+    Op2(final String name,
+            final BinaryOperator<Object> function,
+            final DoubleBinaryOperator doubleFunction,
+            final DoubleBinaryPredicate doublePredicate) {
         fun = function;
+        doubleFun = doubleFunction;
+        doubleTest = doublePredicate;
         opName = name;
     }
 
@@ -83,6 +100,22 @@ public enum Op2 {
         return fun;
     }
 
+    /**
+     * @return The function implementing this operator on {@link Double}s,
+     *         or null if this operator does not map doubles to doubles
+     */
+    public DoubleBinaryOperator getDoubleFunction() {
+        return doubleFun;
+    }
+
+    /**
+     * @return The function implementing this operator on {@link Double}s,
+     *         or null if this operator does not map doubles to booleans
+     */
+    public DoubleBinaryPredicate getDoublePredicate() {
+        return doubleTest;
+    }
+
     /**
      * Compute the value of applying the two-argument operator to inputs a and
      * b.
@@ -94,10 +127,31 @@ public enum Op2 {
      * @return result of applying the operator to a and b
      */
     public Object run(final Object a, final Object b) {
+        if (a instanceof Double && b instanceof Double) {
+            /*
+             * Fast path for plain numbers: operands are not boxed again, and
+             * boolean results are the cached instances.
+             */
+            if (doubleFun != null) {
+                return doubleFun.applyAsDouble((Double) a, (Double) b);
+            }
+            if (doubleTest != null) {
+                return doubleTest.test((Double) a, (Double) b);
+            }
+        }
         final boolean afield = a instanceof Field;
         final boolean bfield = b instanceof Field;
         final int[] fields = afield && bfield ? BOTH : afield ? LEFT : bfield ? RIGHT : NONE;
         if (fields.length > 0) {
+            if (doubleFun != null) {
+                /*
+                 * Fast path for fields of doubles: no boxing.
+                 */
+                final Field res = DoubleFieldImpl.apply(doubleFun, a, b);
+                if (res != null) {
+                    return res;
+                }
+            }
             return Field.apply(fun, fields, a, b);
         }
         return fun.apply(a, b);
@@ -133,6 +187,10 @@ public enum Op2 {
     }
 
     @SuppressFBWarnings("FE_FLOATING_POINT_EQUALITY")
+    private static boolean doubleEquals(final double a, final double b) {
+        return a == b;
+    }
+
     private static boolean equals(final Object a, final Object b) {
         if (a == null && b == null) {
             return true;
@@ -141,7 +199,7 @@ public enum Op2 {
             return false;
         }
         if (a instanceof Number && b instanceof Number) {
-            return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+            return doubleEquals(((Number) a).doubleValue(), ((Number) b).doubleValue());
         }
         return a.equals(b);
     }
@@ -155,21 +213,20 @@ public enum Op2 {
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    private static <T> boolean comparison(final String op, final T a, final T b,
-            final BiFunction<Double, Double, Boolean> f) {
+    private static <T> boolean comparison(final String op, final T a, final T b, final DoubleBinaryPredicate f) {
         if (a instanceof Number && b instanceof Number) {
-            return f.apply(((Number) a).doubleValue(), ((Number) b).doubleValue());
+            return f.test(((Number) a).doubleValue(), ((Number) b).doubleValue());
         }
         try {
             if (a instanceof Comparable && b instanceof Comparable) {
-                return f.apply((double) ((Comparable) a).compareTo(b), 0d);
+                return f.test(((Comparable) a).compareTo(b), 0d);
             }
         } catch (RuntimeException e) { // NOPMD: comparison of different types
         }
         /*
          * Fall back to lexicographic comparison
          */
-        return f.apply((double) a.toString().compareTo(b.toString()), 0d);
+        return f.test(a.toString().compareTo(b.toString()), 0d);
     }
 
     private static <T> boolean logical(final String op, final T a, final T b,
@@ -252,12 +309,9 @@ public enum Op2 {
         return arithmetic("^", a, b, (v1, v2) -> FastMath.pow(v1, v2));
     }
 
-    private static <I, O> O arithmetic(final String op, final I a, final I b, final BiFunction<Double, Double, O> f) {
-        if (a instanceof Double && b instanceof Double) {
-            return f.apply(((Double) a), ((Double) b));
-        }
+    private static Object arithmetic(final String op, final Object a, final Object b, final DoubleBinaryOperator f) {
         if (a instanceof Number && b instanceof Number) {
-            return f.apply(((Number) a).doubleValue(), ((Number) b).doubleValue());
+            return f.applyAsDouble(((Number) a).doubleValue(), ((Number) b).doubleValue());
         }
         return unsupported(op, a, b);
     }
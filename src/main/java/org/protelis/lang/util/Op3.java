@@ -8,12 +8,8 @@
  *******************************************************************************/
 package org.protelis.lang.util;
 
-import gnu.trove.list.TIntList;
-import gnu.trove.list.array.TIntArrayList;
-
 import java.util.Arrays;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.danilopianini.lang.TriFunction;
@@ -49,20 +45,21 @@ public enum Op3 {
      *         {@link Field}.
      */
     public Object run(final Object a, final Object b, final Object c) {
+        if (!(a instanceof Field || b instanceof Field || c instanceof Field)) {
+            /*
+             * Fast path with no fields: no allocation
+             */
+            return fun.apply(a, b, c);
+        }
         final Object[] args = { a, b, c };
-        Optional<TIntList> idx = Optional.empty();
+        final int[] fields = new int[args.length];
+        int count = 0;
         for (int i = 0; i < args.length; i++) {
             if (args[i] instanceof Field) {
-                if (!idx.isPresent()) {
-                    idx = Optional.of(new TIntArrayList(3));
-                }
-                idx.get().add(i);
+                fields[count++] = i;
             }
         }
-        if (idx.isPresent()) {
-            return Field.apply(fun, idx.get().toArray(), a, b, c);
-        }
-        return fun.apply(a, b, c);
+        return Field.apply(fun, Arrays.copyOf(fields, count), a, b, c);
     }
 
     @Override
@@ -22,6 +22,11 @@ public final class Reference implements Serializable {
     private static final long serialVersionUID = 8294777860793746504L;
     private final long uid;
     private String strRep;
+    /*
+     * Not serialized: a deserialized reference is looked up by equality
+     */
+    private transient SlotTable table;
+    private transient int slot;
 
     /**
      * @param obj the object to refer to
@@ -55,6 +60,35 @@ public final class Reference implements Serializable {
         }
     }
 
+    /**
+     * @return the slot table of the program this reference belongs to, or
+     *         null if the reference was not resolved when the program was
+     *         loaded (or it has been deserialized since)
+     */
+    public SlotTable getSlotTable() {
+        return table;
+    }
+
+    /**
+     * Slots are dense, starting from zero, so that execution contexts can
+     * store variables in arrays rather than maps. Equal references of the
+     * same program share the same slot.
+     *
+     * @return the slot of this reference in its {@link #getSlotTable() slot
+     *         table}, meaningless if it has none
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /*
+     * Called once, when the program is loaded, before it is shared
+     */
+    void bind(final SlotTable slots, final int index) {
+        table = slots;
+        slot = index;
+    }
+
     @Override
     public int hashCode() {
         return (int) uid;
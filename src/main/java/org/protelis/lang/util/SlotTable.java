@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.util;
+
+import java.util.Collection;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * The slots of the variables of a program, see {@link Reference#getSlot()}.
+ * A table is built when its program is loaded, and never changes afterwards:
+ * its size is the number of distinct variables of that program only, and it
+ * is collected along with the program.
+ */
+public final class SlotTable {
+
+    private static final int NO_ENTRY = -1;
+    private final TObjectIntMap<Reference> slots;
+
+    private SlotTable(final TObjectIntMap<Reference> slots) {
+        this.slots = slots;
+    }
+
+    /**
+     * Assigns dense slots to the references of a program, starting from zero.
+     * Equal references share the same slot. References already bound to
+     * another table keep it, but their slot can be looked up in this one too.
+     *
+     * @param references
+     *            all the references of the program, duplicates included
+     * @return the table
+     */
+    public static SlotTable assign(final Collection<Reference> references) {
+        final TObjectIntMap<Reference> slots = new TObjectIntHashMap<>(references.size() * 2, 0.5f, NO_ENTRY);
+        for (final Reference ref : references) {
+            slots.putIfAbsent(ref, slots.size());
+        }
+        final SlotTable table = new SlotTable(slots);
+        for (final Reference ref : references) {
+            if (ref.getSlotTable() == null) {
+                ref.bind(table, slots.get(ref));
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return the number of slots
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * @param ref
+     *            the reference, possibly bound to another table
+     * @return the slot of a reference equal to ref in this table, or -1 if
+     *         there is none
+     */
+    public int getSlot(final Reference ref) {
+        return slots.get(ref);
+    }
+
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.vm;
+
+import java.util.Map;
+
+import org.protelis.vm.util.CodePath;
+import org.protelis.vm.util.StateDelta;
+
+/**
+ * A {@link NetworkManager} which receives, at the end of each round, the
+ * difference between the current shared state and the one shared in the
+ * previous round. Since most of the values usually do not change between
+ * rounds, sending just the differences can drastically reduce the amount of
+ * data to transmit. Receivers are expected to keep the last known state of
+ * each neighbor along with its sequence number, and patch it with
+ * {@link StateDelta#applyTo(Map, long)}.
+ * 
+ * Neighbors that have not received the previous exports (for instance,
+ * because they just appeared, or because some message got lost) can not
+ * apply a delta, and need the full state. The sender can either send them
+ * {@link StateDelta#getState()} on its own, or have the next export be a
+ * full delta by means of {@link #isFullStateRequired(long)}, for instance
+ * periodically or upon request of a neighbor.
+ */
+public interface DeltaNetworkManager extends NetworkManager {
+
+    /**
+     * Called by {@link ProtelisVM} in place of {@link #shareState(Map)}.
+     * 
+     * @param delta
+     *            the difference from the state shared in the previous round
+     */
+    void shareDelta(StateDelta delta);
+
+    /**
+     * Called by {@link ProtelisVM} before each export. The first export is
+     * always full.
+     * 
+     * @param sequence
+     *            the sequence number of the state about to be shared
+     * @return true if the state must be shared as a full delta, rather than
+     *         as the difference from the previous one. By default, false
+     */
+    default boolean isFullStateRequired(final long sequence) {
+        return false;
+    }
+
+    /**
+     * Shares the state as a full delta, numbered 0.
+     * 
+     * @param toSend
+     *            Shared state to be transmitted to neighbors.
+     */
+    @Override
+    default void shareState(final Map<CodePath, Object> toSend) {
+        shareDelta(StateDelta.full(toSend, 0));
+    }
+
+}
@@ -40,6 +40,19 @@ public interface ExecutionContext {
      */
     void newCallStackFrame(byte... id);
 
+    /**
+     * Builds a new stack frame marked by a single byte. Equivalent to
+     * {@link #newCallStackFrame(byte...)}, but implementations are encouraged
+     * to override it avoiding the array allocation, as it is invoked at every
+     * node of the program.
+     * 
+     * @param id
+     *            stack frame type
+     */
+    default void newCallStackFrame(final byte id) {
+        newCallStackFrame(new byte[] { id });
+    }
+
     /**
      * returns from the last frame.
      */
@@ -111,6 +124,26 @@ public interface ExecutionContext {
      */
     <T> Field buildField(Function<T, ?> computeValue, T localValue);
 
+    /**
+     * Looks up the state that the construct at the current {@link CodePath}
+     * stored in the previous round via {@link #putState(Object)}. State which
+     * was not stored again in the previous round is dropped, so constructs
+     * which were not evaluated start from scratch.
+     * 
+     * @return the state stored at the current {@link CodePath} in the
+     *         previous round, or null if there is none
+     */
+    Object getPreviousState();
+
+    /**
+     * Stores state at the current {@link CodePath}, making it available in the
+     * next round via {@link #getPreviousState()}.
+     * 
+     * @param state
+     *            the state to store
+     */
+    void putState(Object state);
+
     /**
      * Obtain a system-independent (pseudo)random number.
      * 
@@ -31,6 +31,8 @@ public interface NetworkManager {
      * information available from neighbors. The call is serial within the
      * execution, so this should probably poll state maintained by a separate
      * thread, rather than gathering state during this call.
+     * {@link org.protelis.vm.impl.ConcurrentNetworkManager} implements such
+     * a polling.
      * 
      * @return A map associating each neighbor with its shared state. The object
      *         returned should not be modified, and {@link ProtelisVM} will not
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.vm;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.protelis.vm.util.CodePath;
+
+/**
+ * Translates the state shared by a device (see
+ * {@link NetworkManager#shareState(Map)}) to and from bytes. Implementations
+ * are meant to be used by {@link NetworkManager}s before transmitting data on
+ * the wire.
+ */
+public interface StateCodec {
+
+    /**
+     * Writes the state in the buffer, starting from its current position.
+     *
+     * @param state
+     *            the state to encode
+     * @param out
+     *            the destination buffer
+     * @throws BufferOverflowException
+     *             if the buffer is not large enough. In this case, the
+     *             position of the buffer is unspecified
+     */
+    void encode(Map<CodePath, Object> state, ByteBuffer out);
+
+    /**
+     * Writes the state in a new buffer, ready to be read.
+     *
+     * @param state
+     *            the state to encode
+     * @return a buffer, whose content from its position to its limit is the
+     *         encoded state
+     */
+    default ByteBuffer encode(final Map<CodePath, Object> state) {
+        int capacity = 256;
+        while (true) {
+            final ByteBuffer out = ByteBuffer.allocate(capacity);
+            try {
+                encode(state, out);
+                out.flip();
+                return out;
+            } catch (BufferOverflowException e) {
+                capacity *= 2;
+            }
+        }
+    }
+
+    /**
+     * Reads a state from the buffer, starting from its current position. When
+     * the method returns, the position is right after the encoded state.
+     *
+     * @param in
+     *            the buffer to read from
+     * @return the decoded state
+     */
+    Map<CodePath, Object> decode(ByteBuffer in);
+
+}
@@ -10,29 +10,31 @@ package org.protelis.vm.impl;
 
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.function.Function;
 
-import org.apache.commons.math3.util.Pair;
 import org.danilopianini.lang.LangUtils;
 import org.danilopianini.lang.PrimitiveUtils;
 import org.protelis.lang.datatype.DeviceUID;
 import org.protelis.lang.datatype.Field;
 import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.datatype.impl.DoubleFieldImpl;
 import org.protelis.lang.util.Reference;
+import org.protelis.vm.DeltaNetworkManager;
 import org.protelis.vm.ExecutionContext;
 import org.protelis.vm.ExecutionEnvironment;
 import org.protelis.vm.NetworkManager;
+import org.protelis.vm.util.CallStack;
 import org.protelis.vm.util.CodePath;
+import org.protelis.vm.util.CodePathInterner;
+import org.protelis.vm.util.NeighborIndex;
 import org.protelis.vm.util.Stack;
+import org.protelis.vm.util.StateDelta;
 import org.protelis.vm.util.StackImpl;
 
 import com.google.common.collect.MapMaker;
 
-import gnu.trove.list.TByteList;
-import gnu.trove.list.array.TByteArrayList;
 import gnu.trove.stack.TIntStack;
 import gnu.trove.stack.array.TIntArrayStack;
 
@@ -45,13 +47,20 @@ public abstract class AbstractExecutionContext implements ExecutionContext {
 
     private static final MapMaker MAPMAKER = new MapMaker();
 
-    private final TByteList callStack = new TByteArrayList();
-    private final TIntStack callFrameSizes = new TIntArrayStack();
+    private CallStack callStack = new CallStack();
+    private TIntStack callFrameSizes = new TIntArrayStack();
+    private CodePathInterner codePaths = new CodePathInterner();
     private final NetworkManager nm;
     private Map<Reference, ?> functions;
     private Stack gamma;
+    private StackImpl stack;
     private Map<DeviceUID, Map<CodePath, Object>> theta;
+    private NeighborIndex neighbors;
     private Map<CodePath, Object> toSend;
+    private Map<CodePath, Object> previousExport;
+    private long exports;
+    private Map<CodePath, Object> previousState = Collections.emptyMap();
+    private Map<CodePath, Object> state;
     private Number previousRoundTime;
     private final ExecutionEnvironment env;
 
@@ -83,10 +92,22 @@ public abstract class AbstractExecutionContext implements ExecutionContext {
         Objects.requireNonNull(functions);
         previousRoundTime = getCurrentTime();
         env.commit();
-        nm.shareState(toSend);
+        if (nm instanceof DeltaNetworkManager) {
+            final DeltaNetworkManager deltaNm = (DeltaNetworkManager) nm;
+            final long sequence = exports++;
+            deltaNm.shareDelta(deltaNm.isFullStateRequired(sequence)
+                    ? StateDelta.full(toSend, sequence)
+                    : StateDelta.between(previousExport, sequence - 1, toSend, sequence));
+            previousExport = toSend;
+        } else {
+            nm.shareState(toSend);
+        }
+        previousState = state;
         gamma = null;
         theta = null;
+        neighbors = null;
         toSend = null;
+        state = null;
     }
 
     @Override
@@ -96,24 +117,41 @@ public abstract class AbstractExecutionContext implements ExecutionContext {
         }
         assert previousRoundTime != null : "Round time is null.";
         callStack.clear();
-        callStack.add((byte) 1);
+        callStack.push((byte) 1);
+        codePaths.newEpoch();
         env.setup();
         toSend = MAPMAKER.makeMap();
-        gamma = new StackImpl(new LinkedHashMap<>(functions));
+        state = new HashMap<>(previousState.size() * 2 + 1);
+        /*
+         * The function table is the base layer of the stack, never copied
+         */
+        if (stack == null) {
+            stack = new StackImpl(functions);
+        } else {
+            stack.reset(functions);
+        }
+        gamma = stack;
         theta = Collections.unmodifiableMap(nm.getNeighborState());
+        neighbors = NeighborIndex.create(theta, getDeviceUID());
     }
 
     @Override
     public final void newCallStackFrame(final byte... id) {
         callFrameSizes.push(id.length);
-        callStack.add(id);
+        callStack.push(id);
+        gamma.push();
+    }
+
+    @Override
+    public final void newCallStackFrame(final byte id) {
+        callFrameSizes.push(1);
+        callStack.push(id);
         gamma.push();
     }
 
     @Override
     public final void returnFromCallFrame() {
-        final int size = callFrameSizes.pop();
-        callStack.remove(callStack.size() - size, size);
+        callStack.pop(callFrameSizes.pop());
         gamma.pop();
     }
 
@@ -145,9 +183,18 @@ public abstract class AbstractExecutionContext implements ExecutionContext {
             }
         }
         final AbstractExecutionContext restrictedInstance = instance();
+        /*
+         * The restricted context evaluates within the frames of this one
+         */
+        restrictedInstance.callStack = callStack;
+        restrictedInstance.callFrameSizes = callFrameSizes;
         restrictedInstance.theta = restricted;
+        restrictedInstance.neighbors = NeighborIndex.create(restricted, localDevice);
         restrictedInstance.gamma = gamma;
         restrictedInstance.toSend = toSend;
+        restrictedInstance.previousState = previousState;
+        restrictedInstance.state = state;
+        restrictedInstance.codePaths = codePaths;
         return restrictedInstance;
     }
 
@@ -157,7 +204,7 @@ public abstract class AbstractExecutionContext implements ExecutionContext {
         /*
          * Compute where we stand
          */
-        final CodePath codePath = new CodePath(callStack);
+        final CodePath codePath = codePaths.intern(callStack);
         /*
          * If there is a request to build a field, then it means this is a
          * nbr-like operation
@@ -167,19 +214,32 @@ public abstract class AbstractExecutionContext implements ExecutionContext {
                     "This program has attempted to build a field twice with the same code path."
                     + "This is probably a bug in Protelis");
         }
-        final Field res = Field.create(theta.size() + 1);
-        theta.entrySet().stream()
-                .map(e -> new Pair<>(e.getKey(), e.getValue().get(codePath)))
-                .filter(e -> e.getValue() != null)
+        final DoubleFieldImpl res = new DoubleFieldImpl(neighbors);
+        for (int slot = 0; slot < neighbors.size(); slot++) {
+            final Map<CodePath, Object> neighborState = neighbors.getState(slot);
+            final Object value = neighborState == null ? null : neighborState.get(codePath);
+            if (value != null) {
                 /*
                  * This cast is OK by construction, if no bug is there and no
                  * wild casts are done by the caller.
                  */
-                .forEachOrdered(e -> res.addSample(e.getKey(), computeValue.apply((T) e.getValue())));
+                res.addSampleToSlot(slot, computeValue.apply((T) value));
+            }
+        }
         res.addSample(getDeviceUID(), computeValue.apply(localValue));
         return res;
     }
 
+    @Override
+    public final Object getPreviousState() {
+        return previousState.get(codePaths.intern(callStack));
+    }
+
+    @Override
+    public final void putState(final Object value) {
+        state.put(codePaths.intern(callStack), value);
+    }
+
     @Override
     public final Object getVariable(final Reference name) {
         return gamma.get(name);
@@ -0,0 +1,400 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.vm.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+
+import org.protelis.lang.datatype.DeviceUID;
+import org.protelis.vm.ExecutionContext;
+import org.protelis.vm.NetworkManager;
+import org.protelis.vm.ProtelisProgram;
+import org.protelis.vm.ProtelisVM;
+import org.protelis.vm.util.CodePath;
+import org.protelis.vm.util.LatencyHistogram;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Runs a whole network of devices in the current JVM. Devices exchange their
+ * state through arrays indexed by device, with no per-round map building, and
+ * rounds are run on a work-stealing {@link ForkJoinPool}.
+ *
+ * Two scheduling policies are available:
+ * <ul>
+ * <li>{@link #runSynchronous(int)}: bulk synchronous rounds, in which every
+ * device sees the state shared by its neighbors in the previous round;</li>
+ * <li>{@link #runAsynchronous(int)}: every device runs its rounds as soon as
+ * a worker is available, and sees the most recent state of its
+ * neighbors.</li>
+ * </ul>
+ * Run methods must not be invoked concurrently.
+ */
+public final class BatchedNetworkExecutor {
+
+    private static final int SEQUENTIAL_THRESHOLD = 64;
+    private final ProtelisVM[] devices;
+    private final DeviceUID[] uids;
+    private final int[][] topology;
+    private final ForkJoinPool pool;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder deviceRounds = new LongAdder();
+    private AtomicReferenceArray<Map<CodePath, Object>> visible;
+    private AtomicReferenceArray<Map<CodePath, Object>> written;
+    private long elapsed;
+
+    /**
+     * @param topology
+     *            for each device, the indices of its neighbors
+     * @param programs
+     *            given the index of a device, the program it runs. Programs
+     *            obtained from a {@link SharedProgram} keep the memory
+     *            footprint proportional to the number of devices
+     * @param contexts
+     *            given the index of a device and the {@link NetworkManager} it
+     *            must use, the context of the device
+     * @param parallelism
+     *            number of worker threads
+     */
+    public BatchedNetworkExecutor(
+            final int[][] topology,
+            final IntFunction<ProtelisProgram> programs,
+            final BiFunction<Integer, NetworkManager, ExecutionContext> contexts,
+            final int parallelism) {
+        this.topology = topology.clone();
+        final int size = topology.length;
+        devices = new ProtelisVM[size];
+        uids = new DeviceUID[size];
+        visible = new AtomicReferenceArray<>(size);
+        written = new AtomicReferenceArray<>(size);
+        for (int i = 0; i < size; i++) {
+            for (final int n : topology[i]) {
+                if (n < 0 || n >= size || n == i) {
+                    throw new IllegalArgumentException("Device " + i + " has an invalid neighbor: " + n);
+                }
+            }
+            final ExecutionContext context = contexts.apply(i, new Port(i));
+            uids[i] = context.getDeviceUID();
+            devices[i] = new ProtelisVM(programs.apply(i), context);
+        }
+        /*
+         * Asynchronous mode means FIFO scheduling of forked tasks, so that
+         * devices take turns
+         */
+        pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    /**
+     * Runs bulk synchronous rounds: in each of them, every device runs once,
+     * seeing the state its neighbors shared in the previous round.
+     *
+     * @param rounds
+     *            the number of rounds
+     */
+    public void runSynchronous(final int rounds) {
+        final long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            pool.invoke(new SynchronousRound(0, devices.length));
+            /*
+             * Publish the state of this round. Joining the round makes the
+             * writes visible.
+             */
+            final AtomicReferenceArray<Map<CodePath, Object>> swap = visible;
+            visible = written;
+            written = swap;
+        }
+        elapsed += System.nanoTime() - start;
+    }
+
+    /**
+     * Runs rounds asynchronously: every device runs the given number of
+     * rounds, taking turns with the others, and sees the most recent state
+     * shared by its neighbors.
+     *
+     * @param rounds
+     *            the number of rounds each device runs
+     */
+    public void runAsynchronous(final int rounds) {
+        if (rounds <= 0) {
+            return;
+        }
+        final long start = System.nanoTime();
+        /*
+         * Share directly on the visible buffer
+         */
+        final AtomicReferenceArray<Map<CodePath, Object>> buffer = written;
+        written = visible;
+        try {
+            pool.invoke(new AsynchronousRun(rounds));
+        } finally {
+            written = buffer;
+            elapsed += System.nanoTime() - start;
+        }
+    }
+
+    private void runDevice(final int i) {
+        final long start = System.nanoTime();
+        devices[i].runCycle();
+        latencies.record(System.nanoTime() - start);
+        deviceRounds.increment();
+    }
+
+    /**
+     * @return the number of devices
+     */
+    public int size() {
+        return devices.length;
+    }
+
+    /**
+     * @param i
+     *            device index
+     * @return the value computed by the device in its last round
+     */
+    public Object getCurrentValue(final int i) {
+        return devices[i].getCurrentValue();
+    }
+
+    /**
+     * @param i
+     *            device index
+     * @return the identifier of the device
+     */
+    public DeviceUID getDeviceUID(final int i) {
+        return uids[i];
+    }
+
+    /**
+     * @return network rounds (a round of every device) per second, since
+     *         creation or the last {@link #resetStatistics()}
+     */
+    public double getRoundsPerSecond() {
+        if (elapsed == 0 || devices.length == 0) {
+            return 0;
+        }
+        return deviceRounds.sum() / (double) devices.length / (elapsed / 1e9);
+    }
+
+    /**
+     * @param percentile
+     *            the percentile, between 0 and 1
+     * @return the estimated percentile of the time taken by a device to run a
+     *         round, in nanoseconds
+     */
+    public long getLatencyPercentile(final double percentile) {
+        return latencies.getPercentile(percentile);
+    }
+
+    /**
+     * Forgets the statistics collected so far.
+     */
+    public void resetStatistics() {
+        latencies.reset();
+        deviceRounds.reset();
+        elapsed = 0;
+    }
+
+    /**
+     * Stops the worker threads. The executor can not be used afterwards.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private final class SynchronousRound extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+
+        private SynchronousRound(final int from, final int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    runDevice(i);
+                }
+            } else {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new SynchronousRound(from, mid), new SynchronousRound(mid, to));
+            }
+        }
+    }
+
+    private final class AsynchronousRun extends CountedCompleter<Void> {
+        private static final long serialVersionUID = 1L;
+        private final int rounds;
+
+        private AsynchronousRun(final int rounds) {
+            this.rounds = rounds;
+        }
+
+        @Override
+        public void compute() {
+            setPendingCount(devices.length);
+            for (int i = 0; i < devices.length; i++) {
+                new AsynchronousRound(this, i, rounds).fork();
+            }
+            tryComplete();
+        }
+    }
+
+    private final class AsynchronousRound extends CountedCompleter<Void> {
+        private static final long serialVersionUID = 1L;
+        private final int device;
+        private final int remaining;
+
+        private AsynchronousRound(final CountedCompleter<?> parent, final int device, final int remaining) {
+            super(parent);
+            this.device = device;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public void compute() {
+            runDevice(device);
+            if (remaining > 1) {
+                /*
+                 * Queue the next round behind the other devices
+                 */
+                addToPendingCount(1);
+                new AsynchronousRound(this, device, remaining - 1).fork();
+            }
+            tryComplete();
+        }
+    }
+
+    /**
+     * {@link NetworkManager} of a single device, reading and writing the
+     * shared arrays.
+     */
+    private final class Port implements NetworkManager {
+        private final int device;
+        private final Map<CodePath, Object>[] snapshot;
+        private TObjectIntMap<DeviceUID> slots;
+
+        @SuppressWarnings("unchecked")
+        private Port(final int device) {
+            this.device = device;
+            snapshot = new Map[topology[device].length];
+        }
+
+        @Override
+        public Map<DeviceUID, Map<CodePath, Object>> getNeighborState() {
+            final int[] neighbors = topology[device];
+            int size = 0;
+            for (int i = 0; i < neighbors.length; i++) {
+                snapshot[i] = visible.get(neighbors[i]);
+                if (snapshot[i] != null) {
+                    size++;
+                }
+            }
+            return new NeighborView(size);
+        }
+
+        @Override
+        public void shareState(final Map<CodePath, Object> toSend) {
+            written.set(device, toSend);
+        }
+
+        private int slotOf(final Object uid) {
+            if (slots == null) {
+                final int[] neighbors = topology[device];
+                slots = new TObjectIntHashMap<>(neighbors.length * 2, 0.5f, -1);
+                for (int i = 0; i < neighbors.length; i++) {
+                    slots.put(uids[neighbors[i]], i);
+                }
+            }
+            return slots.get(uid);
+        }
+
+        /**
+         * Read-only view of the snapshot taken at the beginning of the round.
+         */
+        private final class NeighborView extends AbstractMap<DeviceUID, Map<CodePath, Object>> {
+            private final int size;
+
+            private NeighborView(final int size) {
+                this.size = size;
+            }
+
+            @Override
+            public Map<CodePath, Object> get(final Object key) {
+                final int slot = slotOf(key);
+                return slot < 0 ? null : snapshot[slot];
+            }
+
+            @Override
+            public boolean containsKey(final Object key) {
+                return get(key) != null;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Set<Entry<DeviceUID, Map<CodePath, Object>>> entrySet() {
+                return new AbstractSet<Entry<DeviceUID, Map<CodePath, Object>>>() {
+                    @Override
+                    public Iterator<Entry<DeviceUID, Map<CodePath, Object>>> iterator() {
+                        return new Iterator<Entry<DeviceUID, Map<CodePath, Object>>>() {
+                            private int next = advance(0);
+
+                            private int advance(final int from) {
+                                int i = from;
+                                while (i < snapshot.length && snapshot[i] == null) {
+                                    i++;
+                                }
+                                return i;
+                            }
+
+                            @Override
+                            public boolean hasNext() {
+                                return next < snapshot.length;
+                            }
+
+                            @Override
+                            public Entry<DeviceUID, Map<CodePath, Object>> next() {
+                                if (!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                final int current = next;
+                                next = advance(current + 1);
+                                return new SimpleImmutableEntry<>(uids[topology[device][current]], snapshot[current]);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return size;
+                    }
+                };
+            }
+        }
+    }
+
+}
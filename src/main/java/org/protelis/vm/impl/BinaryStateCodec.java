@@ -0,0 +1,483 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.vm.impl;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.protelis.lang.datatype.DeviceUID;
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.datatype.Tuple;
+import org.protelis.vm.StateCodec;
+import org.protelis.vm.util.CodePath;
+import org.protelis.vm.util.StateDelta;
+
+import gnu.trove.list.array.TByteArrayList;
+
+/**
+ * Compact binary {@link StateCodec}. Every value is prefixed by a one byte
+ * tag:
+ * <ul>
+ * <li>{@link Double}s take eight more bytes, {@link Boolean}s none;</li>
+ * <li>{@link Integer}s and {@link Long}s are zig-zag varints;</li>
+ * <li>{@link String}s are UTF-8, prefixed by their length;</li>
+ * <li>{@link Tuple}s are their size followed by their elements;</li>
+ * <li>{@link FunctionDefinition}s the resolver passed upon construction can
+ * resolve are sent by name and arity, and looked up by the receiver with the
+ * same resolver. The others (e.g. lambdas) are serialized;</li>
+ * <li>types registered with {@link #register(int, Class, TypeCodec)} are
+ * their identifier followed by whatever their codec writes;</li>
+ * <li>any other {@link Serializable} object falls back to Java
+ * serialization.</li>
+ * </ul>
+ * {@link DeviceUID} is an interface, whose implementation is up to the user:
+ * {@link #longDeviceUID(ToLongFunction, LongFunction)} builds a codec for the
+ * common case of identifiers backed by a number.
+ *
+ * {@link CodePath}s are written as their length followed by their markers,
+ * one byte each.
+ *
+ * Both ends of a link must use codecs configured in the same way. Instances
+ * can be shared among threads, provided that types are registered before
+ * use.
+ */
+public final class BinaryStateCodec implements StateCodec {
+
+    private static final byte NULL = 0;
+    private static final byte DOUBLE = 1;
+    private static final byte TRUE = 2;
+    private static final byte FALSE = 3;
+    private static final byte INT = 4;
+    private static final byte LONG = 5;
+    private static final byte STRING = 6;
+    private static final byte TUPLE = 7;
+    private static final byte FUNCTION = 8;
+    private static final byte REGISTERED = 9;
+    private static final byte SERIALIZED = 10;
+    private static final int VARINT_BITS = 7;
+    private static final int VARINT_MASK = 0x7F;
+    private static final int VARINT_MORE = 0x80;
+    private static final int LONG_MASK = 0xFF;
+    private static final int BITS_PER_BYTE = 8;
+    private static final Optional<Registration<?>> NONE = Optional.empty();
+
+    private final Function<String, FunctionDefinition> functionResolver;
+    private final Map<Integer, Registration<?>> byId = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Registration<?>> byType = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Registration<?>> registrations = new CopyOnWriteArrayList<>();
+    private final Map<Class<?>, Optional<Registration<?>>> resolved = new ConcurrentHashMap<>();
+
+    /**
+     * Builds a codec that sends {@link FunctionDefinition}s with Java
+     * serialization.
+     */
+    public BinaryStateCodec() {
+        this(null);
+    }
+
+    /**
+     * @param functionResolver
+     *            a function which, given a function name, returns the
+     *            corresponding {@link FunctionDefinition} of the running
+     *            program, or null if no such function exists. If null,
+     *            {@link FunctionDefinition}s are sent with Java serialization,
+     *            as are those it can not resolve
+     */
+    public BinaryStateCodec(final Function<String, FunctionDefinition> functionResolver) {
+        this.functionResolver = functionResolver;
+    }
+
+    /**
+     * Codec for user defined types.
+     *
+     * @param <T>
+     *            the type
+     */
+    public interface TypeCodec<T> {
+
+        /**
+         * @param value
+         *            the value to write
+         * @param out
+         *            the destination buffer
+         * @param codec
+         *            the codec in use, for writing nested values
+         */
+        void encode(T value, ByteBuffer out, BinaryStateCodec codec);
+
+        /**
+         * @param in
+         *            the buffer to read from
+         * @param codec
+         *            the codec in use, for reading nested values
+         * @return the decoded value
+         */
+        T decode(ByteBuffer in, BinaryStateCodec codec);
+
+    }
+
+    /**
+     * Registers a codec for a user type. The codec is used for instances of
+     * the type and of its subtypes, unless a more specific codec has been
+     * registered for their exact class.
+     *
+     * @param id
+     *            non negative identifier of the type on the wire
+     * @param type
+     *            the type
+     * @param codec
+     *            the codec
+     * @param <T>
+     *            the type
+     * @return this codec
+     */
+    public <T> BinaryStateCodec register(final int id, final Class<T> type, final TypeCodec<T> codec) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Type identifiers must be non negative, got " + id);
+        }
+        final Registration<T> registration = new Registration<>(id, Objects.requireNonNull(type), Objects.requireNonNull(codec));
+        if (byId.putIfAbsent(id, registration) != null) {
+            throw new IllegalStateException("Identifier " + id + " is already bound to " + byId.get(id).type);
+        }
+        if (byType.putIfAbsent(type, registration) != null) {
+            byId.remove(id);
+            throw new IllegalStateException(type + " is already registered");
+        }
+        registrations.add(registration);
+        resolved.clear();
+        return this;
+    }
+
+    /**
+     * @param toLong
+     *            maps an identifier to a number
+     * @param fromLong
+     *            maps a number back to an identifier
+     * @param <T>
+     *            the {@link DeviceUID} type
+     * @return a codec writing the identifiers as varints
+     */
+    public static <T extends DeviceUID> TypeCodec<T> longDeviceUID(final ToLongFunction<T> toLong, final LongFunction<T> fromLong) {
+        Objects.requireNonNull(toLong);
+        Objects.requireNonNull(fromLong);
+        return new TypeCodec<T>() {
+            @Override
+            public void encode(final T value, final ByteBuffer out, final BinaryStateCodec codec) {
+                putVarLong(out, zigZag(toLong.applyAsLong(value)));
+            }
+
+            @Override
+            public T decode(final ByteBuffer in, final BinaryStateCodec codec) {
+                return fromLong.apply(unZigZag(getVarLong(in)));
+            }
+        };
+    }
+
+    @Override
+    public void encode(final Map<CodePath, Object> state, final ByteBuffer out) {
+        putVarInt(out, state.size());
+        for (final Map.Entry<CodePath, Object> entry : state.entrySet()) {
+            writeCodePath(entry.getKey(), out);
+            writeValue(entry.getValue(), out);
+        }
+    }
+
+    @Override
+    public Map<CodePath, Object> decode(final ByteBuffer in) {
+        final int size = getVarInt(in);
+        final Map<CodePath, Object> res = new LinkedHashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            final CodePath path = readCodePath(in);
+            res.put(path, readValue(in));
+        }
+        return res;
+    }
+
+    /**
+     * Writes a delta in the buffer, starting from its current position.
+     *
+     * @param delta
+     *            the delta to encode
+     * @param out
+     *            the destination buffer
+     * @throws java.nio.BufferOverflowException
+     *             if the buffer is not large enough
+     */
+    public void encode(final StateDelta delta, final ByteBuffer out) {
+        putVarLong(out, zigZag(delta.getBase()));
+        putVarLong(out, delta.getSequence());
+        encode(delta.getUpdated(), out);
+        putVarInt(out, delta.getRemoved().size());
+        for (final CodePath path : delta.getRemoved()) {
+            writeCodePath(path, out);
+        }
+    }
+
+    /**
+     * @param in
+     *            the buffer to read from
+     * @return a delta written by {@link #encode(StateDelta, ByteBuffer)}
+     */
+    public StateDelta decodeDelta(final ByteBuffer in) {
+        final long base = unZigZag(getVarLong(in));
+        final long sequence = getVarLong(in);
+        final Map<CodePath, Object> updated = decode(in);
+        final int size = getVarInt(in);
+        final List<CodePath> removed = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            removed.add(readCodePath(in));
+        }
+        return new StateDelta(base, sequence, updated, removed);
+    }
+
+    /**
+     * @param path
+     *            the path to write
+     * @param out
+     *            the destination buffer
+     */
+    public void writeCodePath(final CodePath path, final ByteBuffer out) {
+        final int size = path.size();
+        putVarInt(out, size);
+        final long[] words = path.asLongArray();
+        for (int i = 0; i < size; i++) {
+            out.put((byte) (words[i / Long.BYTES] >>> (BITS_PER_BYTE * (i % Long.BYTES))));
+        }
+    }
+
+    /**
+     * @param in
+     *            the buffer to read from
+     * @return the path
+     */
+    public CodePath readCodePath(final ByteBuffer in) {
+        final byte[] markers = new byte[getVarInt(in)];
+        in.get(markers);
+        return new CodePath(TByteArrayList.wrap(markers));
+    }
+
+    /**
+     * @param value
+     *            the value to write
+     * @param out
+     *            the destination buffer
+     */
+    @SuppressWarnings("unchecked")
+    public void writeValue(final Object value, final ByteBuffer out) {
+        if (value == null) {
+            out.put(NULL);
+        } else if (value instanceof Double) {
+            out.put(DOUBLE);
+            out.putDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.put((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Integer) {
+            out.put(INT);
+            putVarLong(out, zigZag((Integer) value));
+        } else if (value instanceof Long) {
+            out.put(LONG);
+            putVarLong(out, zigZag((Long) value));
+        } else if (value instanceof String) {
+            out.put(STRING);
+            final byte[] utf = ((String) value).getBytes(StandardCharsets.UTF_8);
+            putVarInt(out, utf.length);
+            out.put(utf);
+        } else if (value instanceof Tuple) {
+            out.put(TUPLE);
+            final Tuple tuple = (Tuple) value;
+            putVarInt(out, tuple.size());
+            for (int i = 0; i < tuple.size(); i++) {
+                writeValue(tuple.get(i), out);
+            }
+        } else if (value instanceof FunctionDefinition && isResolvable((FunctionDefinition) value)) {
+            out.put(FUNCTION);
+            final FunctionDefinition fd = (FunctionDefinition) value;
+            writeValue(fd.getName().toString(), out);
+            putVarInt(out, fd.getArgNumber());
+        } else {
+            final Registration<Object> registration = (Registration<Object>) lookup(value.getClass());
+            if (registration != null) {
+                out.put(REGISTERED);
+                putVarInt(out, registration.id);
+                registration.codec.encode(value, out, this);
+            } else if (value instanceof Serializable) {
+                out.put(SERIALIZED);
+                final byte[] bytes = SerializationUtils.serialize((Serializable) value);
+                putVarInt(out, bytes.length);
+                out.put(bytes);
+            } else {
+                throw new IllegalArgumentException(value + " of type " + value.getClass().getName()
+                        + " is neither registered nor serializable");
+            }
+        }
+    }
+
+    /**
+     * @param in
+     *            the buffer to read from
+     * @return the value
+     */
+    public Object readValue(final ByteBuffer in) {
+        final byte tag = in.get();
+        switch (tag) {
+        case NULL:
+            return null;
+        case DOUBLE:
+            return in.getDouble();
+        case TRUE:
+            return true;
+        case FALSE:
+            return false;
+        case INT:
+            return (int) unZigZag(getVarLong(in));
+        case LONG:
+            return unZigZag(getVarLong(in));
+        case STRING:
+            final byte[] utf = new byte[getVarInt(in)];
+            in.get(utf);
+            return new String(utf, StandardCharsets.UTF_8);
+        case TUPLE:
+            final Object[] elements = new Object[getVarInt(in)];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = readValue(in);
+            }
+            return Tuple.create(elements);
+        case FUNCTION:
+            return readFunction(in);
+        case REGISTERED:
+            final int id = getVarInt(in);
+            final Registration<?> registration = byId.get(id);
+            if (registration == null) {
+                throw new IllegalStateException("No type is registered with identifier " + id);
+            }
+            return registration.codec.decode(in, this);
+        case SERIALIZED:
+            final byte[] bytes = new byte[getVarInt(in)];
+            in.get(bytes);
+            return SerializationUtils.deserialize(bytes);
+        default:
+            throw new IllegalStateException("Unknown tag " + tag + " at position " + (in.position() - 1));
+        }
+    }
+
+    private boolean isResolvable(final FunctionDefinition fd) {
+        return functionResolver != null && fd.equals(functionResolver.apply(fd.getName().toString()));
+    }
+
+    private FunctionDefinition readFunction(final ByteBuffer in) {
+        final Object name = readValue(in);
+        final int args = getVarInt(in);
+        if (functionResolver == null) {
+            throw new IllegalStateException("Received function " + name + ", but no function resolver is available");
+        }
+        final FunctionDefinition fd = functionResolver.apply((String) name);
+        if (fd == null || fd.getArgNumber() != args) {
+            throw new IllegalStateException("Cannot resolve function " + name + "/" + args);
+        }
+        return fd;
+    }
+
+    private Registration<?> lookup(final Class<?> type) {
+        final Registration<?> exact = byType.get(type);
+        if (exact != null) {
+            return exact;
+        }
+        return resolved.computeIfAbsent(type, t -> {
+            for (final Registration<?> r : registrations) {
+                if (r.type.isAssignableFrom(t)) {
+                    return Optional.of(r);
+                }
+            }
+            return NONE;
+        }).orElse(null);
+    }
+
+    /**
+     * Writes a non negative int as a varint.
+     *
+     * @param out
+     *            the destination buffer
+     * @param value
+     *            the value
+     */
+    public static void putVarInt(final ByteBuffer out, final int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative size: " + value);
+        }
+        putVarLong(out, value);
+    }
+
+    /**
+     * @param in
+     *            the buffer to read from
+     * @return an int written by {@link #putVarInt(ByteBuffer, int)}
+     */
+    public static int getVarInt(final ByteBuffer in) {
+        final long value = getVarLong(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Malformed varint: " + value);
+        }
+        return (int) value;
+    }
+
+    private static void putVarLong(final ByteBuffer out, final long value) {
+        long v = value;
+        while ((v & ~VARINT_MASK) != 0) {
+            out.put((byte) ((v & VARINT_MASK) | VARINT_MORE));
+            v >>>= VARINT_BITS;
+        }
+        out.put((byte) v);
+    }
+
+    private static long getVarLong(final ByteBuffer in) {
+        long res = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += VARINT_BITS) {
+            final int b = in.get() & LONG_MASK;
+            res |= (long) (b & VARINT_MASK) << shift;
+            if ((b & VARINT_MORE) == 0) {
+                return res;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    private static long zigZag(final long value) {
+        return (value << 1) ^ (value >> (Long.SIZE - 1));
+    }
+
+    private static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Registration<T> {
+        private final int id;
+        private final Class<T> type;
+        private final TypeCodec<T> codec;
+
+        private Registration(final int id, final Class<T> type, final TypeCodec<T> codec) {
+            this.id = id;
+            this.type = type;
+            this.codec = codec;
+        }
+    }
+
+}
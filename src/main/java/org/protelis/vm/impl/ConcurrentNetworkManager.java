@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.vm.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+import org.protelis.lang.datatype.DeviceUID;
+import org.protelis.vm.NetworkManager;
+import org.protelis.vm.util.CodePath;
+import org.protelis.vm.util.StateDelta;
+
+import gnu.trove.map.TObjectLongMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
+
+/**
+ * Base class for {@link NetworkManager}s receiving messages on threads other
+ * than the one running the VM.
+ *
+ * Receiving threads call {@link #receive(DeviceUID, Map)},
+ * {@link #receive(DeviceUID, Map, long)},
+ * {@link #receiveDelta(DeviceUID, StateDelta)} or {@link #remove(DeviceUID)}.
+ * Each of them publishes a new immutable neighbor table, copying the previous
+ * one, with a compare and set: receivers never block each other nor the VM.
+ * {@link #getNeighborState()} returns the last published table, with no copy
+ * and no lock, so the VM always sees a consistent snapshot for the whole
+ * round.
+ *
+ * Optionally, neighbors are forgotten if nothing is received from them for a
+ * given retention time. Expired neighbors are dropped when the table is read,
+ * which only costs a copy when some neighbor actually expired.
+ */
+public abstract class ConcurrentNetworkManager implements NetworkManager {
+
+    private static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), new TObjectLongHashMap<>(),
+            new TObjectLongHashMap<>(), false, 0);
+    private final AtomicReference<Snapshot> table = new AtomicReference<>(EMPTY);
+    private final long retention;
+
+    /**
+     * Builds a network manager keeping neighbors until they are explicitly
+     * removed.
+     */
+    protected ConcurrentNetworkManager() {
+        retention = Long.MAX_VALUE;
+    }
+
+    /**
+     * @param retention
+     *            how long a neighbor is kept after its last message
+     * @param unit
+     *            the unit of retention
+     */
+    protected ConcurrentNetworkManager(final long retention, final TimeUnit unit) {
+        if (retention <= 0) {
+            throw new IllegalArgumentException("The retention time must be positive, got " + retention + " " + unit);
+        }
+        this.retention = unit.toNanos(retention);
+    }
+
+    @Override
+    public final Map<DeviceUID, Map<CodePath, Object>> getNeighborState() {
+        Snapshot current = table.get();
+        final long now = currentTime();
+        while (current.expiring && now - current.nextExpiry >= 0) {
+            final Snapshot pruned = current.expire(now, retention);
+            if (table.compareAndSet(current, pruned)) {
+                return pruned.states;
+            }
+            current = table.get();
+        }
+        return current.states;
+    }
+
+    /**
+     * Records the state shared by a neighbor, replacing the previous one.
+     * Since the sequence number of the state is unknown, no delta can be
+     * applied to it. Safe to call from any thread.
+     *
+     * @param neighbor
+     *            the neighbor
+     * @param state
+     *            its shared state, which must not be modified afterwards
+     */
+    protected final void receive(final DeviceUID neighbor, final Map<CodePath, Object> state) {
+        receive(neighbor, state, StateDelta.NO_BASE);
+    }
+
+    /**
+     * Records the state shared by a neighbor, replacing the previous one.
+     * Safe to call from any thread.
+     *
+     * @param neighbor
+     *            the neighbor
+     * @param state
+     *            its shared state, which must not be modified afterwards
+     * @param sequence
+     *            the sequence number of the state, as in
+     *            {@link StateDelta#getSequence()}
+     */
+    protected final void receive(final DeviceUID neighbor, final Map<CodePath, Object> state, final long sequence) {
+        Objects.requireNonNull(state);
+        update(neighbor, current -> current.with(neighbor, state, sequence, currentTime(), retention));
+    }
+
+    /**
+     * Patches the state shared by a neighbor with a delta, as sent by a
+     * {@link org.protelis.vm.DeltaNetworkManager}. Deltas which do not patch
+     * the last known state of the neighbor (because it is unknown, or some
+     * delta got lost) are dropped: the neighbor keeps its last state until
+     * a full state is received. Safe to call from any thread.
+     *
+     * @param neighbor
+     *            the neighbor
+     * @param delta
+     *            the difference from the last state it shared
+     * @return false if the delta was dropped, in which case the caller may
+     *         ask the neighbor for its full state
+     */
+    protected final boolean receiveDelta(final DeviceUID neighbor, final StateDelta delta) {
+        Objects.requireNonNull(delta);
+        return update(neighbor, current -> {
+            final Map<CodePath, Object> previous = current.states.get(neighbor);
+            final long sequence = current.sequences.get(neighbor);
+            return delta.canApplyTo(previous, sequence)
+                    ? current.with(neighbor, delta.applyTo(previous, sequence), delta.getSequence(),
+                            currentTime(), retention)
+                    : null;
+        });
+    }
+
+    /**
+     * Forgets a neighbor. Safe to call from any thread.
+     *
+     * @param neighbor
+     *            the neighbor
+     */
+    protected final void remove(final DeviceUID neighbor) {
+        Objects.requireNonNull(neighbor);
+        Snapshot current;
+        do {
+            current = table.get();
+            if (!current.states.containsKey(neighbor)) {
+                return;
+            }
+        } while (!table.compareAndSet(current, current.without(neighbor, retention)));
+    }
+
+    /*
+     * The change returns null to leave the table untouched
+     */
+    private boolean update(final DeviceUID neighbor, final UnaryOperator<Snapshot> change) {
+        Objects.requireNonNull(neighbor);
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = table.get();
+            next = change.apply(current);
+            if (next == null) {
+                return false;
+            }
+        } while (!table.compareAndSet(current, next));
+        return true;
+    }
+
+    /**
+     * Time source for the expiration of neighbors, in nanoseconds. Only
+     * differences between values are meaningful. Override it to expire
+     * neighbors in simulated time.
+     *
+     * @return the current time
+     */
+    protected long currentTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Immutable neighbor table.
+     */
+    private static final class Snapshot {
+        private final Map<DeviceUID, Map<CodePath, Object>> states;
+        private final TObjectLongMap<DeviceUID> received;
+        private final TObjectLongMap<DeviceUID> sequences;
+        private final boolean expiring;
+        private final long nextExpiry;
+
+        private Snapshot(
+                final Map<DeviceUID, Map<CodePath, Object>> states,
+                final TObjectLongMap<DeviceUID> received,
+                final TObjectLongMap<DeviceUID> sequences,
+                final boolean expiring,
+                final long nextExpiry) {
+            this.states = states;
+            this.received = received;
+            this.sequences = sequences;
+            this.expiring = expiring;
+            this.nextExpiry = nextExpiry;
+        }
+
+        private Snapshot with(
+                final DeviceUID neighbor,
+                final Map<CodePath, Object> state,
+                final long sequence,
+                final long time,
+                final long retention) {
+            final Map<DeviceUID, Map<CodePath, Object>> newStates = new HashMap<>(states);
+            newStates.put(neighbor, state);
+            final TObjectLongMap<DeviceUID> newReceived = new TObjectLongHashMap<>(received);
+            newReceived.put(neighbor, time);
+            final TObjectLongMap<DeviceUID> newSequences = new TObjectLongHashMap<>(sequences);
+            newSequences.put(neighbor, sequence);
+            return create(newStates, newReceived, newSequences, retention);
+        }
+
+        private Snapshot without(final DeviceUID neighbor, final long retention) {
+            final Map<DeviceUID, Map<CodePath, Object>> newStates = new HashMap<>(states);
+            newStates.remove(neighbor);
+            final TObjectLongMap<DeviceUID> newReceived = new TObjectLongHashMap<>(received);
+            newReceived.remove(neighbor);
+            final TObjectLongMap<DeviceUID> newSequences = new TObjectLongHashMap<>(sequences);
+            newSequences.remove(neighbor);
+            return create(newStates, newReceived, newSequences, retention);
+        }
+
+        private Snapshot expire(final long now, final long retention) {
+            final Map<DeviceUID, Map<CodePath, Object>> newStates = new HashMap<>(states);
+            final TObjectLongMap<DeviceUID> newReceived = new TObjectLongHashMap<>(received);
+            final TObjectLongMap<DeviceUID> newSequences = new TObjectLongHashMap<>(sequences);
+            newReceived.retainEntries((neighbor, time) -> {
+                if (now - time >= retention) {
+                    newStates.remove(neighbor);
+                    newSequences.remove(neighbor);
+                    return false;
+                }
+                return true;
+            });
+            return create(newStates, newReceived, newSequences, retention);
+        }
+
+        private static Snapshot create(
+                final Map<DeviceUID, Map<CodePath, Object>> states,
+                final TObjectLongMap<DeviceUID> received,
+                final TObjectLongMap<DeviceUID> sequences,
+                final long retention) {
+            final boolean expiring = retention != Long.MAX_VALUE && !received.isEmpty();
+            long oldest = 0;
+            if (expiring) {
+                final long[] times = received.values();
+                oldest = times[0];
+                for (final long time : times) {
+                    if (time - oldest < 0) {
+                        oldest = time;
+                    }
+                }
+            }
+            return new Snapshot(Collections.unmodifiableMap(states), received, sequences, expiring,
+                    oldest + retention);
+        }
+    }
+
+}
@@ -0,0 +1,400 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.vm.impl;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.protelis.vm.ProtelisVM;
+import org.protelis.vm.util.LatencyHistogram;
+
+/**
+ * Runs the rounds of many {@link ProtelisVM}s, each with its own period and
+ * jitter.
+ *
+ * Devices are driven either by a thread each, meant to be a virtual thread
+ * (see {@link #create()}), or by a shared pool of threads. Either way, a
+ * device has at most one round pending: if a round overruns, or the scheduler
+ * is saturated, the deadlines that passed in the meantime are skipped rather
+ * than queued, and counted as missed. The next round is then scheduled one
+ * period after the late one started. A device whose round throws an
+ * exception is stopped, see {@link Device#getFailure()}.
+ *
+ * When devices are driven by a thread each, programs obtained from a
+ * {@link SharedProgram} keep a working tree per device; otherwise, they keep
+ * one per pool thread.
+ */
+public final class DeviceScheduler {
+
+    private static final Optional<ThreadFactory> VIRTUAL_THREADS = lookupVirtualThreads();
+    private static final AtomicInteger SCHEDULERS = new AtomicInteger();
+    private final ThreadFactory deviceThreads;
+    private final ScheduledThreadPoolExecutor pool;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder missed = new LongAdder();
+    private final LatencyHistogram lateness = new LatencyHistogram();
+    private final LatencyHistogram durations = new LatencyHistogram();
+    private final Set<Device> devices = ConcurrentHashMap.newKeySet();
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    private volatile boolean shutdown;
+
+    /**
+     * Builds a scheduler driving each device with its own thread.
+     *
+     * @param deviceThreads
+     *            the factory of the device threads
+     */
+    public DeviceScheduler(final ThreadFactory deviceThreads) {
+        this.deviceThreads = Objects.requireNonNull(deviceThreads);
+        pool = null;
+    }
+
+    /**
+     * Builds a scheduler driving the devices with a pool of daemon threads.
+     *
+     * @param threads
+     *            number of threads
+     */
+    public DeviceScheduler(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least a thread is required, got " + threads);
+        }
+        deviceThreads = null;
+        final int id = SCHEDULERS.incrementAndGet();
+        final AtomicInteger count = new AtomicInteger();
+        pool = new ScheduledThreadPoolExecutor(threads, r -> {
+            final Thread t = new Thread(r, "protelis-scheduler-" + id + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pool.setRemoveOnCancelPolicy(true);
+        pool.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * @return a scheduler driving each device with a virtual thread, if the
+     *         JVM supports them, or with a pool of as many threads as
+     *         processors otherwise
+     */
+    public static DeviceScheduler create() {
+        return VIRTUAL_THREADS.isPresent()
+                ? new DeviceScheduler(VIRTUAL_THREADS.get())
+                : new DeviceScheduler(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return a factory of virtual threads, if the JVM supports them
+     */
+    public static Optional<ThreadFactory> virtualThreadFactory() {
+        return VIRTUAL_THREADS;
+    }
+
+    /*
+     * Thread.ofVirtual().factory(), if available: this code is compiled
+     * against older JDKs.
+     */
+    private static Optional<ThreadFactory> lookupVirtualThreads() {
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return Optional.of((ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory")
+                    .invoke(builder));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Starts running rounds of a device. The first round starts after a
+     * random delay within a period, so that devices scheduled together do not
+     * run in lockstep.
+     *
+     * @param vm
+     *            the device
+     * @param period
+     *            the time between the start of two rounds
+     * @param jitter
+     *            the maximum random deviation of each period, smaller than
+     *            the period
+     * @param unit
+     *            the unit of period and jitter
+     * @return a handle to monitor and stop the device
+     */
+    public Device schedule(final ProtelisVM vm, final long period, final long jitter, final TimeUnit unit) {
+        Objects.requireNonNull(vm);
+        final long periodNanos = unit.toNanos(period);
+        final long jitterNanos = unit.toNanos(jitter);
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException("The period must be positive, got " + period + " " + unit);
+        }
+        if (jitterNanos < 0 || jitterNanos >= periodNanos) {
+            throw new IllegalArgumentException("The jitter must be in [0, period), got " + jitter + " " + unit);
+        }
+        if (shutdown) {
+            throw new IllegalStateException("The scheduler has been shut down");
+        }
+        final Device device = new Device(vm, periodNanos, jitterNanos);
+        devices.add(device);
+        if (pool == null) {
+            final Thread thread = deviceThreads.newThread(device::loop);
+            device.thread = thread;
+            threads.add(thread);
+            thread.start();
+        } else {
+            device.submit(device.deadline - System.nanoTime());
+        }
+        return device;
+    }
+
+    /**
+     * @return the number of rounds completed by all devices
+     */
+    public long getCompletedRounds() {
+        return completed.sum();
+    }
+
+    /**
+     * @return the number of deadlines skipped by all devices, because their
+     *         round started more than a period late
+     */
+    public long getMissedDeadlines() {
+        return missed.sum();
+    }
+
+    /**
+     * @param percentile
+     *            the percentile, between 0 and 1
+     * @return the estimated percentile of the delay between the deadline of a
+     *         round and its start, in nanoseconds
+     */
+    public long getLatenessPercentile(final double percentile) {
+        return lateness.getPercentile(percentile);
+    }
+
+    /**
+     * @param percentile
+     *            the percentile, between 0 and 1
+     * @return the estimated percentile of the duration of a round, in
+     *         nanoseconds
+     */
+    public long getRoundDurationPercentile(final double percentile) {
+        return durations.getPercentile(percentile);
+    }
+
+    /**
+     * @return true if each device is driven by its own thread
+     */
+    public boolean isThreadPerDevice() {
+        return pool == null;
+    }
+
+    /**
+     * Stops scheduling rounds. Running rounds are completed, see
+     * {@link #awaitTermination(long, TimeUnit)}.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (final Device device : devices) {
+            device.cancel();
+        }
+        if (pool != null) {
+            /*
+             * Rounds already running are not interrupted: an interrupt may
+             * close for good the channels used by the network managers
+             */
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Waits for the rounds running at {@link #shutdown()} to complete.
+     *
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the unit of timeout
+     * @return true if no round is running anymore, false if the timeout
+     *         elapsed
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (!shutdown) {
+            throw new IllegalStateException("The scheduler has not been shut down");
+        }
+        if (pool != null) {
+            return pool.awaitTermination(timeout, unit);
+        }
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (final Thread thread : threads) {
+            final long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return threads.isEmpty();
+            }
+            TimeUnit.NANOSECONDS.timedJoin(thread, left);
+        }
+        return threads.isEmpty();
+    }
+
+    /**
+     * A device run by this scheduler.
+     */
+    public final class Device {
+        private final ProtelisVM vm;
+        private final long period;
+        private final long jitter;
+        private final LongAdder rounds = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private long deadline;
+        private volatile boolean cancelled;
+        private volatile RuntimeException failure;
+        private volatile Thread thread;
+        private volatile ScheduledFuture<?> next;
+
+        private Device(final ProtelisVM vm, final long period, final long jitter) {
+            this.vm = vm;
+            this.period = period;
+            this.jitter = jitter;
+            deadline = System.nanoTime() + ThreadLocalRandom.current().nextLong(period);
+        }
+
+        private boolean isActive() {
+            return !(cancelled || shutdown);
+        }
+
+        private void loop() {
+            try {
+                while (isActive()) {
+                    long delay = deadline - System.nanoTime();
+                    while (delay > 0 && isActive()) {
+                        LockSupport.parkNanos(this, delay);
+                        delay = deadline - System.nanoTime();
+                    }
+                    if (isActive()) {
+                        runRound();
+                    }
+                }
+            } finally {
+                threads.remove(Thread.currentThread());
+            }
+        }
+
+        private void submit(final long delay) {
+            try {
+                next = pool.schedule(() -> {
+                    if (isActive()) {
+                        runRound();
+                        if (isActive()) {
+                            submit(deadline - System.nanoTime());
+                        }
+                    }
+                }, delay, TimeUnit.NANOSECONDS);
+            } catch (final RejectedExecutionException e) {
+                /*
+                 * Shut down in the meantime
+                 */
+                cancel();
+            }
+        }
+
+        /*
+         * Runs a round and computes the next deadline
+         */
+        private void runRound() {
+            final long start = System.nanoTime();
+            final long late = Math.max(0, start - deadline);
+            lateness.record(late);
+            if (late >= period) {
+                /*
+                 * Skip the deadlines that passed, and start the schedule anew
+                 */
+                final long skip = late / period;
+                skipped.add(skip);
+                missed.add(skip);
+                deadline = start;
+            }
+            try {
+                vm.runCycle();
+            } catch (final RuntimeException e) {
+                failure = e;
+                cancel();
+                return;
+            }
+            durations.record(System.nanoTime() - start);
+            rounds.increment();
+            completed.increment();
+            deadline += period + (jitter == 0 ? 0 : ThreadLocalRandom.current().nextLong(-jitter, jitter + 1));
+        }
+
+        /**
+         * Stops running rounds of this device. A running round is completed.
+         */
+        public void cancel() {
+            cancelled = true;
+            devices.remove(this);
+            final ScheduledFuture<?> pending = next;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            final Thread t = thread;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+
+        /**
+         * @return true if the device is no longer run, because it was
+         *         cancelled, it failed, or the scheduler was shut down
+         */
+        public boolean isDone() {
+            return !isActive();
+        }
+
+        /**
+         * @return the exception that stopped the device, if any
+         */
+        public Optional<RuntimeException> getFailure() {
+            return Optional.ofNullable(failure);
+        }
+
+        /**
+         * @return the number of rounds completed
+         */
+        public long getCompletedRounds() {
+            return rounds.sum();
+        }
+
+        /**
+         * @return the number of deadlines skipped, because a round started
+         *         more than a period late
+         */
+        public long getMissedDeadlines() {
+            return skipped.sum();
+        }
+
+        /**
+         * @return the device
+         */
+        public ProtelisVM getVM() {
+            return vm;
+        }
+    }
+
+}
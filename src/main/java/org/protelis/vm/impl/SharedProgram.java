@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.vm.impl;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+import org.danilopianini.lang.util.FasterString;
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.ExecutionContext;
+import org.protelis.vm.ProtelisProgram;
+
+/**
+ * The code of a Protelis program, to be shared by any number of devices.
+ *
+ * Evaluation trees keep no state across rounds: rep state and exports are held
+ * by the {@link ExecutionContext}, and everything else in the tree is either
+ * recomputed or a cache. As a consequence, rather than a copy of the tree per
+ * device, one working copy per thread is enough. Each device gets its own
+ * {@link ProtelisProgram} from {@link #newInstance()}, which only holds the
+ * last computed value.
+ */
+public final class SharedProgram implements Serializable {
+
+    private static final long serialVersionUID = -1383530917445727353L;
+    private final FasterString name;
+    private final AnnotatedTree<?> template;
+    private final Map<Reference, FunctionDefinition> functions;
+    private transient volatile ThreadLocal<AnnotatedTree<?>> trees;
+
+    /**
+     * @param program
+     *            the program to share
+     */
+    public SharedProgram(final SimpleProgramImpl program) {
+        this(program.getName().toString(), program.getEvaluationTree().copy(), program.getNamedFunctions());
+    }
+
+    /**
+     * @param pName
+     *            Program name
+     * @param program
+     *            evaluation tree, which must not be evaluated elsewhere
+     * @param functions
+     *            available functions
+     */
+    public SharedProgram(
+            final String pName,
+            final AnnotatedTree<?> program,
+            final Map<Reference, FunctionDefinition> functions) {
+        Objects.requireNonNull(pName);
+        Objects.requireNonNull(program);
+        Objects.requireNonNull(functions);
+        name = new FasterString(pName);
+        template = program;
+        this.functions = Collections.unmodifiableMap(functions);
+    }
+
+    /**
+     * @return a new {@link ProtelisProgram} for a single device, running this
+     *         code
+     */
+    public ProtelisProgram newInstance() {
+        return new Instance(this);
+    }
+
+    private AnnotatedTree<?> workingTree() {
+        ThreadLocal<AnnotatedTree<?>> current = trees;
+        if (current == null) {
+            current = ThreadLocal.withInitial(template::copy);
+            trees = current;
+        }
+        return current.get();
+    }
+
+    @Override
+    public String toString() {
+        return name + "\n" + template;
+    }
+
+    private static final class Instance implements ProtelisProgram {
+
+        private static final long serialVersionUID = 6360839637296046047L;
+        private final SharedProgram code;
+        private Object currentValue;
+
+        private Instance(final SharedProgram code) {
+            this.code = code;
+        }
+
+        @Override
+        public Object getCurrentValue() {
+            return currentValue;
+        }
+
+        @Override
+        public void compute(final ExecutionContext context) {
+            final AnnotatedTree<?> tree = code.workingTree();
+            tree.eval(context);
+            currentValue = tree.getAnnotation();
+        }
+
+        @Override
+        public Map<Reference, FunctionDefinition> getNamedFunctions() {
+            return code.functions;
+        }
+
+        @Override
+        public FasterString getName() {
+            return code.name;
+        }
+
+        @Override
+        public String toString() {
+            return code.name.toString();
+        }
+
+    }
+
+}
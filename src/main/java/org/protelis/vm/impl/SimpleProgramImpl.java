@@ -81,6 +81,13 @@ public class SimpleProgramImpl implements ProtelisProgram {
         prog.eval(context);
     }
 
+    /**
+     * @return the evaluation tree of this program
+     */
+    public AnnotatedTree<?> getEvaluationTree() {
+        return prog;
+    }
+
     @Override
     public Map<Reference, FunctionDefinition> getNamedFunctions() {
         return funs;
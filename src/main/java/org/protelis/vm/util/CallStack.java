@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.vm.util;
+
+import java.util.Arrays;
+
+/**
+ * A stack of numerical markers, that keeps the {@link CodePath} of its
+ * current content ready for use. Markers are packed in a long[] with the
+ * very same layout used by {@link CodePath}, and the state of the murmur3_32
+ * hash function is stored for every complete four-bytes chunk: pushing and
+ * popping update both incrementally, so that {@link #toCodePath()} never has
+ * to re-scan the stack. The resulting hashes are the same computed by
+ * {@link CodePath#CodePath(gnu.trove.list.TByteList)}.
+ *
+ * This class is not thread safe.
+ */
+public final class CallStack {
+
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final int BITS_PER_BYTE = 8;
+    private static final int CHUNK = Integer.BYTES;
+    private static final long LONG_MASK = 0xFF;
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+    private static final int R1 = 15;
+    private static final int R2 = 13;
+    private static final int M = 5;
+    private static final int N = 0xe6546b64;
+    private static final int F1 = 0x85ebca6b;
+    private static final int F2 = 0xc2b2ae35;
+    private static final int S1 = 16;
+    private static final int S2 = 13;
+
+    private long[] words = new long[DEFAULT_CAPACITY / Long.BYTES];
+    /**
+     * chunkStates[i] is the murmur3_32 state after having consumed the first i
+     * complete chunks of the stack. chunkStates[0] is the seed.
+     */
+    private int[] chunkStates = new int[DEFAULT_CAPACITY / CHUNK + 1];
+    private int size;
+    private CodePath last;
+
+    /**
+     * @param marker
+     *            the marker to push
+     */
+    public void push(final byte marker) {
+        if (size == words.length * Long.BYTES) {
+            words = Arrays.copyOf(words, words.length * 2);
+            chunkStates = Arrays.copyOf(chunkStates, words.length * 2 + 1);
+        }
+        words[size / Long.BYTES] |= (marker & LONG_MASK) << (BITS_PER_BYTE * (size % Long.BYTES));
+        size++;
+        if (size % CHUNK == 0) {
+            final int chunks = size / CHUNK;
+            chunkStates[chunks] = mixH1(chunkStates[chunks - 1], mixK1(chunkAt(chunks - 1)));
+        }
+        last = null;
+    }
+
+    /**
+     * @param markers
+     *            the markers to push, in order
+     */
+    public void push(final byte... markers) {
+        for (final byte marker : markers) {
+            push(marker);
+        }
+    }
+
+    /**
+     * Removes the last markers.
+     *
+     * @param count
+     *            how many markers to remove
+     */
+    public void pop(final int count) {
+        if (count < 0 || count > size) {
+            throw new IllegalArgumentException("Cannot pop " + count + " markers from a stack of size " + size);
+        }
+        for (int i = 0; i < count; i++) {
+            size--;
+            /*
+             * Clear the removed byte: CodePath relies on the unused bits being
+             * zero when comparing paths.
+             */
+            words[size / Long.BYTES] &= ~(LONG_MASK << (BITS_PER_BYTE * (size % Long.BYTES)));
+        }
+        if (count > 0) {
+            last = null;
+        }
+    }
+
+    /**
+     * Empties the stack.
+     */
+    public void clear() {
+        Arrays.fill(words, 0, (size + Long.BYTES - 1) / Long.BYTES, 0L);
+        size = 0;
+        last = null;
+    }
+
+    /**
+     * @return the number of markers in the stack
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index
+     *            the marker position, from the bottom of the stack
+     * @return the marker
+     */
+    public byte get(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return (byte) (words[index / Long.BYTES] >>> (BITS_PER_BYTE * (index % Long.BYTES)));
+    }
+
+    /**
+     * @return the {@link CodePath} corresponding to the current content of the
+     *         stack. The hash is computed in constant time, and the same
+     *         instance is returned until the stack gets modified.
+     */
+    public CodePath toCodePath() {
+        if (last == null) {
+            if (size < CHUNK) {
+                last = new CodePath(null, size, hash());
+            } else {
+                last = new CodePath(Arrays.copyOf(words, (size - 1) / Long.BYTES + 1), size, hash());
+            }
+        }
+        return last;
+    }
+
+    /**
+     * @return the hash code of the {@link CodePath} corresponding to the
+     *         current content of the stack
+     */
+    int hash() {
+        if (size < CHUNK) {
+            return (int) words[0];
+        }
+        final int chunks = size / CHUNK;
+        int h1 = chunkStates[chunks];
+        final int remaining = size % CHUNK;
+        if (remaining > 0) {
+            h1 ^= mixK1(chunkAt(chunks) & ((1 << (BITS_PER_BYTE * remaining)) - 1));
+        }
+        return fmix(h1, size);
+    }
+
+    /**
+     * @param path
+     *            the path to compare with
+     * @return true if the path describes the current content of the stack
+     */
+    boolean matches(final CodePath path) {
+        return path.matches(words, size);
+    }
+
+    private int chunkAt(final int chunk) {
+        final int first = chunk * CHUNK;
+        return (int) (words[first / Long.BYTES] >>> (BITS_PER_BYTE * (first % Long.BYTES)));
+    }
+
+    private static int mixK1(final int k) {
+        int k1 = k * C1;
+        k1 = Integer.rotateLeft(k1, R1);
+        return k1 * C2;
+    }
+
+    private static int mixH1(final int h, final int k1) {
+        int h1 = h ^ k1;
+        h1 = Integer.rotateLeft(h1, R2);
+        return h1 * M + N;
+    }
+
+    private static int fmix(final int h, final int length) {
+        int h1 = h ^ length;
+        h1 ^= h1 >>> S1;
+        h1 *= F1;
+        h1 ^= h1 >>> S2;
+        h1 *= F2;
+        h1 ^= h1 >>> S1;
+        return h1;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(get(i));
+        }
+        return sb.append(']').toString();
+    }
+
+}
@@ -109,6 +109,24 @@ public class CodePath implements Serializable {
         }
     }
 
+    /**
+     * Builds a path from data already packed and hashed, see {@link CallStack}.
+     * 
+     * @param path
+     *            the packed markers, or null if size is smaller than four
+     * @param size
+     *            the number of markers
+     * @param hash
+     *            the hash code, which must be equal to the one computed by
+     *            {@link #CodePath(TByteList)} for the same markers
+     */
+    CodePath(final long[] path, final int size, final int hash) {
+        this.size = size;
+        safe = size < 4;
+        this.path = safe ? null : path;
+        this.hash = hash;
+    }
+
     @Override
     public int hashCode() {
         return hash;
@@ -116,6 +134,9 @@ public class CodePath implements Serializable {
 
     @Override
     public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
         if (o instanceof CodePath) {
             final CodePath pc = (CodePath) o;
             if (safe) {
@@ -129,6 +150,29 @@ public class CodePath implements Serializable {
         return false;
     }
 
+    /**
+     * @param words
+     *            packed markers, with the same layout of this path, and all
+     *            the bits after the last marker set to zero
+     * @param length
+     *            the number of markers
+     * @return true if the markers are the same of this path
+     */
+    boolean matches(final long[] words, final int length) {
+        if (safe) {
+            return length < 4 && hash == (int) words[0];
+        }
+        if (size != length) {
+            return false;
+        }
+        for (int i = 0; i < path.length; i++) {
+            if (path[i] != words[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public String toString() {
         if (string == null) {
@@ -144,6 +188,13 @@ public class CodePath implements Serializable {
         return string;
     }
 
+    /**
+     * @return the number of numerical markers in this path
+     */
+    public int size() {
+        return size;
+    }
+
     /**
      * @return a representation of this path as a long array. The returned array
      *         is a defensive copy, i.e. changes to the returned array will NOT
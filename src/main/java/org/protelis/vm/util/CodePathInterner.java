@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.vm.util;
+
+import java.util.Arrays;
+
+/**
+ * Table of canonical {@link CodePath} instances. In a steady-state program the
+ * same paths get produced every round: interning them allows for reusing the
+ * same instances, with no allocation, and makes equality checks succeed on
+ * identity.
+ *
+ * Eviction is epoch-based: {@link #newEpoch()} is expected to be invoked once
+ * per round, and paths that have not been requested for the configured number
+ * of epochs are dropped.
+ *
+ * This class is not thread safe.
+ */
+public final class CodePathInterner {
+
+    /**
+     * Default number of epochs an unused path survives.
+     */
+    public static final int DEFAULT_MAX_AGE = 8;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int LOAD_NUM = 3;
+    private static final int LOAD_DEN = 4;
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+    private static final int HALF_INT = 16;
+    private final int maxAge;
+    private CodePath[] table = new CodePath[INITIAL_CAPACITY];
+    private int[] lastUsed = new int[INITIAL_CAPACITY];
+    private int count;
+    private int epoch;
+
+    /**
+     * Builds an interner with {@link #DEFAULT_MAX_AGE}.
+     */
+    public CodePathInterner() {
+        this(DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * @param maxAge
+     *            number of epochs a path is kept after its last use
+     */
+    public CodePathInterner(final int maxAge) {
+        if (maxAge < 1) {
+            throw new IllegalArgumentException("The maximum age must be positive, got " + maxAge);
+        }
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Starts a new epoch. Every maxAge epochs, the paths that were not used in
+     * the last maxAge epochs are evicted.
+     */
+    public void newEpoch() {
+        epoch++;
+        if (epoch % maxAge == 0) {
+            rehash(table.length, true);
+        }
+    }
+
+    /**
+     * @param stack
+     *            the call stack
+     * @return the canonical {@link CodePath} for the current content of the
+     *         stack. No path is built if an equal one was already interned.
+     */
+    public CodePath intern(final CallStack stack) {
+        final int hash = stack.hash();
+        final int mask = table.length - 1;
+        int idx = spread(hash) & mask;
+        for (CodePath cur = table[idx]; cur != null; cur = table[idx]) {
+            if (cur.hashCode() == hash && stack.matches(cur)) {
+                lastUsed[idx] = epoch;
+                return cur;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return insert(idx, stack.toCodePath());
+    }
+
+    /**
+     * @param path
+     *            the path to intern
+     * @return the canonical instance equal to path
+     */
+    public CodePath intern(final CodePath path) {
+        final int mask = table.length - 1;
+        int idx = spread(path.hashCode()) & mask;
+        for (CodePath cur = table[idx]; cur != null; cur = table[idx]) {
+            if (cur.equals(path)) {
+                lastUsed[idx] = epoch;
+                return cur;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return insert(idx, path);
+    }
+
+    /**
+     * @return the number of interned paths
+     */
+    public int size() {
+        return count;
+    }
+
+    private CodePath insert(final int idx, final CodePath path) {
+        table[idx] = path;
+        lastUsed[idx] = epoch;
+        count++;
+        if (count * LOAD_DEN > table.length * LOAD_NUM) {
+            rehash(table.length * 2, false);
+        }
+        return path;
+    }
+
+    private void rehash(final int capacity, final boolean evict) {
+        final CodePath[] oldTable = table;
+        final int[] oldLastUsed = lastUsed;
+        table = new CodePath[capacity];
+        lastUsed = new int[capacity];
+        count = 0;
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldTable.length; i++) {
+            final CodePath path = oldTable[i];
+            if (path != null && !(evict && epoch - oldLastUsed[i] >= maxAge)) {
+                int idx = spread(path.hashCode()) & mask;
+                while (table[idx] != null) {
+                    idx = (idx + 1) & mask;
+                }
+                table[idx] = path;
+                lastUsed[idx] = oldLastUsed[i];
+                count++;
+            }
+        }
+    }
+
+    /*
+     * Short paths are hashed with their own markers: mix the bits, or they
+     * would all end up in the first few buckets.
+     */
+    private static int spread(final int hash) {
+        final int h = hash * GOLDEN_RATIO;
+        return h ^ (h >>> HALF_INT);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + Arrays.toString(Arrays.stream(table).filter(p -> p != null).toArray());
+    }
+
+}
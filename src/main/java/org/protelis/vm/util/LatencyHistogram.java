@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.vm.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of durations, for percentile estimation. Every power of
+ * two is split in {@value #SUB_BUCKETS} buckets, so the relative error of
+ * percentiles is below 12.5%, with a fixed footprint. Recording threads are
+ * spread over a fixed number of stripes, so that any number of threads,
+ * including short lived ones, can record concurrently with little contention.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = 3;
+    private static final int LINEAR = 2 * SUB_BUCKETS;
+    private static final int LINEAR_BITS = 4;
+    private static final int BUCKETS = LINEAR + (Long.SIZE - 1 - LINEAR_BITS) * SUB_BUCKETS;
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) * 2;
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+    /**
+     * Builds an empty histogram.
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /**
+     * @param duration
+     *            the duration to record, negative values count as zero
+     */
+    public void record(final long duration) {
+        final long id = Thread.currentThread().getId();
+        stripes[(int) (id ^ id >>> Integer.SIZE) & (STRIPES - 1)].incrementAndGet(bucketOf(Math.max(0, duration)));
+    }
+
+    /**
+     * @return the number of recorded durations
+     */
+    public long count() {
+        long count = 0;
+        for (final AtomicLongArray buckets : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                count += buckets.get(i);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile
+     *            the percentile, between 0 and 1
+     * @return an estimate of the percentile, or 0 if nothing was recorded
+     */
+    public long getPercentile(final double percentile) {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("Percentiles must be in [0, 1], got " + percentile);
+        }
+        final long[] total = new long[BUCKETS];
+        long count = 0;
+        for (final AtomicLongArray buckets : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                final long b = buckets.get(i);
+                total[i] += b;
+                count += b;
+            }
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += total[i];
+            if (seen >= rank) {
+                return lowerBound(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Forgets all the recorded durations.
+     */
+    public void reset() {
+        for (final AtomicLongArray buckets : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+        }
+    }
+
+    private static int bucketOf(final long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - LINEAR_BITS) * SUB_BUCKETS + sub;
+    }
+
+    private static long lowerBound(final int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        final int exponent = (bucket - LINEAR) / SUB_BUCKETS + LINEAR_BITS;
+        final int sub = (bucket - LINEAR) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+
+}
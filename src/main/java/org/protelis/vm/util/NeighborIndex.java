@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.vm.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.protelis.lang.datatype.DeviceUID;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Round-scoped assignment of a dense int slot to every device of a
+ * neighborhood: neighbors get slots in the iteration order of the neighbor
+ * state, and the local device comes last. Fields built on the same index
+ * (see {@link org.protelis.lang.datatype.impl.DoubleFieldImpl}) can be
+ * combined slot by slot, with no hashing. Instances are immutable.
+ */
+public final class NeighborIndex implements Serializable {
+
+    private static final long serialVersionUID = -3285917392547750512L;
+    private static final int NO_ENTRY = -1;
+    private final DeviceUID[] devices;
+    private final transient Map<CodePath, Object>[] states;
+    private final TObjectIntMap<DeviceUID> slots;
+
+    private NeighborIndex(final DeviceUID[] devices, final Map<CodePath, Object>[] states,
+            final TObjectIntMap<DeviceUID> slots) {
+        this.devices = devices;
+        this.states = states;
+        this.slots = slots;
+    }
+
+    /**
+     * @param neighbors
+     *            the state of the neighbors, as received by the network
+     *            manager. It is not copied, and must not be modified
+     *            afterwards
+     * @param local
+     *            the local device
+     * @return a new index
+     */
+    @SuppressWarnings("unchecked")
+    public static NeighborIndex create(final Map<DeviceUID, Map<CodePath, Object>> neighbors, final DeviceUID local) {
+        final int size = neighbors.size() + 1;
+        final DeviceUID[] devices = new DeviceUID[size];
+        final Map<CodePath, Object>[] states = new Map[size];
+        final TObjectIntMap<DeviceUID> slots = new TObjectIntHashMap<>(size * 2, 0.5f, NO_ENTRY);
+        int i = 0;
+        for (final Map.Entry<DeviceUID, Map<CodePath, Object>> neighbor : neighbors.entrySet()) {
+            devices[i] = neighbor.getKey();
+            states[i] = neighbor.getValue();
+            slots.put(neighbor.getKey(), i++);
+        }
+        if (!slots.containsKey(local)) {
+            devices[i] = local;
+            slots.put(local, i++);
+        }
+        return new NeighborIndex(
+                i == size ? devices : Arrays.copyOf(devices, i),
+                i == size ? states : Arrays.copyOf(states, i),
+                slots);
+    }
+
+    /**
+     * @return the number of slots
+     */
+    public int size() {
+        return devices.length;
+    }
+
+    /**
+     * @param slot
+     *            the slot
+     * @return the device
+     */
+    public DeviceUID getDevice(final int slot) {
+        return devices[slot];
+    }
+
+    /**
+     * @param slot
+     *            the slot
+     * @return the state shared by the device, or null if it is the local
+     *         device, the device did not share any state, or this index was
+     *         deserialized
+     */
+    public Map<CodePath, Object> getState(final int slot) {
+        return states == null ? null : states[slot];
+    }
+
+    /**
+     * @param device
+     *            the device
+     * @return its slot, or -1 if the device is not in the neighborhood
+     */
+    public int slotOf(final DeviceUID device) {
+        return slots.get(device);
+    }
+
+}
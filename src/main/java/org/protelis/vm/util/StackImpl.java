@@ -8,99 +8,251 @@
  *******************************************************************************/
 package org.protelis.vm.util;
 
-import java.util.Deque;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.Objects;
 
 import org.protelis.lang.util.Reference;
+import org.protelis.lang.util.SlotTable;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 
 /**
- * Basic implementation of a {@link Stack}.
+ * Basic implementation of a {@link Stack}, with shallow binding. The visible
+ * value of each variable is stored in an array, indexed by the
+ * {@link Reference#getSlot() slot} of its reference, so reading and writing a
+ * variable takes constant time regardless of the depth of the stack. Binding
+ * a variable that was already visible from an outer scope saves the previous
+ * binding in a trail, which is restored when the scope is left: entering a
+ * scope is constant time, and leaving it is proportional to the number of
+ * variables it shadowed.
+ *
+ * The initial variables (usually, the function table) are a read-only base
+ * layer, consulted when no binding is visible: they are never copied, so
+ * building or {@link #reset(Map) resetting} a stack costs nothing for large
+ * libraries.
+ *
+ * Slots are assigned per program (see {@link SlotTable}): the arrays are
+ * indexed with the slot table of the first reference this stack meets, which
+ * is the one of the program it runs. References of other programs (e.g.
+ * evaluated with eval), or resolved by no program, are looked up: they get
+ * the slot of an equal reference of the table, if any, or one of their own
+ * past the end of the table. The arrays are hence as long as the variables
+ * of the program, plus the other variables used by this stack.
  */
 public class StackImpl implements Stack {
 
-    private final Deque<Map<Reference, Object>> stack = new LinkedList<>();
+    private static final int MIN_CAPACITY = 16;
+    private static final int NO_ENTRY = -1;
+    private Map<Reference, ?> base;
+    private boolean indexed;
+    private SlotTable table;
+    private int tableSize;
+    private final TObjectIntMap<Reference> others = new TObjectIntHashMap<>(MIN_CAPACITY, 0.5f, NO_ENTRY);
+    private Object[] values = new Object[MIN_CAPACITY];
+    private int[] boundAt = new int[MIN_CAPACITY];
+    private Reference[] names = new Reference[MIN_CAPACITY];
+    private int depth;
+    private int[] frames = new int[MIN_CAPACITY];
+    private int trailSize;
+    private int[] trailSlots = new int[MIN_CAPACITY];
+    private int[] trailDepths = new int[MIN_CAPACITY];
+    private Object[] trailValues = new Object[MIN_CAPACITY];
+    private int overriddenSize;
+    private int[] overridden = new int[MIN_CAPACITY];
 
     /**
      * @param gamma
-     *            Initial set of variables
+     *            Initial set of variables. It is not copied, and must not be
+     *            modified afterwards
      */
-    @SuppressWarnings("unchecked")
     public StackImpl(final Map<Reference, ?> gamma) {
-        stack.push((Map<Reference, Object>) gamma);
+        base = Objects.requireNonNull(gamma);
+    }
+
+    /**
+     * Drops all the scopes and variables, so that this stack can be reused.
+     * Takes time proportional to the number of variables bound since the
+     * last reset.
+     *
+     * @param gamma
+     *            the new initial set of variables. It is not copied, and must
+     *            not be modified afterwards
+     */
+    public void reset(final Map<Reference, ?> gamma) {
+        base = Objects.requireNonNull(gamma);
+        depth = 0;
+        unwind(0);
+        for (int i = 0; i < overriddenSize; i++) {
+            values[overridden[i]] = null;
+        }
+        overriddenSize = 0;
     }
 
     @Override
     public void push() {
-        stack.push(null);
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        frames[depth++] = trailSize;
     }
 
     @Override
     public void pop() {
-        stack.pop();
+        unwind(frames[--depth]);
+    }
+
+    private void unwind(final int mark) {
+        while (trailSize > mark) {
+            trailSize--;
+            final int slot = trailSlots[trailSize];
+            values[slot] = trailValues[trailSize];
+            boundAt[slot] = trailDepths[trailSize];
+            trailValues[trailSize] = null;
+        }
     }
 
     @Override
     public Object put(final Reference var, final Object val, final boolean canShadow) {
+        final int slot = slotOf(var);
+        ensureCapacity(slot);
+        final Object previous = values[slot];
         if (canShadow) {
             /*
              * Overrides the previous value only if it is at this depth in the
              * stack
-             * 
+             *
              * let c = 0; if(true) { let c = 1 } else { 1 } // c = 0
-             * 
+             *
              */
-            Map<Reference, Object> cur = stack.pop();
-            if (cur == null) {
-                cur = new LinkedHashMap<>();
+            if (previous == null || boundAt[slot] != depth) {
+                save(slot, previous);
+                boundAt[slot] = depth;
+                names[slot] = var;
+                values[slot] = val;
+                return null;
             }
-            final Object res = cur.put(var, val);
-            stack.push(cur);
-            return res;
+            values[slot] = val;
+            return previous;
         }
         /*
          * Overrides the previous value, regardless its position in the stack
          * e.g.
-         * 
+         *
          * let c = 0; if(true) { c = 1 } else { 1 } // c = 1
-         * 
+         *
          */
-        return stackOperation(varMap -> varMap.computeIfPresent(var, (k, v) -> val));
+        if (previous == null) {
+            if (val == null || !base.containsKey(var)) {
+                return null;
+            }
+            /*
+             * Assignment to a variable of the base layer: it is overridden
+             * in the outermost scope, which is never left
+             */
+            override(slot);
+            boundAt[slot] = 0;
+            names[slot] = var;
+            values[slot] = val;
+            return val;
+        }
+        values[slot] = val;
+        if (val == null) {
+            /*
+             * Same semantics of Map.computeIfPresent: the variable is removed
+             * from every scope
+             */
+            for (int i = 0; i < trailSize; i++) {
+                if (trailSlots[i] == slot) {
+                    trailValues[i] = null;
+                }
+            }
+        }
+        return val;
     }
 
-    private Object stackOperation(final Function<Map<Reference, Object>, Object> op) {
-        for (final Map<Reference, Object> varMap : stack) {
-            if (varMap != null) {
-                final Object res = op.apply(varMap);
-                if (res != null) {
-                    return res;
-                }
+    private void save(final int slot, final Object previous) {
+        if (trailSize == trailSlots.length) {
+            final int capacity = trailSize * 2;
+            trailSlots = Arrays.copyOf(trailSlots, capacity);
+            trailDepths = Arrays.copyOf(trailDepths, capacity);
+            trailValues = Arrays.copyOf(trailValues, capacity);
+        }
+        trailSlots[trailSize] = slot;
+        trailDepths[trailSize] = boundAt[slot];
+        trailValues[trailSize] = previous;
+        trailSize++;
+    }
+
+    private void override(final int slot) {
+        if (overriddenSize == overridden.length) {
+            overridden = Arrays.copyOf(overridden, overriddenSize * 2);
+        }
+        overridden[overriddenSize++] = slot;
+    }
+
+    private int slotOf(final Reference var) {
+        final SlotTable own = var.getSlotTable();
+        if (own != null && own == table) {
+            return var.getSlot();
+        }
+        if (!indexed) {
+            indexed = true;
+            table = own;
+            if (own != null) {
+                tableSize = own.size();
+                ensureCapacity(tableSize - 1);
+                return var.getSlot();
+            }
+        }
+        if (table != null) {
+            final int slot = table.getSlot(var);
+            if (slot != NO_ENTRY) {
+                return slot;
             }
         }
-        return null;
+        int slot = others.get(var);
+        if (slot == NO_ENTRY) {
+            slot = tableSize + others.size();
+            others.put(var, slot);
+        }
+        return slot;
+    }
+
+    private void ensureCapacity(final int slot) {
+        if (slot >= values.length) {
+            final int capacity = Math.max(slot + 1, values.length * 2);
+            values = Arrays.copyOf(values, capacity);
+            boundAt = Arrays.copyOf(boundAt, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
     }
 
     @Override
     public Object get(final Reference var) {
-        return stackOperation(varMap -> varMap.get(var));
+        final int slot = slotOf(var);
+        final Object value = slot < values.length ? values[slot] : null;
+        return value == null ? base.get(var) : value;
     }
 
     @Override
     public String toString() {
-        return stack.toString();
+        final Map<Reference, Object> visible = new LinkedHashMap<>(base);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                visible.put(names[i], values[i]);
+            }
+        }
+        return visible.toString();
     }
 
     @Override
     public void putAll(final Map<Reference, ?> map) {
-        Map<Reference, Object> cur = stack.pop();
-        if (cur == null) {
-            cur = new HashMap<>();
+        for (final Map.Entry<Reference, ?> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue(), true);
         }
-        cur.putAll(map);
-        stack.push(cur);
     }
 
 }
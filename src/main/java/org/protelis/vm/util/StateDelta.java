@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.vm.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Difference between two consecutive states shared by a device: the paths
+ * that were added or whose value changed, along with the new values, and
+ * the paths that were removed.
+ *
+ * Each shared state is numbered with a sequence number, and a delta records
+ * both the number of the state it patches (its base) and the number of the
+ * state it leads to. A delta can only be applied to its own base: receivers
+ * that missed a delta must wait for a full delta (see {@link #isFull()}),
+ * which patches nothing and carries the whole state.
+ */
+public final class StateDelta implements Serializable {
+
+    /**
+     * Base of full deltas.
+     */
+    public static final long NO_BASE = -1;
+    private static final long serialVersionUID = -1878413716298407734L;
+    private final long base;
+    private final long sequence;
+    private final Map<CodePath, Object> updated;
+    private final List<CodePath> removed;
+    private final transient Map<CodePath, Object> state;
+
+    /**
+     * @param base
+     *            the sequence number of the state this delta patches, or
+     *            {@link #NO_BASE} if this delta contains the whole state
+     * @param sequence
+     *            the sequence number of the state this delta leads to
+     * @param updated
+     *            the paths that were added or changed, with their new value
+     * @param removed
+     *            the paths that are no longer shared
+     * @throws IllegalArgumentException
+     *             if the sequence numbers are negative, or if a full delta
+     *             removes some path
+     */
+    public StateDelta(final long base, final long sequence,
+            final Map<CodePath, Object> updated, final List<CodePath> removed) {
+        this(base, sequence, updated, removed, null);
+    }
+
+    private StateDelta(final long base, final long sequence,
+            final Map<CodePath, Object> updated, final List<CodePath> removed,
+            final Map<CodePath, Object> state) {
+        if (base < NO_BASE || sequence < 0) {
+            throw new IllegalArgumentException("Invalid sequence numbers: base " + base + ", sequence " + sequence);
+        }
+        if (base == NO_BASE && !Objects.requireNonNull(removed).isEmpty()) {
+            throw new IllegalArgumentException("A full delta can not remove paths");
+        }
+        this.base = base;
+        this.sequence = sequence;
+        this.updated = Collections.unmodifiableMap(Objects.requireNonNull(updated));
+        this.removed = Collections.unmodifiableList(Objects.requireNonNull(removed));
+        this.state = state;
+    }
+
+    /**
+     * @param previous
+     *            the state shared in the previous round, or null if none
+     * @param base
+     *            the sequence number of the previous state. Ignored if there
+     *            is no previous state
+     * @param current
+     *            the state to share now
+     * @param sequence
+     *            the sequence number of the state to share now
+     * @return the difference between the two states, or a full delta if
+     *         there is no previous state
+     */
+    public static StateDelta between(final Map<CodePath, Object> previous, final long base,
+            final Map<CodePath, Object> current, final long sequence) {
+        final Map<CodePath, Object> updated = new HashMap<>();
+        final List<CodePath> removed = new ArrayList<>();
+        for (final Map.Entry<CodePath, Object> entry : current.entrySet()) {
+            final Object old = previous == null ? null : previous.get(entry.getKey());
+            if (old == null || !old.equals(entry.getValue())) {
+                updated.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (previous != null) {
+            for (final CodePath path : previous.keySet()) {
+                if (!current.containsKey(path)) {
+                    removed.add(path);
+                }
+            }
+        }
+        return new StateDelta(previous == null ? NO_BASE : base, sequence,
+                updated, removed, Collections.unmodifiableMap(current));
+    }
+
+    /**
+     * @param current
+     *            the state to share
+     * @param sequence
+     *            its sequence number
+     * @return a full delta, carrying the whole state
+     */
+    public static StateDelta full(final Map<CodePath, Object> current, final long sequence) {
+        return between(null, NO_BASE, current, sequence);
+    }
+
+    /**
+     * @return the sequence number of the state this delta patches, or
+     *         {@link #NO_BASE} if this delta is full
+     */
+    public long getBase() {
+        return base;
+    }
+
+    /**
+     * @return the sequence number of the state this delta leads to
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return true if this delta contains the whole state, and can hence be
+     *         applied regardless of the previous state
+     */
+    public boolean isFull() {
+        return base == NO_BASE;
+    }
+
+    /**
+     * @return the paths that were added or changed, with their new value
+     */
+    public Map<CodePath, Object> getUpdated() {
+        return updated;
+    }
+
+    /**
+     * @return the paths that are no longer shared
+     */
+    public List<CodePath> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return the whole state this delta leads to. Available only on the
+     *         sender side.
+     * @throws IllegalStateException
+     *             if this delta was not built by
+     *             {@link #between(Map, long, Map, long)}, e.g. it was
+     *             received from the network
+     */
+    public Map<CodePath, Object> getState() {
+        if (state == null) {
+            throw new IllegalStateException("The full state is only available where the delta was computed");
+        }
+        return state;
+    }
+
+    /**
+     * @return true if the state did not change
+     */
+    public boolean isEmpty() {
+        return updated.isEmpty() && removed.isEmpty();
+    }
+
+    /**
+     * @param previous
+     *            the last known state, or null if none
+     * @param previousSequence
+     *            the sequence number of the last known state. Ignored if
+     *            there is no previous state
+     * @return true if this delta can be applied to the previous state: it
+     *         is either full, or its base is the previous state
+     */
+    public boolean canApplyTo(final Map<CodePath, Object> previous, final long previousSequence) {
+        return isFull() || previous != null && previousSequence == base;
+    }
+
+    /**
+     * @param previous
+     *            the last known state, or null if none. It is not modified
+     * @param previousSequence
+     *            the sequence number of the last known state. Ignored if
+     *            there is no previous state
+     * @return a new map, containing the state obtained by patching the
+     *         previous one with this delta
+     * @throws IllegalStateException
+     *             if this delta can not be applied to the previous state
+     *             (see {@link #canApplyTo(Map, long)}): the receiver missed
+     *             some delta, and must wait for a full one
+     */
+    public Map<CodePath, Object> applyTo(final Map<CodePath, Object> previous, final long previousSequence) {
+        if (!canApplyTo(previous, previousSequence)) {
+            throw new IllegalStateException("Delta " + base + "->" + sequence + " can not be applied to "
+                    + (previous == null ? "a missing state" : "state " + previousSequence));
+        }
+        final Map<CodePath, Object> res = isFull() ? new HashMap<>() : new HashMap<>(previous);
+        for (final CodePath path : removed) {
+            res.remove(path);
+        }
+        res.putAll(updated);
+        return res;
+    }
+
+    @Override
+    public String toString() {
+        return "base=" + base + ", sequence=" + sequence + ", updated=" + updated + ", removed=" + removed;
+    }
+
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.lang.interpreter.impl.All;
+import org.protelis.lang.interpreter.impl.BinaryOp;
+import org.protelis.lang.interpreter.impl.Constant;
+import org.protelis.lang.interpreter.impl.CreateTuple;
+import org.protelis.lang.interpreter.impl.DotOperator;
+import org.protelis.lang.interpreter.impl.FunctionCall;
+import org.protelis.lang.interpreter.impl.HoodCall;
+import org.protelis.lang.interpreter.impl.If;
+import org.protelis.lang.interpreter.impl.NBRCall;
+import org.protelis.lang.interpreter.impl.UnaryOp;
+import org.protelis.lang.interpreter.impl.Variable;
+import org.protelis.lang.util.HoodOp;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.impl.DummyContext;
+
+/**
+ * Checks that walking the tree (entering and leaving stack frames, reading
+ * variables, applying operators, calling functions) does not allocate
+ * memory.
+ */
+public class TestAllocationFreeEval {
+
+    private static final int DEPTH = 8;
+    private static final int WARMUP = 20_000;
+    private static final int ROUNDS = 50_000;
+    /*
+     * Tolerance for the measurement itself
+     */
+    private static final long MAX_BYTES = 4096;
+    private static final Reference A = new Reference("a");
+    private static final Reference UNSET = new Reference("unset");
+    private static final FunctionDefinition NOT = not();
+
+    /*
+     * def not(a) { !a }
+     */
+    private static FunctionDefinition not() {
+        final FunctionDefinition not = new FunctionDefinition("not", Collections.singletonList(A));
+        not.setBody(new UnaryOp("!", new Variable(A)));
+        return not;
+    }
+
+    /*
+     * if (!unset && true) { { not(unset); not.apply(false); <recursion> } } else { false }
+     */
+    @SuppressWarnings("unchecked")
+    private static AnnotatedTree<?> tree(final int depth) {
+        if (depth == 0) {
+            return new UnaryOp("!", new Variable(UNSET));
+        }
+        final AnnotatedTree<?> condition = new BinaryOp("&&",
+                new UnaryOp("!", new Variable(UNSET)),
+                new Constant<>(true));
+        return new If<>((AnnotatedTree<Boolean>) condition,
+                new All(Arrays.asList(
+                        new FunctionCall(NOT, Collections.singletonList(new Variable(UNSET))),
+                        new DotOperator(DotOperator.APPLY, new Constant<>(NOT),
+                                Collections.singletonList(new Constant<>(false))),
+                        tree(depth - 1))),
+                new Constant<Object>(false));
+    }
+
+    /*
+     * { <tree>; [1, 2]; minHood PlusSelf(nbr(1)) }
+     */
+    private static AnnotatedTree<?> program(final int depth) {
+        return new All(Arrays.asList(
+                tree(depth),
+                new CreateTuple(new Constant<>(1d), new Constant<>(2d)),
+                new HoodCall(new NBRCall(new Constant<>(1d)), HoodOp.MIN, true)));
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean mxbean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(mxbean.isThreadAllocatedMemorySupported());
+        mxbean.setThreadAllocatedMemoryEnabled(true);
+        return mxbean;
+    }
+
+    private static long allocatedByRounds(final com.sun.management.ThreadMXBean mxbean,
+            final AnnotatedTree<?> program) {
+        final DummyContext ctx = new DummyContext();
+        for (int i = 0; i < WARMUP; i++) {
+            ctx.setup();
+            program.eval(ctx);
+            ctx.commit();
+        }
+        final long thread = Thread.currentThread().getId();
+        final long before = mxbean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ROUNDS; i++) {
+            ctx.setup();
+            program.eval(ctx);
+            ctx.commit();
+        }
+        return mxbean.getThreadAllocatedBytes(thread) - before;
+    }
+
+    /**
+     * Evaluating a tree with no lets, no fields and no neighbor interaction
+     * must not allocate.
+     */
+    @Test
+    public void testNoAllocation() {
+        final com.sun.management.ThreadMXBean mxbean = allocationCounter();
+        final AnnotatedTree<?> program = tree(DEPTH);
+        final DummyContext ctx = new DummyContext();
+        ctx.setup();
+        for (int i = 0; i < WARMUP; i++) {
+            program.eval(ctx);
+        }
+        assertEquals(true, program.getAnnotation());
+        final long thread = Thread.currentThread().getId();
+        final long before = mxbean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ROUNDS; i++) {
+            program.eval(ctx);
+        }
+        final long allocated = mxbean.getThreadAllocatedBytes(thread) - before;
+        assertTrue("Evaluation allocated " + allocated + " bytes", allocated < MAX_BYTES);
+    }
+
+    /**
+     * Whole rounds allocate the values (tuples, fields) and the state
+     * tables, but deeper trees must not allocate more.
+     */
+    @Test
+    public void testRounds() {
+        final com.sun.management.ThreadMXBean mxbean = allocationCounter();
+        final long shallow = allocatedByRounds(mxbean, program(1));
+        final long deep = allocatedByRounds(mxbean, program(DEPTH));
+        assertTrue("Deeper rounds allocated " + (deep - shallow) + " more bytes", deep - shallow < MAX_BYTES);
+    }
+
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.protelis.lang.interpreter.impl.DotOperator;
+import org.protelis.lang.interpreter.impl.HoodCall;
+import org.protelis.lang.interpreter.impl.NBRCall;
+import org.protelis.lang.interpreter.impl.RepCall;
+import org.protelis.lang.interpreter.impl.Self;
+import org.protelis.lang.interpreter.impl.Variable;
+import org.protelis.lang.util.HoodOp;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.impl.BatchedNetworkExecutor;
+import org.protelis.vm.impl.DummyContext;
+import org.protelis.vm.impl.SharedProgram;
+
+/**
+ * Runs a gossip of the maximum identifier on a line of devices.
+ */
+public class TestBatchedNetworkExecutor {
+
+    private static final int DEVICES = 10;
+    private static final int MAX = DEVICES - 1;
+    private static final Reference V = new Reference("v");
+    private BatchedNetworkExecutor executor;
+
+    /**
+     * Builds the network.
+     */
+    @Before
+    public void setUp() {
+        /*
+         * rep (v <- self.getCurrentTime()) { maxHood PlusSelf(nbr(v)) }
+         */
+        final SharedProgram program = new SharedProgram("test:gossip",
+                new RepCall<>(V,
+                        new DotOperator("getCurrentTime", new Self(), Collections.emptyList()),
+                        new HoodCall(new NBRCall(new Variable(V)), HoodOp.MAX, true)),
+                Collections.emptyMap());
+        final int[][] line = new int[DEVICES][];
+        for (int i = 0; i < DEVICES; i++) {
+            if (i == 0) {
+                line[i] = new int[] { 1 };
+            } else if (i == MAX) {
+                line[i] = new int[] { MAX - 1 };
+            } else {
+                line[i] = new int[] { i - 1, i + 1 };
+            }
+        }
+        executor = new BatchedNetworkExecutor(line, i -> program.newInstance(),
+                (i, network) -> new DummyContext(network, i), 4);
+    }
+
+    /**
+     * Stops the workers.
+     */
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * In bulk synchronous rounds, information travels one hop every two
+     * rounds, as nbr shares the value rep had in the previous round.
+     */
+    @Test
+    public void testSynchronous() {
+        for (int round = 1; round <= 2 * DEVICES; round++) {
+            executor.runSynchronous(1);
+            for (int i = 0; i < DEVICES; i++) {
+                assertEquals((double) Math.min(i + round / 2, MAX), executor.getCurrentValue(i));
+            }
+        }
+        assertTrue(executor.getRoundsPerSecond() > 0);
+        assertTrue(executor.getLatencyPercentile(0.99) >= executor.getLatencyPercentile(0.5));
+        executor.resetStatistics();
+        assertEquals(0, executor.getRoundsPerSecond(), 0);
+    }
+
+    /**
+     * Asynchronous rounds never make values decrease nor exceed the maximum,
+     * and the network settles once rounds are synchronized.
+     */
+    @Test
+    public void testAsynchronous() {
+        executor.runAsynchronous(3);
+        for (int i = 0; i < DEVICES; i++) {
+            final double value = (Double) executor.getCurrentValue(i);
+            assertTrue(value >= i && value <= MAX);
+        }
+        executor.runSynchronous(2 * DEVICES);
+        for (int i = 0; i < DEVICES; i++) {
+            assertEquals((double) MAX, executor.getCurrentValue(i));
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+import org.protelis.lang.datatype.DeviceUID;
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.datatype.Tuple;
+import org.protelis.lang.interpreter.impl.Variable;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.StateCodec;
+import org.protelis.vm.impl.BinaryStateCodec;
+import org.protelis.vm.util.CodePath;
+
+import gnu.trove.list.array.TByteArrayList;
+
+/**
+ * Checks that {@link BinaryStateCodec} restores the encoded state.
+ */
+public class TestBinaryStateCodec {
+
+    private static final FunctionDefinition FUN = new FunctionDefinition("fun", Collections.emptyList());
+
+    private static CodePath path(final Random rnd, final int size) {
+        final byte[] markers = new byte[size];
+        rnd.nextBytes(markers);
+        return new CodePath(new TByteArrayList(markers));
+    }
+
+    private static Map<CodePath, Object> state() {
+        final Random rnd = new Random(0);
+        final Map<CodePath, Object> state = new LinkedHashMap<>();
+        final Object[] values = {
+            1.5, -0d, Double.NaN, true, false, 0, Integer.MIN_VALUE, Long.MAX_VALUE, -1L, "", "nbr ∀",
+            Tuple.create(1d, "a", Tuple.create(), Tuple.create(false, null)),
+            new IntUID(-42), FUN, new ArrayList<>(Arrays.asList(1, 2)),
+        };
+        for (int i = 0; i < values.length; i++) {
+            state.put(path(rnd, i * 3), values[i]);
+        }
+        return state;
+    }
+
+    private static BinaryStateCodec codec() {
+        return new BinaryStateCodec(name -> name.equals(FUN.getName().toString()) ? FUN : null)
+                .register(0, IntUID.class, BinaryStateCodec.longDeviceUID(uid -> uid.id, l -> new IntUID((int) l)));
+    }
+
+    /**
+     * Decoding must produce a map equal to the encoded one.
+     */
+    @Test
+    public void testRoundTrip() {
+        final Map<CodePath, Object> state = state();
+        final StateCodec codec = codec();
+        final ByteBuffer encoded = codec.encode(state);
+        final Map<CodePath, Object> decoded = codec.decode(encoded);
+        assertFalse(encoded.hasRemaining());
+        assertEquals(state, decoded);
+        assertSame(FUN, decoded.get(state.keySet().toArray()[state.size() - 2]));
+    }
+
+    /**
+     * Functions the resolver does not know, such as lambdas, must be
+     * serialized.
+     */
+    @Test
+    public void testLambda() {
+        final FunctionDefinition lambda = new FunctionDefinition("λ" + 42,
+                Collections.singletonList(new Reference("x")));
+        lambda.setBody(new Variable(new Reference("x")));
+        final CodePath path = path(new Random(0), 3);
+        final StateCodec codec = codec();
+        final Map<CodePath, Object> decoded = codec.decode(codec.encode(Collections.singletonMap(path, lambda)));
+        final FunctionDefinition result = (FunctionDefinition) decoded.get(path);
+        assertEquals(lambda, result);
+        assertEquals(1, result.getArgNumber());
+        assertTrue(result.getBody() instanceof Variable);
+    }
+
+    /**
+     * The encoding must be more compact than Java serialization.
+     */
+    @Test
+    public void testSize() {
+        final Map<CodePath, Object> state = new LinkedHashMap<>(state());
+        final int binary = codec().encode(state).remaining();
+        final int java = SerializationUtils.serialize((Serializable) state).length;
+        assertTrue(binary + " bytes vs " + java, binary * 2 < java);
+    }
+
+    /**
+     * Encoding in a buffer too small must fail.
+     */
+    @Test(expected = BufferOverflowException.class)
+    public void testOverflow() {
+        codec().encode(state(), ByteBuffer.allocate(16));
+    }
+
+    /**
+     * Identifiers can not be bound twice.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testDuplicateRegistration() {
+        codec().register(0, IntUID.class, BinaryStateCodec.longDeviceUID(uid -> uid.id, l -> new IntUID((int) l)));
+    }
+
+    private static final class IntUID implements DeviceUID {
+        private static final long serialVersionUID = 1L;
+        private final int id;
+
+        private IntUID(final int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof IntUID && ((IntUID) obj).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.lang.interpreter.impl.All;
+import org.protelis.lang.interpreter.impl.BinaryOp;
+import org.protelis.lang.interpreter.impl.BytecodeCompiler;
+import org.protelis.lang.interpreter.impl.Constant;
+import org.protelis.lang.interpreter.impl.HoodCall;
+import org.protelis.lang.interpreter.impl.If;
+import org.protelis.lang.interpreter.impl.NBRCall;
+import org.protelis.lang.interpreter.impl.TernaryOp;
+import org.protelis.lang.interpreter.impl.UnaryOp;
+import org.protelis.lang.interpreter.impl.Variable;
+import org.protelis.lang.util.HoodOp;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.impl.DummyContext;
+
+/**
+ * Checks that compiled expressions evaluate like the interpreter, and leave
+ * the exported state untouched.
+ */
+public class TestBytecodeCompiler {
+
+    private static final Reference X = new Reference("x");
+    private static final Reference Y = new Reference("y");
+    private static final Reference UNSET = new Reference("unset");
+
+    /*
+     * mux (x > 1) { -x + 2 * y } else { x ^ 2 }
+     */
+    private static AnnotatedTree<?> expression() {
+        return new TernaryOp("mux",
+                new BinaryOp(">", new Variable(X), new Constant<>(1d)),
+                new BinaryOp("+",
+                        new UnaryOp("-", new Variable(X)),
+                        new BinaryOp("*", new Constant<>(2d), new Variable(Y))),
+                new BinaryOp("^", new Variable(X), new Constant<>(2d)));
+    }
+
+    /*
+     * { expression; nbr(x * 2); if (!unset) { minHood PlusSelf(nbr(expression)) } else { 0 } }
+     */
+    @SuppressWarnings("unchecked")
+    private static AnnotatedTree<?> program() {
+        final AnnotatedTree<?> condition = new UnaryOp("!", new Variable(UNSET));
+        return new All(Arrays.asList(
+                expression(),
+                new NBRCall(new BinaryOp("*", new Variable(X), new Constant<>(2d))),
+                new If<>((AnnotatedTree<Boolean>) condition,
+                        new HoodCall(new NBRCall(expression()), HoodOp.MIN, true),
+                        new Constant<Object>(0d))));
+    }
+
+    private static Map<Reference, Double> variables(final double x, final double y) {
+        return ImmutableMap.of(X, x, Y, y);
+    }
+
+    /**
+     * Compiled and interpreted expressions must produce the same values.
+     */
+    @Test
+    public void testSameValues() {
+        final AnnotatedTree<?> interpreted = expression();
+        final AnnotatedTree<?> compiled = BytecodeCompiler.compile(expression());
+        final AnnotatedTree<?> copy = compiled.copy();
+        final AnnotatedTree<?> deserialized = SerializationUtils.clone(compiled);
+        final DummyContext ctx = new DummyContext();
+        for (double x = -3; x <= 3; x += 0.5) {
+            final Object expected = ctx.run(interpreted, variables(x, x + 1));
+            assertNotNull(expected);
+            assertEquals(expected, ctx.run(compiled, variables(x, x + 1)));
+            assertEquals(expected, ctx.run(copy, variables(x, x + 1)));
+            assertEquals(expected, ctx.run(deserialized, variables(x, x + 1)));
+        }
+    }
+
+    /**
+     * Compilation must not change the exported code paths.
+     */
+    @Test
+    public void testSameAlignment() {
+        final List<Map<Reference, Double>> rounds = new ArrayList<>();
+        for (double x = 0; x < 3; x++) {
+            rounds.add(variables(x, 1));
+        }
+        TreeEquivalence.assertSameAlignment(program(), BytecodeCompiler.compile(program()), rounds);
+    }
+
+}
@@ -1,14 +1,20 @@
 package org.protelis.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import java.util.Arrays;
 import java.util.Random;
 import java.util.stream.IntStream;
 
 import org.junit.Test;
+import org.protelis.vm.util.CallStack;
 import org.protelis.vm.util.CodePath;
+import org.protelis.vm.util.CodePathInterner;
 
+import gnu.trove.list.TByteList;
 import gnu.trove.list.array.TByteArrayList;
 
 /**
@@ -52,4 +58,76 @@ public class TestCodePath {
         });
     }
 
+    /**
+     * The paths built incrementally by {@link CallStack} must be identical to
+     * the ones built by scanning the whole stack.
+     */
+    @Test
+    public void testCallStack() {
+        final Random rnd = new Random(0);
+        final CallStack incremental = new CallStack();
+        final TByteList reference = new TByteArrayList();
+        for (int i = 0; i < 20_000; i++) {
+            if (reference.isEmpty() || rnd.nextInt(5) < 3) {
+                final byte b = (byte) rnd.nextInt();
+                incremental.push(b);
+                reference.add(b);
+            } else {
+                final int count = rnd.nextInt(Math.min(reference.size(), 10) + 1);
+                incremental.pop(count);
+                reference.remove(reference.size() - count, count);
+            }
+            final CodePath expected = new CodePath(reference);
+            final CodePath actual = incremental.toCodePath();
+            assertEquals(reference.size(), incremental.size());
+            assertEquals(expected.hashCode(), actual.hashCode());
+            assertEquals(expected, actual);
+            assertEquals(actual, expected);
+            assertEquals(expected.toString(), actual.toString());
+            assertArrayEquals(expected.asLongArray(), actual.asLongArray());
+            assertSame(actual, incremental.toCodePath());
+        }
+        incremental.clear();
+        assertEquals(new CodePath(new TByteArrayList()), incremental.toCodePath());
+    }
+
+    /**
+     * Equal paths must be interned to the same instance, until they get
+     * evicted for not being used.
+     */
+    @Test
+    public void testInterner() {
+        final int maxAge = 4;
+        final CodePathInterner interner = new CodePathInterner(maxAge);
+        final CallStack stack = new CallStack();
+        final CodePath[] first = new CodePath[100];
+        for (int i = 0; i < first.length; i++) {
+            stack.push((byte) i);
+            first[i] = interner.intern(stack);
+        }
+        assertEquals(first.length, interner.size());
+        for (int epoch = 0; epoch < maxAge * 3; epoch++) {
+            interner.newEpoch();
+            stack.clear();
+            for (int i = 0; i < first.length / 2; i++) {
+                stack.push((byte) i);
+                assertSame(first[i], interner.intern(stack));
+                assertSame(first[i], interner.intern(new CodePath(new TByteArrayList(toBytes(stack)))));
+            }
+        }
+        assertEquals(first.length / 2, interner.size());
+        stack.push((byte) (first.length / 2));
+        final CodePath evicted = interner.intern(stack);
+        assertEquals(first[first.length / 2], evicted);
+        assertNotSame(first[first.length / 2], evicted);
+    }
+
+    private static byte[] toBytes(final CallStack stack) {
+        final byte[] res = new byte[stack.size()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = stack.get(i);
+        }
+        return res;
+    }
+
 }
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.protelis.lang.datatype.DeviceUID;
+import org.protelis.vm.impl.ConcurrentNetworkManager;
+import org.protelis.vm.util.CodePath;
+import org.protelis.vm.util.StateDelta;
+
+import gnu.trove.list.array.TByteArrayList;
+
+/**
+ * Checks snapshots, deltas and expiry of {@link ConcurrentNetworkManager}.
+ */
+public class TestConcurrentNetworkManager {
+
+    private static final CodePath PATH = new CodePath(new TByteArrayList(new byte[] { 1, 2 }));
+    private static final int THREADS = 4;
+    private static final int MESSAGES = 10_000;
+
+    /**
+     * Snapshots are not affected by later messages, and are not copied when
+     * nothing changes.
+     */
+    @Test
+    public void testSnapshot() {
+        final ManualNetwork network = new ManualNetwork(Long.MAX_VALUE);
+        final DeviceUID a = uid();
+        final Map<DeviceUID, Map<CodePath, Object>> empty = network.getNeighborState();
+        network.receive(a, 1);
+        final Map<DeviceUID, Map<CodePath, Object>> first = network.getNeighborState();
+        assertTrue(empty.isEmpty());
+        assertSame(first, network.getNeighborState());
+        network.receive(a, 2);
+        assertEquals(1, first.get(a).get(PATH));
+        assertEquals(2, network.getNeighborState().get(a).get(PATH));
+        network.forget(a);
+        assertTrue(network.getNeighborState().isEmpty());
+    }
+
+    /**
+     * Deltas patch the last known state.
+     */
+    @Test
+    public void testDelta() {
+        final ManualNetwork network = new ManualNetwork(Long.MAX_VALUE);
+        final DeviceUID a = uid();
+        network.receive(a, 1, 0);
+        assertTrue(network.patch(a, new StateDelta(0, 1, Collections.emptyMap(), Collections.singletonList(PATH))));
+        assertTrue(network.getNeighborState().get(a).isEmpty());
+        assertTrue(network.patch(a, new StateDelta(1, 2, Collections.singletonMap(PATH, 3), Collections.emptyList())));
+        assertEquals(3, network.getNeighborState().get(a).get(PATH));
+    }
+
+    /**
+     * Deltas with no known base are dropped until a full state arrives.
+     */
+    @Test
+    public void testDeltaWithoutBase() {
+        final ManualNetwork network = new ManualNetwork(Long.MAX_VALUE);
+        final DeviceUID a = uid();
+        final StateDelta next = new StateDelta(4, 5, Collections.singletonMap(PATH, 5), Collections.emptyList());
+        assertFalse(network.patch(a, next));
+        assertNull(network.getNeighborState().get(a));
+        network.receive(a, 1);
+        assertFalse(network.patch(a, next));
+        network.receive(a, 3, 3);
+        assertFalse(network.patch(a, next));
+        assertEquals(3, network.getNeighborState().get(a).get(PATH));
+        assertTrue(network.patch(a, StateDelta.full(Collections.singletonMap(PATH, 4), 4)));
+        assertTrue(network.patch(a, next));
+        assertEquals(5, network.getNeighborState().get(a).get(PATH));
+    }
+
+    /**
+     * Neighbors are dropped once silent for the retention time.
+     */
+    @Test
+    public void testExpiry() {
+        final ManualNetwork network = new ManualNetwork(10);
+        final DeviceUID a = uid();
+        final DeviceUID b = uid();
+        network.receive(a, 1);
+        network.time = 5;
+        network.receive(b, 1);
+        network.time = 9;
+        assertEquals(2, network.getNeighborState().size());
+        network.time = 10;
+        assertFalse(network.getNeighborState().containsKey(a));
+        assertTrue(network.getNeighborState().containsKey(b));
+        network.receive(a, 2);
+        network.time = 15;
+        assertEquals(Collections.singleton(a), network.getNeighborState().keySet());
+        network.time = 20;
+        assertTrue(network.getNeighborState().isEmpty());
+    }
+
+    /**
+     * Concurrent receivers must not lose updates.
+     *
+     * @throws InterruptedException
+     *             if interrupted while joining
+     */
+    @Test
+    public void testConcurrentReceivers() throws InterruptedException {
+        final ManualNetwork network = new ManualNetwork(Long.MAX_VALUE);
+        final List<Thread> receivers = new ArrayList<>(THREADS);
+        final DeviceUID[] uids = new DeviceUID[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final DeviceUID uid = uid();
+            uids[t] = uid;
+            receivers.add(new Thread(() -> {
+                for (int i = 1; i <= MESSAGES; i++) {
+                    network.receive(uid, i);
+                }
+            }));
+        }
+        receivers.forEach(Thread::start);
+        while (receivers.stream().anyMatch(Thread::isAlive)) {
+            final Map<DeviceUID, Map<CodePath, Object>> snapshot = network.getNeighborState();
+            final int size = snapshot.size();
+            int seen = 0;
+            for (final Map.Entry<DeviceUID, Map<CodePath, Object>> entry : snapshot.entrySet()) {
+                assertSame(entry.getValue(), snapshot.get(entry.getKey()));
+                seen++;
+            }
+            assertEquals(size, seen);
+        }
+        for (final Thread receiver : receivers) {
+            receiver.join();
+        }
+        for (final DeviceUID uid : uids) {
+            assertEquals(MESSAGES, network.getNeighborState().get(uid).get(PATH));
+        }
+    }
+
+    private static DeviceUID uid() {
+        return new DeviceUID() {
+            private static final long serialVersionUID = 1L;
+        };
+    }
+
+    private static final class ManualNetwork extends ConcurrentNetworkManager {
+        private volatile long time;
+
+        private ManualNetwork(final long retention) {
+            super(retention, TimeUnit.NANOSECONDS);
+        }
+
+        private void receive(final DeviceUID neighbor, final int value) {
+            receive(neighbor, Collections.singletonMap(PATH, value));
+        }
+
+        private void receive(final DeviceUID neighbor, final int value, final long sequence) {
+            receive(neighbor, Collections.singletonMap(PATH, value), sequence);
+        }
+
+        private boolean patch(final DeviceUID neighbor, final StateDelta delta) {
+            return receiveDelta(neighbor, delta);
+        }
+
+        private void forget(final DeviceUID neighbor) {
+            remove(neighbor);
+        }
+
+        @Override
+        public void shareState(final Map<CodePath, Object> toSend) {
+        }
+
+        @Override
+        protected long currentTime() {
+            return time;
+        }
+    }
+
+}
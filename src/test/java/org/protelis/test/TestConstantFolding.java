@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.protelis.lang.datatype.Tuple;
+import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.lang.interpreter.impl.All;
+import org.protelis.lang.interpreter.impl.BinaryOp;
+import org.protelis.lang.interpreter.impl.Constant;
+import org.protelis.lang.interpreter.impl.ConstantFolding;
+import org.protelis.lang.interpreter.impl.CreateTuple;
+import org.protelis.lang.interpreter.impl.CreateVar;
+import org.protelis.lang.interpreter.impl.HoodCall;
+import org.protelis.lang.interpreter.impl.If;
+import org.protelis.lang.interpreter.impl.NBRCall;
+import org.protelis.lang.interpreter.impl.RepCall;
+import org.protelis.lang.interpreter.impl.TernaryOp;
+import org.protelis.lang.interpreter.impl.UnaryOp;
+import org.protelis.lang.interpreter.impl.Variable;
+import org.protelis.lang.util.HoodOp;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.impl.DummyContext;
+
+/**
+ * Checks that {@link ConstantFolding} simplifies constant expressions, and
+ * leaves values and exported state untouched.
+ */
+public class TestConstantFolding {
+
+    private static final Reference A = new Reference("a");
+    private static final Reference R = new Reference("r");
+    private static final Reference UNSET = new Reference("unset");
+
+    /**
+     * Operators, tuples and ifs over constants become constants.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFolding() {
+        final DummyContext ctx = new DummyContext();
+        final AnnotatedTree<?> product = ConstantFolding.fold(
+                new BinaryOp("*", new Constant<>(Math.PI), new UnaryOp("-", new Constant<>(2d))));
+        assertTrue(product instanceof Constant);
+        assertEquals(-2 * Math.PI, ctx.run(product));
+        final AnnotatedTree<?> tuple = ConstantFolding.fold(new CreateTuple(
+                new Constant<>(1d),
+                new BinaryOp("+", new Constant<>(2d), new Constant<>(3d)),
+                new Constant<>("a")));
+        assertTrue(tuple instanceof Constant);
+        assertEquals(Tuple.create(new Object[] { 1d, 5d, "a" }), ctx.run(tuple));
+        final AnnotatedTree<?> selected = ConstantFolding.fold(new If<>(
+                (AnnotatedTree<Boolean>) (AnnotatedTree<?>) new BinaryOp("<", new Constant<>(1d), new Constant<>(2d)),
+                new TernaryOp("mux", new Constant<>(false), new Constant<>(1d), new Constant<>(3d)),
+                new Variable(UNSET)));
+        assertTrue(selected instanceof Constant);
+        assertEquals(3d, ctx.run(selected));
+        /*
+         * Failures are left to runtime
+         */
+        assertFalse(ConstantFolding.fold(new BinaryOp("-", new Constant<>("a"), new Constant<>(1d)))
+                instanceof Constant);
+    }
+
+    /**
+     * Folding must work on trees built on immutable lists, and leave the
+     * lists of the caller untouched.
+     */
+    @Test
+    public void testCallerListsUntouched() {
+        final DummyContext ctx = new DummyContext();
+        final List<AnnotatedTree<?>> statements = Collections.singletonList(
+                new BinaryOp("+", new Constant<>(1d), new Constant<>(2d)));
+        final AnnotatedTree<?> block = ConstantFolding.fold(new All(statements));
+        assertTrue(block.getBranch(0) instanceof Constant);
+        assertTrue(statements.get(0) instanceof BinaryOp);
+        assertEquals(3d, ctx.run(block));
+        final List<AnnotatedTree<?>> shared = new ArrayList<>(Arrays.asList(
+                new Variable(UNSET), new UnaryOp("-", new Constant<>(1d))));
+        final AnnotatedTree<?> first = new CreateTuple(shared);
+        final AnnotatedTree<?> second = new All(shared);
+        assertTrue(ConstantFolding.fold(first).getBranch(1) instanceof Constant);
+        assertTrue(shared.get(1) instanceof UnaryOp);
+        assertTrue(second.getBranch(1) instanceof UnaryOp);
+        assertTrue(ConstantFolding.fold(new CreateTuple(Collections.emptyList())) instanceof Constant);
+    }
+
+    /*
+     * { let a = 1 + 2;
+     * if (!false) { rep (r <- 0) { r + minHood PlusSelf(nbr(a * 2)) } } else { nbr(3) };
+     * mux (1 < 2) { nbr(a) } else { nbr([1, 2]) };
+     * [a, 2 * 2] }
+     */
+    @SuppressWarnings("unchecked")
+    private static AnnotatedTree<?> program() {
+        return new All(Arrays.asList(
+                new CreateVar(A, new BinaryOp("+", new Constant<>(1d), new Constant<>(2d)), true),
+                new If<>((AnnotatedTree<Boolean>) (AnnotatedTree<?>) new UnaryOp("!", new Constant<>(false)),
+                        new RepCall<>(R, new Constant<>(0d), new BinaryOp("+",
+                                new Variable(R),
+                                new HoodCall(new NBRCall(new BinaryOp("*", new Variable(A), new Constant<>(2d))),
+                                        HoodOp.MIN, true))),
+                        new NBRCall(new Constant<>(3d))),
+                new TernaryOp("mux",
+                        new BinaryOp("<", new Constant<>(1d), new Constant<>(2d)),
+                        new NBRCall(new Variable(A)),
+                        new NBRCall(new CreateTuple(new Constant<>(1d), new Constant<>(2d)))),
+                new CreateTuple(new Variable(A), new BinaryOp("*", new Constant<>(2d), new Constant<>(2d)))));
+    }
+
+    /**
+     * Folding must not change values and exported code paths.
+     */
+    @Test
+    public void testSameAlignment() {
+        final AnnotatedTree<?> folded = ConstantFolding.fold(program());
+        assertTrue(folded.getBranch(0).getBranch(0) instanceof Constant);
+        TreeEquivalence.assertSameAlignment(program(), folded, Collections.nCopies(3, Collections.emptyMap()));
+    }
+
+}
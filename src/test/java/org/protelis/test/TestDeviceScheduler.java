@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.danilopianini.lang.util.FasterString;
+import org.junit.Test;
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.ExecutionContext;
+import org.protelis.vm.ProtelisProgram;
+import org.protelis.vm.ProtelisVM;
+import org.protelis.vm.impl.DeviceScheduler;
+import org.protelis.vm.impl.DummyContext;
+
+/**
+ * Checks periodic scheduling, backpressure and failures of
+ * {@link DeviceScheduler}.
+ */
+public class TestDeviceScheduler {
+
+    private static final int DEVICES = 50;
+    private static final int ROUNDS = 5;
+    private static final long PERIOD = 2;
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Devices driven by a pool.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public void testPool() throws InterruptedException {
+        runDevices(new DeviceScheduler(2));
+    }
+
+    /**
+     * Devices driven by a thread each.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public void testThreadPerDevice() throws InterruptedException {
+        final DeviceScheduler scheduler = new DeviceScheduler(DeviceScheduler.virtualThreadFactory().orElse(r -> {
+            final Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        }));
+        assertTrue(scheduler.isThreadPerDevice());
+        runDevices(scheduler);
+    }
+
+    private static void runDevices(final DeviceScheduler scheduler) throws InterruptedException {
+        final List<DeviceScheduler.Device> devices = new ArrayList<>(DEVICES);
+        for (int i = 0; i < DEVICES; i++) {
+            devices.add(scheduler.schedule(vm(new Counter(0)), PERIOD, PERIOD / 2, TimeUnit.MILLISECONDS));
+        }
+        for (final DeviceScheduler.Device device : devices) {
+            awaitRounds(device, ROUNDS);
+        }
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(TIMEOUT, TimeUnit.NANOSECONDS));
+        long total = 0;
+        for (final DeviceScheduler.Device device : devices) {
+            assertTrue(device.isDone());
+            assertFalse(device.getFailure().isPresent());
+            assertEquals(device.getCompletedRounds(), ((Number) device.getVM().getCurrentValue()).longValue());
+            total += device.getCompletedRounds();
+        }
+        assertEquals(total, scheduler.getCompletedRounds());
+        assertTrue(scheduler.getRoundDurationPercentile(0.99) >= scheduler.getRoundDurationPercentile(0.5));
+    }
+
+    /**
+     * Overrunning rounds must not pile up: deadlines are skipped and counted.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public void testOverrun() throws InterruptedException {
+        final DeviceScheduler scheduler = new DeviceScheduler(1);
+        final DeviceScheduler.Device device = scheduler.schedule(vm(new Counter(3 * PERIOD)), PERIOD, 0,
+                TimeUnit.MILLISECONDS);
+        awaitRounds(device, ROUNDS);
+        device.cancel();
+        final long rounds = device.getCompletedRounds();
+        assertTrue(device.getMissedDeadlines() >= rounds - 1);
+        assertEquals(device.getMissedDeadlines(), scheduler.getMissedDeadlines());
+        Thread.sleep(10 * PERIOD);
+        assertTrue(device.getCompletedRounds() <= rounds + 1);
+        scheduler.shutdown();
+    }
+
+    /**
+     * A failing device is stopped, the others keep running.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public void testFailure() throws InterruptedException {
+        final DeviceScheduler scheduler = new DeviceScheduler(1);
+        final DeviceScheduler.Device failing = scheduler.schedule(vm(new Counter(-1)), PERIOD, 0,
+                TimeUnit.MILLISECONDS);
+        final DeviceScheduler.Device working = scheduler.schedule(vm(new Counter(0)), PERIOD, 0,
+                TimeUnit.MILLISECONDS);
+        awaitRounds(working, ROUNDS);
+        assertTrue(failing.isDone());
+        assertTrue(failing.getFailure().get() instanceof IllegalStateException);
+        assertEquals(0, failing.getCompletedRounds());
+        scheduler.shutdown();
+    }
+
+    /**
+     * The jitter must be smaller than the period.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testJitterTooLarge() {
+        new DeviceScheduler(1).schedule(vm(new Counter(0)), PERIOD, PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    private static void awaitRounds(final DeviceScheduler.Device device, final long rounds)
+            throws InterruptedException {
+        final long start = System.nanoTime();
+        while (device.getCompletedRounds() < rounds) {
+            assertTrue("Timed out", System.nanoTime() - start < TIMEOUT);
+            Thread.sleep(PERIOD);
+        }
+    }
+
+    private static ProtelisVM vm(final ProtelisProgram program) {
+        return new ProtelisVM(program, new DummyContext());
+    }
+
+    /**
+     * Counts its rounds, each taking the given time in milliseconds. A
+     * negative time makes rounds fail.
+     */
+    private static final class Counter implements ProtelisProgram {
+        private static final long serialVersionUID = 1L;
+        private static final FasterString NAME = new FasterString("test:counter");
+        private final long duration;
+        private long count;
+
+        private Counter(final long duration) {
+            this.duration = duration;
+        }
+
+        @Override
+        public Object getCurrentValue() {
+            return count;
+        }
+
+        @Override
+        public void compute(final ExecutionContext context) {
+            if (duration < 0) {
+                throw new IllegalStateException("Failing on purpose");
+            }
+            if (duration > 0) {
+                try {
+                    Thread.sleep(duration);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            count++;
+        }
+
+        @Override
+        public Map<Reference, FunctionDefinition> getNamedFunctions() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public FasterString getName() {
+            return NAME;
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.protelis.lang.datatype.DeviceUID;
+import org.protelis.lang.datatype.Field;
+import org.protelis.lang.datatype.impl.DoubleFieldImpl;
+import org.protelis.lang.datatype.impl.FieldMapImpl;
+import org.protelis.lang.util.HoodOp;
+import org.protelis.lang.util.Op1;
+import org.protelis.lang.util.Op2;
+import org.protelis.vm.util.CodePath;
+import org.protelis.vm.util.NeighborIndex;
+
+/**
+ * Checks that {@link DoubleFieldImpl} behaves like {@link FieldMapImpl}, with
+ * and without a {@link NeighborIndex}.
+ */
+public class TestDoubleField {
+
+    private static final int SIZE = 50;
+
+    private static Field fill(final Field f, final long seed, final int size) {
+        final Random rnd = new Random(seed);
+        for (int i = 0; i < size; i++) {
+            f.addSample(new UID(i), (double) rnd.nextInt(10) - 5);
+        }
+        return f;
+    }
+
+    private static Field reference(final long seed, final int size) {
+        return fill(new FieldMapImpl(size, 1f), seed, size);
+    }
+
+    private static Field primitive(final long seed, final int size) {
+        return fill(Field.create(size), seed, size);
+    }
+
+    /**
+     * Operators and reductions must give the same results, with any
+     * neighborhood size.
+     */
+    @Test
+    public void testSameResults() {
+        for (final int size : new int[] { 0, 1, 5, SIZE }) {
+            final Field ref1 = reference(0, size);
+            final Field ref2 = reference(1, size);
+            final Field prim1 = primitive(0, size);
+            final Field prim2 = primitive(1, size);
+            assertTrue(((DoubleFieldImpl) prim1).isPrimitive());
+            assertEquals(ref1, prim1);
+            for (final Op2 op : new Op2[] { Op2.PLUS, Op2.MINUS, Op2.TIMES, Op2.DIVIDE, Op2.POWER, Op2.MODULUS,
+                    Op2.MIN, Op2.MAX, Op2.SMALLER, Op2.EQUALS }) {
+                assertEquals(op.toString(), op.run(ref1, ref2), op.run(prim1, prim2));
+                assertEquals(op.toString(), op.run(ref1, 2d), op.run(prim1, 2d));
+                assertEquals(op.toString(), op.run(3d, ref2), op.run(3d, prim2));
+            }
+            assertEquals(Op1.MINUS.run(ref1), Op1.MINUS.run(prim1));
+            for (final HoodOp op : new HoodOp[] { HoodOp.MIN, HoodOp.MAX, HoodOp.SUM, HoodOp.MEAN }) {
+                assertEquals(op.toString(), op.run(ref1, null), op.run(prim1, null));
+                assertEquals(op.toString(), op.run(ref1, new UID(0)), op.run(prim1, new UID(0)));
+            }
+        }
+    }
+
+    /**
+     * Adding a non double value must switch to boxed storage.
+     */
+    @Test
+    public void testMixedValues() {
+        final DoubleFieldImpl f = (DoubleFieldImpl) primitive(0, SIZE);
+        final Field ref = reference(0, SIZE);
+        f.addSample(new UID(SIZE), "a");
+        ref.addSample(new UID(SIZE), "a");
+        assertFalse(f.isPrimitive());
+        assertEquals(ref, f);
+        assertEquals(Op2.PLUS.run(ref, "b"), Op2.PLUS.run(f, "b"));
+    }
+
+    /**
+     * Removal and replacement must keep order and lookups consistent.
+     */
+    @Test
+    public void testUpdates() {
+        final Field f = primitive(0, SIZE);
+        final Field ref = reference(0, SIZE);
+        for (int i = 0; i < SIZE; i += 3) {
+            assertEquals(ref.removeSample(new UID(i)), f.removeSample(new UID(i)));
+            assertNull(f.getSample(new UID(i)));
+            f.addSample(new UID(i + 1), 42d);
+            ref.addSample(new UID(i + 1), 42d);
+        }
+        assertEquals(ref.size(), f.size());
+        assertEquals(ref.coupleIterator(), f.coupleIterator());
+        assertEquals(ref, f);
+        assertEquals(ref.hashCode(), f.hashCode());
+    }
+
+    /**
+     * Fields which are not aligned can not be combined.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testMisaligned() {
+        Op2.PLUS.run(primitive(0, SIZE), primitive(0, SIZE - 1));
+    }
+
+    /**
+     * Fields built on the same neighbor index must combine like the ones
+     * built on hash tables, even if some devices are missing.
+     */
+    @Test
+    public void testNeighborIndex() {
+        final Map<DeviceUID, Map<CodePath, Object>> theta = new LinkedHashMap<>();
+        for (int i = 1; i < SIZE; i++) {
+            theta.put(new UID(i), null);
+        }
+        final NeighborIndex domain = NeighborIndex.create(theta, new UID(0));
+        assertEquals(SIZE, domain.size());
+        assertEquals(SIZE - 1, domain.slotOf(new UID(0)));
+        final Random rnd = new Random(0);
+        final Field ref1 = new FieldMapImpl(SIZE, 1f);
+        final Field ref2 = new FieldMapImpl(SIZE, 1f);
+        final DoubleFieldImpl full = new DoubleFieldImpl(domain);
+        final DoubleFieldImpl sparse = new DoubleFieldImpl(domain);
+        for (int slot = domain.size() - 1; slot >= 0; slot--) {
+            final double v = rnd.nextInt(10);
+            full.addSampleToSlot(domain.size() - 1 - slot, v);
+            ref1.addSample(domain.getDevice(domain.size() - 1 - slot), v);
+            if (slot % 3 != 0) {
+                sparse.addSampleToSlot(slot, v);
+                ref2.addSample(domain.getDevice(slot), v);
+            }
+        }
+        assertEquals(ref1, full);
+        assertEquals(ref2, sparse);
+        for (final Op2 op : new Op2[] { Op2.PLUS, Op2.MIN, Op2.SMALLER }) {
+            assertEquals(op.toString(), op.run(ref2, ref1), op.run(sparse, full));
+            assertEquals(op.toString(), op.run(ref1, ref1), op.run(full, full));
+        }
+        final DoubleFieldImpl sum = (DoubleFieldImpl) Op2.PLUS.run(full, full);
+        assertSame(domain, sum.getDomain());
+        /*
+         * Devices outside the neighborhood drop the index
+         */
+        sparse.addSample(new UID(-1), 1d);
+        ref2.addSample(new UID(-1), 1d);
+        assertNull(sparse.getDomain());
+        assertEquals(ref2, sparse);
+    }
+
+    private static final class UID implements DeviceUID {
+        private static final long serialVersionUID = 1L;
+        private final int id;
+
+        private UID(final int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof UID && ((UID) obj).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(id);
+        }
+    }
+
+}
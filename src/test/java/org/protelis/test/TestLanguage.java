@@ -78,6 +78,15 @@ public class TestLanguage {
         testFile("/binary01.pt");
     }
 
+    /**
+     * Test sums with a string operand, whose other operand is a number, a
+     * boolean or a function parameter.
+     */
+    @Test
+    public void testBinary02() {
+        testFileWithExplicitResult("/binary02.pt", "a1.0!true!3.0c");
+    }
+
     /**
      * Test putting and getting of environment variables.
      */
@@ -127,6 +136,23 @@ public class TestLanguage {
         testFile("/fieldMethod03.pt");
     }
 
+    /**
+     * Test ifs, muxes and tuples over constants, which are folded upon
+     * loading.
+     */
+    @Test
+    public void testFold01() {
+        testFile("/fold01.pt");
+    }
+
+    /**
+     * Test a folded if whose selected branch keeps state.
+     */
+    @Test
+    public void testFold02() {
+        testFileWithMultipleRuns("/fold02.pt");
+    }
+
     /**
      * Test simple function call with no arguments.
      */
@@ -160,6 +186,15 @@ public class TestLanguage {
         testFile("/function04.pt");
     }
 
+    /**
+     * Test a function whose argument is a string, and is conditionally
+     * reassigned with a number.
+     */
+    @Test
+    public void testFunction05() {
+        testFileWithExplicitResult("/function05.pt", "a1.0");
+    }
+
     /**
      * Test hood with a lambda function.
      */
@@ -318,6 +353,15 @@ public class TestLanguage {
         testFileWithMultipleRuns("/lambda03.pt");
     }
 
+    /**
+     * Test a lambda whose argument is a string, and is conditionally
+     * reassigned with a number.
+     */
+    @Test
+    public void testLambda04() {
+        testFileWithExplicitResult("/lambda04.pt", "a1.0");
+    }
+
     /**
      * Test constants: -Infinity.
      */
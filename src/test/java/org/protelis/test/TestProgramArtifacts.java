@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.protelis.lang.ProgramArtifacts;
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.interpreter.impl.All;
+import org.protelis.lang.interpreter.impl.BinaryOp;
+import org.protelis.lang.interpreter.impl.Constant;
+import org.protelis.lang.interpreter.impl.CreateVar;
+import org.protelis.lang.interpreter.impl.FunctionCall;
+import org.protelis.lang.interpreter.impl.MethodCall;
+import org.protelis.lang.interpreter.impl.RepCall;
+import org.protelis.lang.interpreter.impl.Variable;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.ProtelisProgram;
+import org.protelis.vm.impl.DummyContext;
+import org.protelis.vm.impl.SimpleProgramImpl;
+
+/**
+ * Checks that programs read from artifacts behave like the original ones.
+ */
+public class TestProgramArtifacts {
+
+    private static final Reference A = new Reference("a");
+    private static final Reference V = new Reference("v");
+    private static final Reference Y = new Reference("y");
+
+    /*
+     * def twice(a) { a * 2 }
+     * let y = rep (v <- 1) { twice(v) };
+     * abs(-y)
+     */
+    private static ProtelisProgram program() {
+        final FunctionDefinition twice = new FunctionDefinition("twice", Collections.singletonList(A));
+        twice.setBody(new BinaryOp("*", new Variable(A), new Constant<>(2d)));
+        final Map<Reference, FunctionDefinition> functions = new LinkedHashMap<>();
+        functions.put(new Reference("twice"), twice);
+        return new SimpleProgramImpl("test:artifact", new All(Arrays.asList(
+                new CreateVar(Y, new RepCall<>(V, new Constant<>(1d),
+                        new FunctionCall(twice, Collections.singletonList(new Variable(V)))), true),
+                new MethodCall(Math.class, "abs", true,
+                        Collections.singletonList(new BinaryOp("-", new Constant<>(0d), new Variable(Y)))))),
+                functions);
+    }
+
+    /**
+     * Evaluating a program loaded from its artifact must give the same
+     * results, round after round.
+     */
+    @Test
+    public void testRoundTrip() {
+        final ProtelisProgram original = program();
+        final ProtelisProgram loaded = ProgramArtifacts.fromBytes(ProgramArtifacts.toBytes(original));
+        assertEquals(original.getName(), loaded.getName());
+        assertEquals(original.getNamedFunctions().keySet(), loaded.getNamedFunctions().keySet());
+        final DummyContext originalCtx = new DummyContext();
+        final DummyContext loadedCtx = new DummyContext();
+        for (int i = 0; i < 4; i++) {
+            originalCtx.setup();
+            original.compute(originalCtx);
+            originalCtx.commit();
+            loadedCtx.setup();
+            loaded.compute(loadedCtx);
+            loadedCtx.commit();
+            assertEquals(Math.pow(2, i + 1), ((Number) loaded.getCurrentValue()).doubleValue(), 0);
+            assertEquals(original.getCurrentValue(), loaded.getCurrentValue());
+        }
+    }
+
+    /**
+     * Arbitrary data must be refused.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotAnArtifact() {
+        ProgramArtifacts.fromBytes(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+    }
+
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.datatype.Tuple;
+import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.lang.interpreter.impl.AlignedMap;
+import org.protelis.lang.interpreter.impl.BinaryOp;
+import org.protelis.lang.interpreter.impl.Constant;
+import org.protelis.lang.interpreter.impl.CreateTuple;
+import org.protelis.lang.interpreter.impl.FunctionCall;
+import org.protelis.lang.interpreter.impl.NBRCall;
+import org.protelis.lang.interpreter.impl.RepCall;
+import org.protelis.lang.interpreter.impl.Variable;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.impl.DummyContext;
+
+/**
+ * Checks that stateless function bodies are shared among call sites, while
+ * the others are not, and that rep state is kept per call site anyway.
+ */
+public class TestSharedBodies {
+
+    private static final Reference A = new Reference("a");
+    private static final Reference K = new Reference("k");
+    private static final Reference V = new Reference("v");
+
+    /*
+     * def twice(a) { a * 2 }
+     */
+    private static FunctionDefinition twice() {
+        final FunctionDefinition twice = new FunctionDefinition("twice", Collections.singletonList(A));
+        twice.setBody(new BinaryOp("*", new Variable(A), new Constant<>(2d)));
+        return twice;
+    }
+
+    /*
+     * def count(a) { rep (v <- 0) { v + a } }
+     */
+    private static FunctionDefinition count() {
+        final FunctionDefinition count = new FunctionDefinition("count", Collections.singletonList(A));
+        count.setBody(new RepCall<>(V, new Constant<>(0d), new BinaryOp("+", new Variable(V), new Variable(A))));
+        return count;
+    }
+
+    /*
+     * def callsTwice(a) { twice(a) }
+     */
+    private static FunctionDefinition callsTwice() {
+        final FunctionDefinition f = new FunctionDefinition("callsTwice", Collections.singletonList(A));
+        f.setBody(call(twice(), A));
+        return f;
+    }
+
+    private static AnnotatedTree<?> call(final FunctionDefinition f, final Reference arg) {
+        return new FunctionCall(f, Collections.singletonList(new Variable(arg)));
+    }
+
+    private static AnnotatedTree<?> call(final FunctionDefinition f, final double arg) {
+        return new FunctionCall(f, Collections.singletonList(new Constant<>(arg)));
+    }
+
+    /**
+     * Stateless bodies are shared within a thread, and only there.
+     */
+    @Test
+    public void testStatelessBody() throws InterruptedException, ExecutionException {
+        final FunctionDefinition twice = twice();
+        assertTrue(twice.hasStatelessBody());
+        assertSame(twice.getSharedBody(), twice.getSharedBody());
+        assertNotSame(twice.getSharedBody(),
+                Executors.newSingleThreadExecutor().submit(twice::getSharedBody).get());
+        /*
+         * [twice(1), twice(twice(3))]
+         */
+        final AnnotatedTree<?> program = new CreateTuple(Arrays.asList(
+                call(twice, 1),
+                new FunctionCall(twice, Collections.singletonList(call(twice, 3)))));
+        final DummyContext ctx = new DummyContext();
+        ctx.setup();
+        program.eval(ctx);
+        ctx.commit();
+        assertEquals("[2.0, 12.0]", program.getAnnotation().toString());
+    }
+
+    /**
+     * Bodies calling other functions are not shared.
+     */
+    @Test
+    public void testBodyWithCalls() {
+        final FunctionDefinition f = callsTwice();
+        assertFalse(f.hasStatelessBody());
+        final AnnotatedTree<?> program = call(f, 4);
+        final DummyContext ctx = new DummyContext();
+        ctx.setup();
+        program.eval(ctx);
+        ctx.commit();
+        assertEquals(8d, program.getAnnotation());
+    }
+
+    /**
+     * Rep state is kept by the context: bodies with rep are shared, yet each
+     * call site keeps its own state.
+     */
+    @Test
+    public void testRepState() {
+        final FunctionDefinition count = count();
+        assertTrue(count.hasStatelessBody());
+        /*
+         * [count(1), count(10)]
+         */
+        final AnnotatedTree<?> program = new CreateTuple(Arrays.asList(
+                call(count, 1), call(count, 10)));
+        final DummyContext ctx = new DummyContext();
+        for (int i = 1; i <= 3; i++) {
+            ctx.setup();
+            program.eval(ctx);
+            ctx.commit();
+            assertEquals("[" + (double) i + ", " + 10d * i + "]", program.getAnnotation().toString());
+        }
+    }
+
+    /**
+     * Each key of an alignedMap keeps its own rep state.
+     */
+    @Test
+    public void testAlignedMapRepState() {
+        final FunctionDefinition filter = new FunctionDefinition("filter", Arrays.asList(K, A));
+        filter.setBody(new Constant<>(true));
+        final FunctionDefinition op = new FunctionDefinition("op", Arrays.asList(K, A));
+        op.setBody(new RepCall<>(V, new Constant<>(0d), new BinaryOp("+", new Variable(V), new Variable(K))));
+        /*
+         * alignedMap(nbr([[1, 0], [10, 0], [100, 0]]), (k, a) -> { true },
+         * (k, a) -> { rep (v <- 0) { v + k } }, 0)
+         */
+        final AnnotatedTree<?> program = new AlignedMap(
+                new NBRCall(new CreateTuple(
+                        new CreateTuple(new Constant<>(1d), new Constant<>(0d)),
+                        new CreateTuple(new Constant<>(10d), new Constant<>(0d)),
+                        new CreateTuple(new Constant<>(100d), new Constant<>(0d)))),
+                new Constant<>(filter),
+                new Constant<>(op),
+                new Constant<>(0d));
+        final DummyContext ctx = new DummyContext();
+        for (int i = 1; i <= 3; i++) {
+            ctx.setup();
+            program.eval(ctx);
+            ctx.commit();
+            final Map<Object, Object> results = new HashMap<>();
+            for (final Object mapping : (Tuple) program.getAnnotation()) {
+                results.put(((Tuple) mapping).get(0), ((Tuple) mapping).get(1));
+            }
+            assertEquals(3, results.size());
+            for (final double key : new double[] { 1, 10, 100 }) {
+                assertEquals(key * i, results.get(key));
+            }
+        }
+    }
+
+    /**
+     * Replacing the body must drop the shared copies.
+     */
+    @Test
+    public void testSetBody() {
+        final FunctionDefinition f = twice();
+        final AnnotatedTree<?> before = f.getSharedBody();
+        f.setBody(new Constant<>(1d));
+        assertNotSame(before, f.getSharedBody());
+        assertTrue(f.getSharedBody() instanceof Constant);
+    }
+
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.lang.interpreter.impl.All;
+import org.protelis.lang.interpreter.impl.BinaryOp;
+import org.protelis.lang.interpreter.impl.Constant;
+import org.protelis.lang.interpreter.impl.CreateTuple;
+import org.protelis.lang.interpreter.impl.CreateVar;
+import org.protelis.lang.interpreter.impl.DotOperator;
+import org.protelis.lang.interpreter.impl.FunctionCall;
+import org.protelis.lang.interpreter.impl.HoodCall;
+import org.protelis.lang.interpreter.impl.NBRCall;
+import org.protelis.lang.interpreter.impl.RepCall;
+import org.protelis.lang.interpreter.impl.Self;
+import org.protelis.lang.interpreter.impl.Variable;
+import org.protelis.lang.util.HoodOp;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.ProtelisVM;
+import org.protelis.vm.impl.DummyContext;
+import org.protelis.vm.impl.DummyNetworkManager;
+import org.protelis.vm.impl.SharedProgram;
+import org.protelis.vm.impl.SimpleProgramImpl;
+
+/**
+ * Checks that devices sharing the code of a program behave as if each of them
+ * had its own copy.
+ */
+public class TestSharedProgram {
+
+    private static final int DEVICES = 5;
+    private static final int ROUNDS = 4;
+    private static final Reference A = new Reference("a");
+    private static final Reference V = new Reference("v");
+    private static final Reference X = new Reference("x");
+
+    /*
+     * def f(a) { rep (v <- 0) { v + a } }
+     * let x = self.getCurrentTime();
+     * [f(x), f(1), minHood PlusSelf(nbr(x))]
+     */
+    private static SimpleProgramImpl program() {
+        final FunctionDefinition f = new FunctionDefinition("f", Collections.singletonList(A));
+        f.setBody(new RepCall<>(V, new Constant<>(0d), new BinaryOp("+", new Variable(V), new Variable(A))));
+        final Map<Reference, FunctionDefinition> functions = new LinkedHashMap<>();
+        functions.put(new Reference("f"), f);
+        final AnnotatedTree<?> tree = new All(Arrays.asList(
+                new CreateVar(X, new DotOperator("getCurrentTime", new Self(), Collections.emptyList()), true),
+                new CreateTuple(Arrays.asList(
+                        new FunctionCall(f, Collections.singletonList(new Variable(X))),
+                        new FunctionCall(f, Collections.singletonList(new Constant<>(1d))),
+                        new HoodCall(new NBRCall(new Variable(X)), HoodOp.MIN, true)))));
+        return new SimpleProgramImpl("test:shared", tree, functions);
+    }
+
+    /**
+     * Devices evaluated in turn on the same code must compute the same values
+     * as devices with private copies.
+     */
+    @Test
+    public void testInterleavedDevices() {
+        final SharedProgram shared = new SharedProgram(program());
+        final ProtelisVM[] sharing = new ProtelisVM[DEVICES];
+        final ProtelisVM[] owning = new ProtelisVM[DEVICES];
+        for (int i = 0; i < DEVICES; i++) {
+            sharing[i] = new ProtelisVM(shared.newInstance(), new DummyContext(new DummyNetworkManager(), i));
+            owning[i] = new ProtelisVM(program(), new DummyContext(new DummyNetworkManager(), i));
+        }
+        for (int round = 1; round <= ROUNDS; round++) {
+            for (int i = 0; i < DEVICES; i++) {
+                sharing[i].runCycle();
+                owning[i].runCycle();
+            }
+            for (int i = 0; i < DEVICES; i++) {
+                assertEquals(owning[i].getCurrentValue(), sharing[i].getCurrentValue());
+                assertEquals("[" + (double) i * round + ", " + (double) round + ", " + (double) i + "]",
+                        sharing[i].getCurrentValue().toString());
+            }
+        }
+    }
+
+}
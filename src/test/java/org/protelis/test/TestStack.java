@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+import org.protelis.lang.util.Reference;
+import org.protelis.lang.util.SlotTable;
+import org.protelis.vm.util.Stack;
+import org.protelis.vm.util.StackImpl;
+
+/**
+ * Checks the scoping rules of {@link StackImpl}.
+ */
+public class TestStack {
+
+    private static final Reference A = new Reference("a");
+    private static final Reference B = new Reference("b");
+    private static final Reference F = new Reference("f");
+    private static final int DEPTH = 1000;
+
+    /**
+     * let c = 0; if(true) { let c = 1 } else { 1 } // c = 0.
+     */
+    @Test
+    public void testShadowing() {
+        final Stack stack = new StackImpl(Collections.singletonMap(F, "f"));
+        stack.put(A, 0, true);
+        stack.push();
+        assertEquals(0, stack.get(A));
+        assertNull(stack.put(A, 1, true));
+        assertEquals(1, stack.put(A, 2, true));
+        assertEquals(2, stack.get(A));
+        stack.pop();
+        assertEquals(0, stack.get(A));
+        assertEquals("f", stack.get(F));
+    }
+
+    /**
+     * let c = 0; if(true) { c = 1 } else { 1 } // c = 1.
+     */
+    @Test
+    public void testAssignment() {
+        final Stack stack = new StackImpl(Collections.emptyMap());
+        stack.push();
+        assertNull(stack.put(A, 1, false));
+        assertNull(stack.get(A));
+        stack.put(A, 0, true);
+        stack.push();
+        stack.push();
+        stack.put(A, 1, false);
+        stack.pop();
+        stack.pop();
+        assertEquals(1, stack.get(A));
+        stack.pop();
+        assertNull(stack.get(A));
+    }
+
+    /**
+     * The base layer is visible, can be shadowed and assigned, and is never
+     * modified.
+     */
+    @Test
+    public void testBaseLayer() {
+        final Map<Reference, Object> base = Collections.singletonMap(F, "f");
+        final StackImpl stack = new StackImpl(base);
+        stack.push();
+        stack.put(F, "shadow", true);
+        assertEquals("shadow", stack.get(F));
+        stack.pop();
+        assertEquals("f", stack.get(F));
+        stack.push();
+        stack.put(F, "assigned", false);
+        stack.pop();
+        assertEquals("assigned", stack.get(F));
+        assertEquals("f", base.get(F));
+        stack.put(A, 1, true);
+        stack.push();
+        stack.reset(base);
+        assertEquals("f", stack.get(F));
+        assertNull(stack.get(A));
+        stack.put(A, 2, true);
+        stack.push();
+        stack.pop();
+        assertEquals(2, stack.get(A));
+    }
+
+    /**
+     * Variables bound in deep scopes are dropped as scopes are left.
+     */
+    @Test
+    public void testDeepStack() {
+        final Stack stack = new StackImpl(Collections.emptyMap());
+        stack.put(A, -1, true);
+        for (int i = 0; i < DEPTH; i++) {
+            stack.push();
+            stack.put(B, i, true);
+            if (i % 2 == 0) {
+                stack.put(A, i, true);
+            }
+        }
+        for (int i = DEPTH - 1; i >= 0; i--) {
+            assertEquals(i, stack.get(B));
+            assertEquals(i - i % 2, stack.get(A));
+            stack.pop();
+        }
+        assertEquals(-1, stack.get(A));
+        assertNull(stack.get(B));
+    }
+
+    /**
+     * References of different programs, or of none, can share a stack:
+     * equal references see the same variable, different ones never collide.
+     */
+    @Test
+    public void testSlotTables() {
+        final Reference a = new Reference("a");
+        final Reference b = new Reference("b");
+        final SlotTable program = SlotTable.assign(Arrays.asList(a, b, a));
+        assertEquals(2, program.size());
+        assertEquals(a.getSlot(), program.getSlot(A));
+        final Reference c = new Reference("c");
+        final Reference d = new Reference("d");
+        SlotTable.assign(Arrays.asList(d, c));
+        assertEquals(b.getSlot(), c.getSlot());
+        final Stack stack = new StackImpl(Collections.emptyMap());
+        stack.put(a, 1, true);
+        stack.put(c, 2, true);
+        stack.put(d, 3, true);
+        stack.put(A, 4, true);
+        stack.push();
+        stack.put(B, 5, true);
+        stack.put(b, 6, false);
+        assertEquals(4, stack.get(a));
+        assertEquals(6, stack.get(B));
+        assertEquals(2, stack.get(c));
+        assertEquals(3, stack.get(d));
+        stack.pop();
+        assertNull(stack.get(b));
+    }
+
+}
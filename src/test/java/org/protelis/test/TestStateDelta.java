@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.lang.interpreter.impl.All;
+import org.protelis.lang.interpreter.impl.Constant;
+import org.protelis.lang.interpreter.impl.HoodCall;
+import org.protelis.lang.interpreter.impl.If;
+import org.protelis.lang.interpreter.impl.NBRCall;
+import org.protelis.lang.interpreter.impl.Variable;
+import org.protelis.lang.util.HoodOp;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.DeltaNetworkManager;
+import org.protelis.vm.impl.BinaryStateCodec;
+import org.protelis.vm.impl.DummyContext;
+import org.protelis.vm.impl.DummyNetworkManager;
+import org.protelis.vm.util.CodePath;
+import org.protelis.vm.util.StateDelta;
+
+import gnu.trove.list.array.TByteArrayList;
+
+/**
+ * Checks that the deltas shared by the context allow for rebuilding the
+ * full state.
+ */
+public class TestStateDelta {
+
+    private static final Reference X = new Reference("x");
+    private static final Reference COND = new Reference("cond");
+
+    /*
+     * { nbr(x); if (cond) { minHood PlusSelf(nbr(1)) } else { 0 } }
+     */
+    @SuppressWarnings("unchecked")
+    private static AnnotatedTree<?> program() {
+        return new All(Arrays.asList(
+                new NBRCall(new Variable(X)),
+                new If<>((AnnotatedTree<Boolean>) (AnnotatedTree<?>) new Variable(COND),
+                        new HoodCall(new NBRCall(new Constant<>(1d)), HoodOp.MIN, true),
+                        new Constant<Object>(0d))));
+    }
+
+    /**
+     * Patching the previous state with the deltas must give the current
+     * state, and unchanged values must not be sent.
+     */
+    @Test
+    public void testRounds() {
+        final AnnotatedTree<?> program = program();
+        final CapturingDeltaManager network = new CapturingDeltaManager();
+        final DummyContext ctx = new DummyContext(network);
+        final BinaryStateCodec codec = new BinaryStateCodec();
+        final Object[][] rounds = {
+            { 1d, true },
+            { 1d, true },
+            { 2d, true },
+            { 2d, false },
+            { 2d, true },
+        };
+        final int[] expectedUpdates = { 2, 0, 1, 0, 1 };
+        final int[] expectedRemovals = { 0, 0, 0, 1, 0 };
+        Map<CodePath, Object> received = null;
+        long receivedSequence = StateDelta.NO_BASE;
+        for (int i = 0; i < rounds.length; i++) {
+            ctx.setup();
+            ctx.putVariable(X, rounds[i][0], true);
+            ctx.putVariable(COND, rounds[i][1], true);
+            program.eval(ctx);
+            ctx.commit();
+            final StateDelta delta = network.deltas.get(i);
+            assertEquals(expectedUpdates[i], delta.getUpdated().size());
+            assertEquals(expectedRemovals[i], delta.getRemoved().size());
+            final StateDelta transmitted = codec.decodeDelta(encode(codec, delta));
+            assertEquals(i, transmitted.getSequence());
+            assertEquals(i == 0, transmitted.isFull());
+            received = transmitted.applyTo(received, receivedSequence);
+            receivedSequence = transmitted.getSequence();
+            assertEquals(delta.getState(), received);
+        }
+    }
+
+    /**
+     * Deltas between equal states must be empty.
+     */
+    @Test
+    public void testEmpty() {
+        final Map<CodePath, Object> state = Collections.singletonMap(
+                new CodePath(new TByteArrayList(new byte[] { 1, 2 })), 1d);
+        assertTrue(StateDelta.between(state, 0, state, 1).isEmpty());
+        assertEquals(state, StateDelta.full(state, 0).applyTo(null, StateDelta.NO_BASE));
+    }
+
+    /**
+     * Deltas must be refused unless they patch the last known state.
+     */
+    @Test
+    public void testMissingBase() {
+        final CodePath path = new CodePath(new TByteArrayList(new byte[] { 1, 2 }));
+        final Map<CodePath, Object> first = Collections.singletonMap(path, 1d);
+        final Map<CodePath, Object> second = Collections.singletonMap(path, 2d);
+        final StateDelta delta = StateDelta.between(first, 4, second, 5);
+        assertFalse(delta.canApplyTo(null, 4));
+        assertFalse(delta.canApplyTo(first, 3));
+        assertTrue(delta.canApplyTo(first, 4));
+        assertEquals(second, delta.applyTo(first, 4));
+        try {
+            delta.applyTo(null, 4);
+            fail();
+        } catch (IllegalStateException e) {
+            assertNotNull(e.getMessage());
+        }
+        try {
+            delta.applyTo(first, 3);
+            fail();
+        } catch (IllegalStateException e) {
+            assertNotNull(e.getMessage());
+        }
+        assertEquals(second, StateDelta.full(second, 6).applyTo(first, 3));
+    }
+
+    /**
+     * Network managers can force full exports.
+     */
+    @Test
+    public void testKeyframes() {
+        final AnnotatedTree<?> program = program();
+        final CapturingDeltaManager network = new CapturingDeltaManager();
+        network.keyframeInterval = 3;
+        final DummyContext ctx = new DummyContext(network);
+        for (int i = 0; i < 7; i++) {
+            ctx.setup();
+            ctx.putVariable(X, (double) i, true);
+            ctx.putVariable(COND, true, true);
+            program.eval(ctx);
+            ctx.commit();
+            final StateDelta delta = network.deltas.get(i);
+            assertEquals(i, delta.getSequence());
+            assertEquals(i % 3 == 0, delta.isFull());
+            assertEquals(delta.isFull() ? StateDelta.NO_BASE : i - 1, delta.getBase());
+        }
+    }
+
+    private static ByteBuffer encode(final BinaryStateCodec codec, final StateDelta delta) {
+        final ByteBuffer buffer = ByteBuffer.allocate(1024);
+        codec.encode(delta, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static final class CapturingDeltaManager extends DummyNetworkManager implements DeltaNetworkManager {
+        private final List<StateDelta> deltas = new ArrayList<>();
+        private int keyframeInterval = Integer.MAX_VALUE;
+
+        @Override
+        public void shareDelta(final StateDelta delta) {
+            deltas.add(delta);
+        }
+
+        @Override
+        public boolean isFullStateRequired(final long sequence) {
+            return sequence % keyframeInterval == 0;
+        }
+    }
+
+}
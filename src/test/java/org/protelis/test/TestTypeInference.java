@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.lang.interpreter.StaticType;
+import org.protelis.lang.interpreter.impl.All;
+import org.protelis.lang.interpreter.impl.BinaryOp;
+import org.protelis.lang.interpreter.impl.BytecodeCompiler;
+import org.protelis.lang.interpreter.impl.Constant;
+import org.protelis.lang.interpreter.impl.CreateTuple;
+import org.protelis.lang.interpreter.impl.CreateVar;
+import org.protelis.lang.interpreter.impl.FunctionCall;
+import org.protelis.lang.interpreter.impl.HoodCall;
+import org.protelis.lang.interpreter.impl.If;
+import org.protelis.lang.interpreter.impl.NBRCall;
+import org.protelis.lang.interpreter.impl.RepCall;
+import org.protelis.lang.interpreter.impl.TernaryOp;
+import org.protelis.lang.interpreter.impl.TypeInference;
+import org.protelis.lang.interpreter.impl.UnaryOp;
+import org.protelis.lang.interpreter.impl.Variable;
+import org.protelis.lang.util.HoodOp;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.impl.DummyContext;
+
+/**
+ * Checks the types inferred by {@link TypeInference}, and that specialized
+ * programs evaluate like the generic ones.
+ */
+public class TestTypeInference {
+
+    private static final Reference X = new Reference("x");
+    private static final Reference Y = new Reference("y");
+    private static final Reference N = new Reference("n");
+    private static final Reference UNSET = new Reference("unset");
+
+    /**
+     * Types of literals, operators, fields and variables.
+     */
+    @Test
+    public void testTypes() {
+        assertEquals(StaticType.NUMBER, TypeInference.infer(
+                new RepCall<>(X, new Constant<>(0d), new BinaryOp("+", new Variable(X), new Constant<>(1d)))));
+        assertEquals(StaticType.STRING, TypeInference.infer(
+                new BinaryOp("+", new Constant<>("a"), new Constant<>(1d))));
+        assertEquals(StaticType.BOOLEAN, TypeInference.infer(
+                new BinaryOp("<", new Constant<>(1d), new Constant<>(2d))));
+        assertEquals(StaticType.ANY, TypeInference.infer(
+                new BinaryOp("<", new Variable(UNSET), new Constant<>(2d))));
+        assertEquals(StaticType.NUMBER_FIELD, TypeInference.infer(
+                new BinaryOp("*", new NBRCall(new Constant<>(1d)), new Constant<>(2d))));
+        assertEquals(StaticType.FIELD, TypeInference.infer(
+                new UnaryOp("!", new NBRCall(new Constant<>(true)))));
+        assertEquals(StaticType.NUMBER, TypeInference.infer(
+                new HoodCall(new NBRCall(new UnaryOp("-", new Constant<>(1d))), HoodOp.MIN, false)));
+        assertEquals(StaticType.TUPLE, TypeInference.infer(
+                new CreateTuple(new Constant<>(1d), new Constant<>("a"))));
+        assertEquals(StaticType.FIELD, TypeInference.infer(
+                new CreateTuple(new Constant<>(1d), new NBRCall(new Constant<>("a")))));
+        assertEquals(StaticType.ANY, TypeInference.infer(new All(Arrays.asList(
+                new CreateVar(Y, new Constant<>(1d), true),
+                new CreateVar(Y, new Constant<>("a"), false),
+                new Variable(Y)))));
+    }
+
+    /**
+     * Recursive functions are typed with the base case.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRecursion() {
+        final FunctionDefinition fd = new FunctionDefinition("f", Collections.singletonList(N));
+        fd.setBody(new If<>(
+                (AnnotatedTree<Boolean>) (AnnotatedTree<?>) new BinaryOp(">", new Variable(N), new Constant<>(0d)),
+                new BinaryOp("+",
+                        new FunctionCall(fd, Collections.singletonList(
+                                new BinaryOp("-", new Variable(N), new Constant<>(1d)))),
+                        new Constant<>(1d)),
+                new Constant<>(0d)));
+        assertEquals(StaticType.NUMBER,
+                TypeInference.infer(new FunctionCall(fd, Collections.singletonList(new Constant<>(3d)))));
+    }
+
+    /**
+     * Parameters are bound at the call sites: reassigning one in the body
+     * does not make its type known.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testReassignedParameter() {
+        /*
+         * def f(n) { if (false) { n = 1 } else { 0 }; n + 1 }
+         */
+        final FunctionDefinition fd = new FunctionDefinition("f", Collections.singletonList(N));
+        fd.setBody(new All(Arrays.asList(
+                new If<>((AnnotatedTree<Boolean>) (AnnotatedTree<?>) new Constant<>(false),
+                        new CreateVar(N, new Constant<>(1d), false),
+                        new Constant<>(0d)),
+                new BinaryOp("+", new Variable(N), new Constant<>(1d)))));
+        final AnnotatedTree<?> call = new FunctionCall(fd, Collections.singletonList(new Constant<>("a")));
+        assertEquals(StaticType.ANY, TypeInference.infer(call));
+        assertEquals("a1.0", new DummyContext().run(call));
+        assertEquals("a1.0", new DummyContext().run(BytecodeCompiler.compile(call.copy())));
+    }
+
+    /*
+     * { let x = k; let y = x * 3 - 1; [x + y, x % y, -y, x < y, x == y, x != y,
+     * mux (x >= y) { x } else { y }, "v" + x, x ^ y, x + [y]] }
+     */
+    private static AnnotatedTree<?> program(final double k) {
+        final AnnotatedTree<?> x = new Variable(X);
+        return new All(Arrays.asList(
+                new CreateVar(X, new Constant<>(k), true),
+                new CreateVar(Y, new BinaryOp("-",
+                        new BinaryOp("*", new Variable(X), new Constant<>(3d)),
+                        new Constant<>(1d)), true),
+                new CreateTuple(
+                        new BinaryOp("+", x, new Variable(Y)),
+                        new BinaryOp("%", x.copy(), new Variable(Y)),
+                        new UnaryOp("-", new Variable(Y)),
+                        new BinaryOp("<", x.copy(), new Variable(Y)),
+                        new BinaryOp("==", x.copy(), new Variable(Y)),
+                        new BinaryOp("!=", x.copy(), new Variable(Y)),
+                        new TernaryOp("mux",
+                                new BinaryOp(">=", x.copy(), new Variable(Y)),
+                                x.copy(),
+                                new Variable(Y)),
+                        new BinaryOp("+", new Constant<>("v"), x.copy()),
+                        new BinaryOp("^", x.copy(), new Variable(Y)),
+                        new BinaryOp("+", x.copy(), new CreateTuple(new Variable(Y))))));
+    }
+
+    /**
+     * Specialized programs, interpreted or compiled, must produce the same
+     * values as generic ones.
+     */
+    @Test
+    public void testSameValues() {
+        for (final double k : new double[] { -2, 0, 1.5, 1d / 3, Double.NaN, Double.POSITIVE_INFINITY }) {
+            final Object expected = new DummyContext().run(program(k));
+            final AnnotatedTree<?> specialized = program(k);
+            assertEquals(StaticType.TUPLE, TypeInference.infer(specialized));
+            assertEquals(expected, new DummyContext().run(specialized));
+            assertEquals(expected, new DummyContext().run(specialized.copy()));
+            assertEquals(expected, new DummyContext().run(BytecodeCompiler.compile(specialized)));
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.List;
+import java.util.Map;
+
+import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.impl.DummyContext;
+import org.protelis.vm.impl.DummyNetworkManager;
+
+/**
+ * Checks that a transformed tree behaves like the original one.
+ */
+final class TreeEquivalence {
+
+    private TreeEquivalence() {
+    }
+
+    /**
+     * Runs both trees on devices of their own, and checks that each round
+     * produces the same values and exports the same, non empty, state.
+     *
+     * @param original
+     *            the original tree
+     * @param transformed
+     *            the transformed tree
+     * @param rounds
+     *            the variables defined for each round
+     */
+    static void assertSameAlignment(
+            final AnnotatedTree<?> original,
+            final AnnotatedTree<?> transformed,
+            final List<? extends Map<Reference, ?>> rounds) {
+        final DummyNetworkManager originalNet = new DummyNetworkManager();
+        final DummyNetworkManager transformedNet = new DummyNetworkManager();
+        final DummyContext originalCtx = new DummyContext(originalNet);
+        final DummyContext transformedCtx = new DummyContext(transformedNet);
+        for (final Map<Reference, ?> variables : rounds) {
+            assertEquals(originalCtx.run(original, variables), transformedCtx.run(transformed, variables));
+            assertFalse(originalNet.getSharedState().isEmpty());
+            assertEquals(originalNet.getSharedState(), transformedNet.getSharedState());
+        }
+    }
+
+}
@@ -8,11 +8,16 @@
  *******************************************************************************/
 package org.protelis.vm.impl;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.Random;
 import java.util.stream.IntStream;
 
 import org.protelis.lang.datatype.DeviceUID;
 import org.protelis.lang.datatype.Field;
+import org.protelis.lang.interpreter.AnnotatedTree;
+import org.protelis.lang.util.Reference;
+import org.protelis.vm.NetworkManager;
 
 /**
  * A dummy Protelis VM to be used for testing.
@@ -29,21 +34,54 @@ public final class DummyContext extends AbstractExecutionContext {
         };
     };
 
+    private final DeviceUID uid;
+    private final Number time;
+
     /**
      *
      */
     public DummyContext() {
-        super(new SimpleExecutionEnvironment(), new DummyNetworkManager());
+        this(new DummyNetworkManager());
+    }
+
+    /**
+     * @param nm
+     *            the network manager
+     */
+    public DummyContext(final NetworkManager nm) {
+        this(nm, DUMMYUID, null);
+    }
+
+    /**
+     * Builds the context of a device with its own identifier, whose current
+     * time never changes: it can be used to tell devices apart.
+     * 
+     * @param nm
+     *            the network manager
+     * @param time
+     *            the current time of the device
+     */
+    public DummyContext(final NetworkManager nm, final double time) {
+        this(nm, new DeviceUID() {
+            private static final long serialVersionUID = 1L;
+        }, time);
+    }
+
+    private DummyContext(final NetworkManager nm, final DeviceUID uid, final Number time) {
+        super(new SimpleExecutionEnvironment(), nm);
+        this.uid = uid;
+        this.time = time;
+        setAvailableFunctions(Collections.emptyMap());
     }
 
     @Override
     public DeviceUID getDeviceUID() {
-        return DUMMYUID;
+        return uid;
     }
 
     @Override
     public Number getCurrentTime() {
-        return System.currentTimeMillis() / 1000d;
+        return time == null ? System.currentTimeMillis() / 1000d : time;
     }
 
     @Override
@@ -53,7 +91,7 @@ public final class DummyContext extends AbstractExecutionContext {
 
     @Override
     protected AbstractExecutionContext instance() {
-        return new DummyContext();
+        return new DummyContext(new DummyNetworkManager(), uid, time);
     }
 
     @Override
@@ -61,6 +99,34 @@ public final class DummyContext extends AbstractExecutionContext {
         return getClass().getSimpleName() + hashCode();
     }
 
+    /**
+     * Test utility: runs a round evaluating a tree.
+     * 
+     * @param program
+     *            the tree to evaluate
+     * @return the value of the tree
+     */
+    public Object run(final AnnotatedTree<?> program) {
+        return run(program, Collections.emptyMap());
+    }
+
+    /**
+     * Test utility: runs a round evaluating a tree.
+     * 
+     * @param program
+     *            the tree to evaluate
+     * @param variables
+     *            the variables defined for the round
+     * @return the value of the tree
+     */
+    public Object run(final AnnotatedTree<?> program, final Map<Reference, ?> variables) {
+        setup();
+        putMultipleVariables(variables);
+        program.eval(this);
+        commit();
+        return program.getAnnotation();
+    }
+
     /**
      * Test utility.
      * 
@@ -20,10 +20,12 @@ import org.protelis.vm.util.CodePath;
 
 /**
  * Stub network manager for testing, in which there are no neighbors and no
- * messages are ever sent.
+ * messages are ever sent. The last shared state is kept for inspection.
  */
 public class DummyNetworkManager implements NetworkManager {
 
+    private Map<CodePath, Object> shared = Collections.emptyMap();
+
     @Override
     public Map<DeviceUID, Map<CodePath, Object>> getNeighborState() {
         return Collections.emptyMap();
@@ -31,6 +33,14 @@ public class DummyNetworkManager implements NetworkManager {
 
     @Override
     public void shareState(final Map<CodePath, Object> toSend) {
+        shared = toSend;
+    }
+
+    /**
+     * @return the last shared state, or an empty map if nothing was shared
+     */
+    public Map<CodePath, Object> getSharedState() {
+        return shared;
     }
 
 }